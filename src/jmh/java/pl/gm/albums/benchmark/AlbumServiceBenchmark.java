@@ -0,0 +1,100 @@
+package pl.gm.albums.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.dto.AlbumSummaryDto;
+import pl.gm.albums.album.service.AlbumService;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.service.PhotoService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the album and photo service hot paths against an H2 database seeded with 10, 1k and 100k photos.
+ * Albums hold at most {@value BenchmarkDatabase#MAX_PHOTOS_PER_ALBUM} photos, so lookup and deletion work on
+ * albums of min(photos, 1000) photos, while listAll and the summary listing see the whole catalogue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlbumServiceBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int photos;
+
+    private BenchmarkDatabase database;
+    private AlbumService albumService;
+    private PhotoService photoService;
+    private List<Long> albumIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = new BenchmarkDatabase("service-" + photos);
+        albumService = database.getBean(AlbumService.class);
+        photoService = database.getBean(PhotoService.class);
+        albumIds = database.seedPhotos(photos);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    @Benchmark
+    public List<AlbumDto> listAll() {
+        return albumService.listAll();
+    }
+
+    @Benchmark
+    public Page<AlbumSummaryDto> listSummariesFirstPage() {
+        return albumService.listSummaries(PageRequest.of(0, 12));
+    }
+
+    @Benchmark
+    public AlbumDto getById() {
+        return albumService.getById(albumIds.get(ThreadLocalRandom.current().nextInt(albumIds.size())));
+    }
+
+    /**
+     * Stores a 64 KiB upload with unique content, so every invocation writes a new file and a new row.
+     */
+    @Benchmark
+    public PhotoDto createPhotoEntity() {
+        byte[] content = new byte[64 * 1024];
+        ThreadLocalRandom.current().nextBytes(content);
+        ByteBuffer.wrap(content).putLong(System.nanoTime());
+        return photoService.createPhotoEntity(
+                new MockMultipartFile("imageFile", "upload.jpg", "image/jpeg", content));
+    }
+
+    @State(Scope.Thread)
+    public static class AlbumToDelete {
+
+        long albumId;
+
+        /**
+         * Seeds a fresh album before every deletion; the seeding itself is not measured.
+         */
+        @Setup(Level.Invocation)
+        public void seed(AlbumServiceBenchmark benchmark) {
+            albumId = benchmark.database.seedAlbum(Math.min(benchmark.photos, BenchmarkDatabase.MAX_PHOTOS_PER_ALBUM));
+        }
+    }
+
+    @Benchmark
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 5, batchSize = 1)
+    public void deleteAlbum(AlbumToDelete album) {
+        albumService.deleteAlbum(album.albumId);
+    }
+}
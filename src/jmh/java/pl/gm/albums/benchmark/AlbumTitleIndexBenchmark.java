@@ -0,0 +1,115 @@
+package pl.gm.albums.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.gm.albums.album.dto.AlbumTitleDto;
+import pl.gm.albums.album.search.AlbumTitleIndex;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and querying the album title index for 1M albums with titles of three to five words
+ * drawn from a 20k word vocabulary with a skewed distribution, so some words appear in a large share of the titles.
+ * The heap retained by the built index is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class AlbumTitleIndexBenchmark {
+
+    private static final int VOCABULARY_SIZE = 20_000;
+
+    @Param({"1000000"})
+    int albums;
+
+    private String[] titles;
+    private AlbumTitleIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = word(random);
+        }
+        titles = new String[albums];
+        for (int i = 0; i < albums; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 3 + random.nextInt(3);
+            for (int w = 0; w < words; w++) {
+                // Squaring the uniform draw favours the first words of the vocabulary
+                double u = random.nextDouble();
+                title.append(w == 0 ? "" : " ").append(vocabulary[(int) (u * u * VOCABULARY_SIZE)]);
+            }
+            titles[i] = title.toString();
+        }
+
+        long before = usedHeap();
+        index = build();
+        long after = usedHeap();
+        System.out.printf("%nAlbum title index: %d albums, %d tokens, ~%d MB retained%n",
+                index.size(), index.tokenCount(), (after - before) / (1024 * 1024));
+    }
+
+    private AlbumTitleIndex build() {
+        AlbumTitleIndex built = new AlbumTitleIndex();
+        for (int i = 0; i < titles.length; i++) {
+            built.put(i + 1, titles[i]);
+        }
+        return built;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public AlbumTitleIndex buildIndex() {
+        return build();
+    }
+
+    /** One letter matches a large part of the vocabulary and most albums */
+    @Benchmark
+    public List<AlbumTitleDto> searchShortPrefix() {
+        return index.search("k", 20);
+    }
+
+    /** A frequent word followed by a partly typed rare one */
+    @Benchmark
+    public List<AlbumTitleDto> searchTwoWords() {
+        return index.search(titles[0].split(" ")[0] + " " + titles[albums - 1].split(" ")[1].substring(0, 3), 20);
+    }
+
+    /** A full title, which the rarest of its words narrows down to a handful of albums */
+    @Benchmark
+    public List<AlbumTitleDto> searchFullTitle() {
+        return index.search(titles[albums / 2], 20);
+    }
+
+    @Benchmark
+    public List<AlbumTitleDto> searchNoMatch() {
+        return index.search("qqqqq", 20);
+    }
+
+    private static String word(SplittableRandom random) {
+        String letters = "abcdefghijklmnoprstuwyz";
+        int length = 4 + random.nextInt(6);
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(letters.charAt(random.nextInt(letters.length())));
+        }
+        return word.toString();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,101 @@
+package pl.gm.albums.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files, e.g. from two commits, and prints the change of every benchmark's score
+ * and normalized allocation rate. Exits with status 1 if any score got worse by more than the given percentage.
+ * <p>
+ * Usage: BenchmarkComparison baseline.json current.json [max regression in percent, default 10]
+ */
+public class BenchmarkComparison {
+
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison baseline.json current.json [max regression %]");
+            System.exit(2);
+        }
+        Map<String, JsonNode> baseline = read(args[0]);
+        Map<String, JsonNode> current = read(args[1]);
+        double maxRegression = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        boolean regressed = false;
+        System.out.printf("%-90s %14s %14s %9s %9s%n", "Benchmark", "Baseline", "Current", "Score", "Alloc");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+            JsonNode after = entry.getValue();
+            double scoreChange = scoreChange(before, after);
+            Double allocationChange = allocationChange(before, after);
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%% %9s%n", entry.getKey(),
+                    score(before), score(after), scoreChange,
+                    allocationChange == null ? "-" : String.format("%+.1f%%", allocationChange));
+            if (scoreChange > maxRegression) {
+                regressed = true;
+            }
+        }
+        if (regressed) {
+            System.out.printf("At least one benchmark regressed by more than %.1f%%%n", maxRegression);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the change of the score in percent, where a positive value always means worse:
+     * higher for time-per-operation modes and lower for throughput.
+     */
+    private static double scoreChange(JsonNode before, JsonNode after) {
+        double change = (score(after) - score(before)) / score(before) * 100;
+        return "thrpt".equals(after.path("mode").asText()) ? -change : change;
+    }
+
+    private static Double allocationChange(JsonNode before, JsonNode after) {
+        JsonNode allocationBefore = allocation(before);
+        JsonNode allocationAfter = allocation(after);
+        if (allocationBefore == null || allocationAfter == null || allocationBefore.asDouble() == 0) {
+            return null;
+        }
+        return (allocationAfter.asDouble() - allocationBefore.asDouble()) / allocationBefore.asDouble() * 100;
+    }
+
+    private static double score(JsonNode result) {
+        return result.path("primaryMetric").path("score").asDouble();
+    }
+
+    private static JsonNode allocation(JsonNode result) {
+        // Depending on the JMH version the metric name may start with a separator character
+        Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+        while (metrics.hasNext()) {
+            Map.Entry<String, JsonNode> metric = metrics.next();
+            if (metric.getKey().endsWith(ALLOCATION_METRIC)) {
+                return metric.getValue().path("score");
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, JsonNode> read(String file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(new File(file))) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,112 @@
+package pl.gm.albums.benchmark;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pl.gm.albums.AlbumsApplication;
+import pl.gm.albums.photo.model.PhotoEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Boots the application without a web server against a private in-memory H2 database
+ * and seeds it with albums and photo rows through plain JDBC batches.
+ */
+class BenchmarkDatabase implements AutoCloseable {
+
+    /** Largest album seeded; bigger catalogues are split into several albums of this size */
+    static final int MAX_PHOTOS_PER_ALBUM = 1000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final ConfigurableApplicationContext context;
+    private final JdbcTemplate jdbcTemplate;
+    private final Path photosDirectory;
+    private long nextAlbumId = 1;
+    private long nextPhotoId = 1;
+
+    BenchmarkDatabase(String name) throws IOException {
+        photosDirectory = Files.createTempDirectory("albums-benchmark");
+        context = new SpringApplicationBuilder(AlbumsApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1",
+                        "--photos.storage.root=" + photosDirectory);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * Seeds the given number of photos, spread over albums of at most MAX_PHOTOS_PER_ALBUM photos each.
+     *
+     * @return IDs of the seeded albums.
+     */
+    List<Long> seedPhotos(int photos) {
+        List<Long> albumIds = new ArrayList<>();
+        for (int remaining = photos; remaining > 0; remaining -= MAX_PHOTOS_PER_ALBUM) {
+            albumIds.add(seedAlbum(Math.min(remaining, MAX_PHOTOS_PER_ALBUM)));
+        }
+        return albumIds;
+    }
+
+    /**
+     * Seeds one album with a main photo and the given number of photos.
+     *
+     * @return ID of the seeded album.
+     */
+    long seedAlbum(int photos) {
+        long albumId = nextAlbumId++;
+        long mainPhotoId = nextPhotoId;
+        // The album references its main photo and the other photos reference the album
+        insertPhotos(1, null);
+        jdbcTemplate.update("insert into album (id, title, main_photo_id) values (?, ?, ?)",
+                albumId, "Album " + albumId, mainPhotoId);
+        insertPhotos(photos, albumId);
+        // Keep the ids generated by the application clear of the seeded ones
+        jdbcTemplate.execute("alter table album alter column id restart with " + nextAlbumId);
+        jdbcTemplate.execute("alter sequence photo_seq restart with " + (nextPhotoId + PhotoEntity.ID_ALLOCATION_SIZE));
+        return albumId;
+    }
+
+    private void insertPhotos(int count, Long albumId) {
+        List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < count; i++) {
+            long photoId = nextPhotoId++;
+            String hash = String.format("%064x", photoId);
+            rows.add(new Object[]{photoId, hash + ".jpg", "IMG_" + photoId + ".jpg", hash, albumId});
+            if (rows.size() == BATCH_SIZE) {
+                insertPhotoRows(rows);
+                rows.clear();
+            }
+        }
+        if (!rows.isEmpty()) {
+            insertPhotoRows(rows);
+        }
+    }
+
+    private void insertPhotoRows(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("insert into photo (id, file_name, original_file_name, content_hash, album_id, " +
+                "thumbnails_ready) values (?, ?, ?, ?, ?, true)", rows);
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(photosDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
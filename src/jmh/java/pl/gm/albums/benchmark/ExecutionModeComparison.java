@@ -0,0 +1,198 @@
+package pl.gm.albums.benchmark;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pl.gm.albums.AlbumsApplication;
+import pl.gm.albums.load.LoadDriver;
+import pl.gm.albums.load.LoadDriver.Samples;
+import pl.gm.albums.photo.storage.PhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares request handling on the platform-thread default with virtual threads (photos.threads.virtual) at high
+ * concurrency. For each mode the application is started on a random port against a private in-memory H2 database,
+ * with a photo storage that takes a fixed time for every call, like a network share would. Then the given number of
+ * clients send requests back to back: 85% photo file downloads, 10% photo slices of an album and 5% uploads.
+ * After a warm-up, the throughput and the p50, p99 and maximum latency of every mode are printed. The clients are
+ * driven by the LoadDriver of the load tests.
+ * <p>
+ * Usage: ExecutionModeComparison [clients, default 400] [seconds, default 20] [storage latency in ms, default 20]
+ * [modes, default platform,virtual]
+ * <p>
+ * The virtual mode needs a build made with the jdk21 profile, running on JDK 21:
+ * <pre>
+ * ./mvnw -Pjdk21,benchmark test-compile exec:exec -Dbenchmark.main=pl.gm.albums.benchmark.ExecutionModeComparison -Djmh.args="400 20 20"
+ * </pre>
+ */
+public class ExecutionModeComparison {
+
+    private static final int WARM_UP_SECONDS = 5;
+    private static final int PHOTO_FILES = 50;
+    private static final int ALBUM_PHOTOS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        List<String> modes = Arrays.asList((args.length > 3 ? args[3] : "platform,virtual").split(","));
+
+        List<String> results = new ArrayList<>();
+        for (String mode : modes) {
+            results.add(run(mode, clients, seconds, latencyMs));
+        }
+        System.out.printf("%n%d clients, %d s, %d ms photo storage latency%n", clients, seconds, latencyMs);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %8s%n", "Mode", "Requests", "Req/s", "p50 ms", "p99 ms",
+                "Max ms", "Errors");
+        results.forEach(System.out::println);
+    }
+
+    private static String run(String mode, int clients, int seconds, long latencyMs) throws Exception {
+        Path data = Files.createTempDirectory("albums-load");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AlbumsApplication.class)
+                .initializers(applicationContext -> applicationContext.getBeanFactory()
+                        .addBeanPostProcessor(new BeanPostProcessor() {
+                            @Override
+                            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                                return bean instanceof PhotoStorage storage ? new SlowPhotoStorage(storage, latencyMs) : bean;
+                            }
+                        }))
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--server.port=0",
+                        "--management.server.port=-1",
+                        "--spring.datasource.url=jdbc:h2:mem:load-" + mode + ";DB_CLOSE_DELAY=-1",
+                        "--photos.storage.type=memory",
+                        "--photos.jobs.spool-dir=" + data.resolve("spool"),
+                        "--photos.jobs.max-depth=1000000",
+                        "--photos.threads.virtual=" + "virtual".equals(mode));
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            List<String> fileNames = seed(context);
+            return String.format("%-10s %s", mode, load("http://localhost:" + port, fileNames, clients, seconds));
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Stores photo files and an album with photo rows pointing at them.
+     *
+     * @return Names of the stored files.
+     */
+    private static List<String> seed(ConfigurableApplicationContext context) throws IOException {
+        List<String> fileNames = LoadDriver.storePhotoFiles(context.getBean(PhotoStorage.class), PHOTO_FILES, 20 * 1024,
+                new Random(1)).stream().map(StoredFile::fileName).toList();
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("insert into album (id, title) values (1, 'Load')");
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < ALBUM_PHOTOS; i++) {
+            String fileName = fileNames.get(i % PHOTO_FILES);
+            rows.add(new Object[]{1_000_000 + i, fileName, fileName.substring(0, 64)});
+        }
+        jdbcTemplate.batchUpdate("insert into photo (id, file_name, content_hash, album_id, thumbnails_ready) " +
+                "values (?, ?, ?, 1, false)", rows);
+        return fileNames;
+    }
+
+    private static String load(String baseUrl, List<String> fileNames, int clients, int seconds) throws Exception {
+        byte[] upload = new byte[50 * 1024];
+        new Random(2).nextBytes(upload);
+        byte[] uploadBody = LoadDriver.uploadBody(1, upload);
+
+        Samples all = Samples.total(LoadDriver.run(clients, WARM_UP_SECONDS, seconds, random -> {
+            int pick = random.nextInt(100);
+            if (pick < 85) {
+                return new LoadDriver.Request<>("photo", HttpRequest.newBuilder(URI.create(baseUrl + "/photos/"
+                        + fileNames.get(random.nextInt(fileNames.size())))).build(), 200);
+            } else if (pick < 95) {
+                return new LoadDriver.Request<>("slice", HttpRequest.newBuilder(URI.create(baseUrl
+                        + "/album/photo-all/1/photos?size=48&cursor=" + (1_000_000 + random.nextInt(ALBUM_PHOTOS))))
+                        .build(), 200);
+            }
+            return new LoadDriver.Request<>("upload", HttpRequest.newBuilder(URI.create(baseUrl + "/album/photo-add"))
+                    .header("Content-Type", LoadDriver.MULTIPART_CONTENT_TYPE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(uploadBody))
+                    .build(), 302);
+        }).values());
+        return String.format("%10d %10.0f %10.1f %10.1f %10.1f %8d", all.getCount(), all.getCount() / (double) seconds,
+                all.percentile(50), all.percentile(99), all.percentile(100), all.getErrors());
+    }
+
+    /**
+     * Stand-in for a photo storage on the network: every call waits before it is passed on.
+     */
+    private static class SlowPhotoStorage implements PhotoStorage {
+
+        private final PhotoStorage storage;
+        private final long latencyMs;
+
+        SlowPhotoStorage(PhotoStorage storage, long latencyMs) {
+            this.storage = storage;
+            this.latencyMs = latencyMs;
+        }
+
+        private void waitForStorage() throws IOException {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+
+        @Override
+        public StoredFile store(InputStream content, String extension) throws IOException {
+            waitForStorage();
+            return storage.store(content, extension);
+        }
+
+        @Override
+        public void put(String fileName, InputStream content) throws IOException {
+            waitForStorage();
+            storage.put(fileName, content);
+        }
+
+        @Override
+        public void moveIn(String fileName, Path source) throws IOException {
+            waitForStorage();
+            storage.moveIn(fileName, source);
+        }
+
+        @Override
+        public InputStream open(String fileName) throws IOException {
+            waitForStorage();
+            return storage.open(fileName);
+        }
+
+        @Override
+        public FileInfo stat(String fileName) throws IOException {
+            waitForStorage();
+            return storage.stat(fileName);
+        }
+
+        @Override
+        public Path localPath(String fileName) {
+            return storage.localPath(fileName);
+        }
+
+        @Override
+        public boolean delete(String fileName) throws IOException {
+            waitForStorage();
+            return storage.delete(fileName);
+        }
+    }
+}
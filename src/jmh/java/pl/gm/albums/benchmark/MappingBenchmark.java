@@ -0,0 +1,80 @@
+package pl.gm.albums.benchmark;
+
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.mapper.AlbumMapper;
+import pl.gm.albums.album.mapper.AlbumMapperImpl;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.photo.mapper.PhotoMapperImpl;
+import pl.gm.albums.photo.model.PhotoEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the generated MapStruct mappers with the reflective ModelMapper they replaced,
+ * mapping an album with 1k photos in both directions. Run with -prof gc to compare allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"1000"})
+    int photos;
+
+    private AlbumEntity albumEntity;
+    private AlbumDto albumDto;
+    private ModelMapper modelMapper;
+    private AlbumMapper albumMapper;
+
+    @Setup
+    public void setUp() {
+        modelMapper = new ModelMapper();
+        albumMapper = new AlbumMapperImpl(new PhotoMapperImpl());
+
+        albumEntity = new AlbumEntity();
+        albumEntity.setId(1L);
+        albumEntity.setTitle("Benchmark album");
+        List<PhotoEntity> photoEntities = new ArrayList<>(photos);
+        for (long i = 0; i < photos; i++) {
+            String hash = String.format("%064x", i);
+            PhotoEntity photo = new PhotoEntity();
+            photo.setId(i);
+            photo.setPath("./photos/");
+            photo.setFileName(hash + ".jpg");
+            photo.setOriginalFileName("IMG_" + i + ".jpg");
+            photo.setContentHash(hash);
+            photo.setAlbum(albumEntity);
+            photoEntities.add(photo);
+        }
+        albumEntity.setMainPhoto(photoEntities.get(0));
+        albumEntity.setPhotos(photoEntities);
+        albumDto = albumMapper.toDto(albumEntity);
+    }
+
+    @Benchmark
+    public AlbumDto modelMapperToDto() {
+        return modelMapper.map(albumEntity, AlbumDto.class);
+    }
+
+    @Benchmark
+    public AlbumDto mapStructToDto() {
+        return albumMapper.toDto(albumEntity);
+    }
+
+    @Benchmark
+    public AlbumEntity modelMapperToEntity() {
+        return modelMapper.map(albumDto, AlbumEntity.class);
+    }
+
+    @Benchmark
+    public AlbumEntity mapStructToEntity() {
+        return albumMapper.toEntity(albumDto);
+    }
+}
@@ -1,16 +1,82 @@
 package pl.gm.albums;
 
-import org.modelmapper.ModelMapper;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
 import org.springframework.context.annotation.Bean;
+import pl.gm.albums.photo.storage.CachingPhotoStorage;
+import pl.gm.albums.photo.storage.InMemoryPhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage;
+import pl.gm.albums.photo.storage.ShardedFileSystemPhotoStorage;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @SpringBootApplication
+@EnableCaching
 public class AlbumsApplication {
 
+	public static final String ALBUMS_CACHE = "albums";
+	public static final String ALBUM_SUMMARIES_CACHE = "albumSummaries";
+	public static final String PHOTOS_CACHE = "photos";
+
+	/**
+	 * Bounded in-process caches for album and photo reads.
+	 * Puts and evictions made inside a transaction are applied only after it commits,
+	 * so a rolled back change never reaches the cache.
+	 */
+	@Bean
+	public CacheManager cacheManager(@Value("${photos.cache.spec:maximumSize=1000,expireAfterWrite=10m,recordStats}") String spec) {
+		CaffeineCacheManager cacheManager = new CaffeineCacheManager(ALBUMS_CACHE, ALBUM_SUMMARIES_CACHE, PHOTOS_CACHE);
+		cacheManager.setCacheSpecification(spec);
+		return new TransactionAwareCacheManagerProxy(cacheManager);
+	}
+
+	/**
+	 * Storage of photo files: sharded directories under photos.storage.root, or memory if photos.storage.type is "memory".
+	 * With photos.storage.cache.enabled the files read from it are cached in memory and on the local disk,
+	 * for storages that are slow to read from.
+	 */
 	@Bean
-	public ModelMapper modelMapper() {
-		return new ModelMapper();
+	public PhotoStorage photoStorage(@Value("${photos.storage.type:filesystem}") String type,
+									 @Value("${photos.storage.root:./data/photos}") String root,
+									 @Value("${photos.storage.cache.enabled:false}") boolean cacheEnabled,
+									 @Value("${photos.storage.cache.root:./data/photo-cache}") String cacheRoot,
+									 @Value("${photos.storage.cache.memory-bytes:67108864}") long cacheMemoryBytes,
+									 @Value("${photos.storage.cache.memory-max-file-bytes:262144}") long cacheMemoryMaxFileBytes,
+									 @Value("${photos.storage.cache.disk-bytes:10737418240}") long cacheDiskBytes,
+									 MeterRegistry meterRegistry) {
+		PhotoStorage storage = "memory".equals(type) ? new InMemoryPhotoStorage() : new ShardedFileSystemPhotoStorage(Paths.get(root));
+		return cacheEnabled
+				? new CachingPhotoStorage(storage, Paths.get(cacheRoot), cacheMemoryBytes, cacheMemoryMaxFileBytes,
+						cacheDiskBytes, meterRegistry)
+				: storage;
+	}
+
+	/**
+	 * Records the methods annotated with @Timed.
+	 */
+	@Bean
+	public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+		return new TimedAspect(meterRegistry);
+	}
+
+	/**
+	 * Thread pool for writing uploaded photo files to disk in parallel.
+	 * Replaced by virtual threads when photos.threads.virtual is set, see VirtualThreadConfig.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	@ConditionalOnProperty(name = "photos.threads.virtual", havingValue = "false", matchIfMissing = true)
+	public ExecutorService photoIoExecutor(@Value("${photos.io.threads:8}") int threads) {
+		return Executors.newFixedThreadPool(threads);
 	}
 
 	public static void main(String[] args) {
@@ -1,32 +1,65 @@
 package pl.gm.albums.album.controller;
 
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.transaction.Transactional;
 import jakarta.validation.Valid;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.dto.AlbumTitleDto;
+import pl.gm.albums.album.dto.ImportProgressDto;
 import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.service.AlbumArchive;
+import pl.gm.albums.album.service.AlbumArchiveService;
+import pl.gm.albums.album.service.AlbumImportService;
+import pl.gm.albums.album.service.AlbumSearchService;
 import pl.gm.albums.album.service.AlbumService;
+import pl.gm.albums.job.service.PhotoJobQueueFullException;
+import pl.gm.albums.job.service.PhotoJobService;
 import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoSliceDto;
 import pl.gm.albums.photo.model.PhotoEntity;
 import pl.gm.albums.photo.service.PhotoService;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @Controller
 @RequestMapping("/album")
 public class AlbumController {
 
+    /** Number of photos rendered with the gallery page and loaded per scroll step. */
+    private static final int PHOTO_SLICE_SIZE = 48;
+
     private final AlbumService albumService;
+    private final AlbumSearchService albumSearchService;
+    private final AlbumImportService albumImportService;
+    private final AlbumArchiveService albumArchiveService;
     private final PhotoService photoService;
+    private final PhotoJobService photoJobService;
 
-    public AlbumController(AlbumService albumService, PhotoService photoService) {
+    public AlbumController(AlbumService albumService, AlbumSearchService albumSearchService,
+                           AlbumImportService albumImportService, AlbumArchiveService albumArchiveService,
+                           PhotoService photoService, PhotoJobService photoJobService) {
         this.albumService = albumService;
+        this.albumSearchService = albumSearchService;
+        this.albumImportService = albumImportService;
+        this.albumArchiveService = albumArchiveService;
         this.photoService = photoService;
+        this.photoJobService = photoJobService;
     }
 
     /**
@@ -55,9 +88,8 @@ public class AlbumController {
             return "/album/create";
         }
 
-        String photosDirectoryPath = "./src/main/resources/static/photos/";
         try {
-            PhotoDto mainPhoto = photoService.createPhotoEntity(imageFile, photosDirectoryPath);
+            PhotoDto mainPhoto = photoService.createPhotoEntity(imageFile);
             AlbumDto newAlbum = albumService.createAlbumEntity(albumDto, mainPhoto);
             return "index";
         } catch (Exception ex) {
@@ -76,46 +108,184 @@ public class AlbumController {
 
     /**
      * Handle the submission of the form to add a new photo to an album.
-     * Creates a new photo entity and adds it to the album, then saves the album to the database.
+     * The file is queued and added to the album by a background worker.
      */
     @PostMapping("/photo-add")
     public String addPhoto(@RequestParam("albumId") Long albumId,
                            @RequestParam("imageFile") MultipartFile imageFile,
-                           Model model) {
+                           Model model) throws IOException {
         if (imageFile.isEmpty()) {
             model.addAttribute("emptyPhotoMessage", "Photo is needed.");
             return "/photo/create";
         }
 
-        AlbumDto albumDto = albumService.getById(albumId);
+        enqueue(albumId, List.of(imageFile));
+
+        return "redirect:/album/list";
+    }
+
+    /**
+     * Handle the submission of the form to add several photos to an album at once.
+     * The files are queued and added to the album by background workers, so the request returns once they are spooled.
+     */
+    @PostMapping("/photo-add-batch")
+    public String addPhotos(@RequestParam("albumId") Long albumId,
+                            @RequestParam("imageFiles") List<MultipartFile> imageFiles,
+                            Model model) throws IOException {
+        if (imageFiles.stream().allMatch(MultipartFile::isEmpty)) {
+            model.addAttribute("albumId", albumId);
+            model.addAttribute("emptyPhotoMessage", "Photo is needed.");
+            return "/photo/create";
+        }
 
-        String photosDirectoryPath = "./src/main/resources/static/photos/";
-        PhotoDto newPhoto = photoService.createPhotoEntity(imageFile, photosDirectoryPath);
-        albumDto.getPhotos().add(newPhoto);
-        albumService.save(albumDto);
+        enqueue(albumId, imageFiles);
 
         return "redirect:/album/list";
     }
 
+    private void enqueue(Long albumId, List<MultipartFile> files) throws IOException {
+        try {
+            photoJobService.enqueue(albumId, files);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
     /**
-     * Display all photos in an album.
+     * Rejects an upload while the job queue is full. The limit is shared by all clients, so the answer is
+     * 503 Service Unavailable rather than 429, with a Retry-After header telling when to try again.
+     */
+    @ExceptionHandler(PhotoJobQueueFullException.class)
+    public ResponseEntity<String> handleQueueFull(PhotoJobQueueFullException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+
+    /**
+     * Import the images of a ZIP archive sent as the request body into an album, e.g.
+     * curl -H "Content-Type: application/zip" --data-binary @photos.zip http://localhost:8080/album/import/7.
+     * The archive is read from the request while it arrives and never stored as a whole.
+     */
+    @PostMapping(value = "/import/{albumId}", consumes = {"application/zip", "application/octet-stream"})
+    @ResponseBody
+    public ImportProgressDto importZip(@PathVariable Long albumId, HttpServletRequest request) throws IOException {
+        try {
+            return albumImportService.importZip(albumId, request.getInputStream());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    /**
+     * Import the images of a directory under photos.import.root into an album,
+     * e.g. POST /album/import/7?directory=holidays/2023.
+     */
+    @PostMapping(value = "/import/{albumId}", params = "directory")
+    @ResponseBody
+    public ImportProgressDto importDirectory(@PathVariable Long albumId, @RequestParam String directory)
+            throws IOException {
+        try {
+            return albumImportService.importDirectory(albumId, directory);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Return the progress of the running or latest import into an album.
+     */
+    @GetMapping("/import/{albumId}")
+    @ResponseBody
+    public ImportProgressDto getImportProgress(@PathVariable Long albumId) {
+        try {
+            return albumImportService.getProgress(albumId);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Display the photos of an album. Only the first slice is rendered;
+     * the page loads the following slices from getAlbumPhotoSlice while it is scrolled.
      */
     @GetMapping("/photo-all/{albumId}")
-    public String getAlbumPhotos(@PathVariable Long albumId, Model model) {
-        List<PhotoDto> photos = albumService.getById(albumId).getPhotos();
-        model.addAttribute("albumPhotos", photos);
+    public String getAlbumPhotos(@PathVariable Long albumId,
+                                 @RequestParam(defaultValue = "id") String sort, Model model) {
+        PhotoSliceDto slice = albumService.getPhotoSlice(albumId, null, PHOTO_SLICE_SIZE, sort);
+        model.addAttribute("albumId", albumId);
+        model.addAttribute("sort", sort);
+        model.addAttribute("albumPhotos", slice.getPhotos());
+        model.addAttribute("nextCursor", slice.getNextCursor());
         return "photo/list";
     }
 
     /**
-     * Display a list of all albums.
+     * Return one slice of the photos of an album as JSON,
+     * e.g. /album/photo-all/7/photos?cursor=2021-07-14T18:30:05_118&size=48&sort=capturedAt.
+     * The nextCursor of each response requests the following slice; it is null after the last one.
+     */
+    @GetMapping("/photo-all/{albumId}/photos")
+    @ResponseBody
+    public PhotoSliceDto getAlbumPhotoSlice(@PathVariable Long albumId,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(defaultValue = "" + PHOTO_SLICE_SIZE) int size,
+                                            @RequestParam(defaultValue = "id") String sort) {
+        try {
+            return albumService.getPhotoSlice(albumId, cursor, size, sort);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Send all photos of an album as one ZIP archive, e.g. /album/7/download.
+     * The files are copied from the photo storage into the response one after another, so memory use does not
+     * depend on the size of the album, and the exact Content-Length lets clients show the download progress.
+     */
+    @GetMapping("/{albumId}/download")
+    public void downloadAlbum(@PathVariable Long albumId, HttpServletResponse response) throws IOException {
+        AlbumArchive archive;
+        try {
+            archive = albumArchiveService.prepare(albumId);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+        response.setContentType("application/zip");
+        response.setContentLengthLong(archive.getLength());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(archive.getTitle() + ".zip", StandardCharsets.UTF_8).build().toString());
+        archive.writeTo(response.getOutputStream());
+    }
+
+    /**
+     * Display one page of albums, e.g. /album/list?page=2&size=24&sort=title,asc.
      */
     @GetMapping("/list")
-    public String getAlbums(Model model) {
-        model.addAttribute("albums", albumService.listAll());
+    public String getAlbums(@PageableDefault(size = 12, sort = "id") Pageable pageable, Model model) {
+        model.addAttribute("albums", albumService.listSummaries(pageable));
         return "/album/list";
     }
 
+    /**
+     * Return the albums whose title matches every word of the query as JSON, e.g. /album/search?q=wak+tat.
+     * Words may be given in part, so the endpoint can back a search-as-you-type field.
+     */
+    @GetMapping("/search")
+    @ResponseBody
+    public List<AlbumTitleDto> searchAlbums(@RequestParam("q") String query,
+                                            @RequestParam(defaultValue = "20") int limit) {
+        return albumSearchService.search(query, limit);
+    }
+
     /**
      * Delete an album by its ID.
      */
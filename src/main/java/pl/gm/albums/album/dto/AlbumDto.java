@@ -38,4 +38,9 @@ public class AlbumDto {
      * The list of photos in the album.
      */
     private List<PhotoDto> photos = new ArrayList<>();
+
+    /**
+     * The version of the album this DTO was read at; an update carrying an older version is rejected.
+     */
+    private Long version;
 }
@@ -0,0 +1,49 @@
+package pl.gm.albums.album.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import pl.gm.albums.photo.dto.PhotoDto;
+
+/**
+ * A lightweight, read-only view of an album used by the album listing.
+ * It carries only what the list page renders, so listing albums never loads their photo collections.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AlbumSummaryDto {
+
+    /**
+     * The ID of the album.
+     */
+    private Long id;
+
+    /**
+     * The title of the album.
+     */
+    private String title;
+
+    /**
+     * The file name of the album's main photo, or null if the album has none.
+     */
+    private String mainPhotoFileName;
+
+    /**
+     * Whether the thumbnail variants of the main photo have been generated.
+     */
+    private boolean mainPhotoThumbnailsReady;
+
+    /**
+     * The number of photos in the album, not counting the main photo.
+     */
+    private long photoCount;
+
+    /**
+     * Returns the file name of the main photo thumbnail with the given size,
+     * or the original file name while the thumbnails are still being generated.
+     */
+    public String getMainPhotoThumbnailFileName(int size) {
+        return mainPhotoThumbnailsReady ? PhotoDto.thumbnailFileName(mainPhotoFileName, size) : mainPhotoFileName;
+    }
+}
@@ -0,0 +1,24 @@
+package pl.gm.albums.album.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The ID and title of an album, as loaded into the title search index and returned by the album search.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AlbumTitleDto {
+
+    /**
+     * The ID of the album.
+     */
+    private Long id;
+
+    /**
+     * The title of the album.
+     */
+    private String title;
+}
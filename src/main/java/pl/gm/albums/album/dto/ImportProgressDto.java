@@ -0,0 +1,65 @@
+package pl.gm.albums.album.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * The progress of a bulk import of photos into an album.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportProgressDto {
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * The ID of the album the photos are imported into.
+     */
+    private Long albumId;
+
+    /**
+     * Whether the import is still running, has completed or has failed.
+     */
+    private State state;
+
+    /**
+     * The number of archive entries or files read so far, including skipped ones.
+     */
+    private long filesRead;
+
+    /**
+     * The number of entries or files skipped because they are directories or not images.
+     */
+    private long filesSkipped;
+
+    /**
+     * The number of photos added to the album so far; photos are committed in batches.
+     */
+    private long photosImported;
+
+    /**
+     * The number of bytes of the committed photos.
+     */
+    private long bytesImported;
+
+    /**
+     * When the import started.
+     */
+    private Instant startedAt;
+
+    /**
+     * When the import completed or failed, or null while it is running.
+     */
+    private Instant finishedAt;
+
+    /**
+     * The reason the import failed, or null.
+     */
+    private String error;
+}
@@ -0,0 +1,22 @@
+package pl.gm.albums.album.mapper;
+
+import org.mapstruct.InjectionStrategy;
+import org.mapstruct.Mapper;
+import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.photo.mapper.PhotoMapper;
+
+import java.util.List;
+
+/**
+ * Maps albums between entities and DTOs. The implementation is generated at compile time by MapStruct.
+ */
+@Mapper(componentModel = "spring", uses = PhotoMapper.class, injectionStrategy = InjectionStrategy.CONSTRUCTOR)
+public interface AlbumMapper {
+
+    AlbumDto toDto(AlbumEntity albumEntity);
+
+    List<AlbumDto> toDtos(List<AlbumEntity> albumEntities);
+
+    AlbumEntity toEntity(AlbumDto albumDto);
+}
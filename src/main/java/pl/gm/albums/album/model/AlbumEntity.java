@@ -28,8 +28,18 @@ public class AlbumEntity {
     /** Define a one-to-one relationship with the PhotoEntity table and specify the cascade type to remove */
     @OneToOne(cascade = CascadeType.REMOVE)
     private PhotoEntity mainPhoto;
-    /** Define a one-to-many relationship with the PhotoEntity table, using FetchType.EAGER to load all photos at once */
-    @OneToMany(fetch = FetchType.EAGER)
+    /**
+     * Photos of the album other than the main photo, in ID order, loaded lazily so listings do not pull in every photo.
+     * The photo.album_id column owns the relationship; changing this list does not link or unlink photos.
+     */
+    @OneToMany(mappedBy = "album", fetch = FetchType.LAZY)
+    @OrderBy("id")
     private List<PhotoEntity> photos = new ArrayList<>();
+    /**
+     * Incremented by every change of the album, including every photo added to it, so a save based on an older read
+     * fails with an optimistic locking error instead of overwriting the change.
+     */
+    @Version
+    private Long version;
 
 }
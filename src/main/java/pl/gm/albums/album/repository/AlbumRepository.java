@@ -1,10 +1,68 @@
 package pl.gm.albums.album.repository;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import pl.gm.albums.album.dto.AlbumSummaryDto;
+import pl.gm.albums.album.dto.AlbumTitleDto;
 import pl.gm.albums.album.model.AlbumEntity;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface AlbumRepository extends JpaRepository<AlbumEntity, Long> {
 
+    /**
+     * Returns one page of album summaries computed in a single aggregate query.
+     * Photo collections are counted in the database and never loaded into memory.
+     */
+    @Query(value = "select new pl.gm.albums.album.dto.AlbumSummaryDto(" +
+            "a.id, a.title, mp.fileName, coalesce(mp.thumbnailsReady, false), count(p)) " +
+            "from AlbumEntity a left join a.mainPhoto mp left join a.photos p " +
+            "group by a.id, a.title, mp.fileName, mp.thumbnailsReady",
+            countQuery = "select count(a) from AlbumEntity a")
+    Page<AlbumSummaryDto> findAllSummaries(Pageable pageable);
+
+    /**
+     * Returns the IDs and titles of the albums with an ID greater than the given one, in ID order.
+     * Only the page size of the pageable is used, so the whole table can be walked in slices of equal cost.
+     */
+    @Query("select new pl.gm.albums.album.dto.AlbumTitleDto(a.id, a.title) from AlbumEntity a " +
+            "where a.id > :afterId order by a.id")
+    List<AlbumTitleDto> findTitlesAfterId(long afterId, Pageable pageable);
+
+    /**
+     * Returns the title of the album with the given ID without loading the album, or empty if there is no such album.
+     */
+    @Query("select a.title from AlbumEntity a where a.id = :albumId")
+    Optional<String> findTitleById(long albumId);
+
+    /**
+     * Links existing photos to an album with a single statement, without loading the album's photo collection.
+     */
+    @Modifying
+    @Query(value = "update photo set album_id = :albumId where id in :photoIds", nativeQuery = true)
+    int addPhotos(Long albumId, Collection<Long> photoIds);
+
+    /**
+     * Increments the version of the album with the given ID with a single statement, without reading the album.
+     * The row stays locked until the transaction ends, so concurrent writers of the album take turns.
+     *
+     * @return 1 if the album exists, 0 otherwise.
+     */
+    @Modifying
+    @Query("update AlbumEntity a set a.version = a.version + 1 where a.id = :albumId")
+    int incrementVersion(Long albumId);
+
+    /**
+     * Deletes the album with the given ID with a single statement, leaving its photos in place.
+     */
+    @Modifying
+    @Query("delete from AlbumEntity a where a.id = :albumId")
+    int deleteAlbumById(Long albumId);
 }
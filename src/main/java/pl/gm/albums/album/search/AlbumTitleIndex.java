@@ -0,0 +1,290 @@
+package pl.gm.albums.album.search;
+
+import pl.gm.albums.album.dto.AlbumTitleDto;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory prefix index over album titles.
+ * Titles are split into lower-cased tokens without diacritics, and every token maps to the sorted IDs of the albums
+ * whose title contains it. A query matches an album when each of its tokens is a prefix of some token of the title,
+ * so "wak tat" finds "Wakacje w Tatrach". Lookups take a read lock and updates a write lock.
+ */
+public class AlbumTitleIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    /** Token to the IDs of the albums containing it; sorted, so the tokens starting with a prefix are a sub-map */
+    private final NavigableMap<String, Postings> tokens = new TreeMap<>();
+    /** Album ID to title, to remove the old tokens of a renamed album and to return titles without a query */
+    private final Map<Long, String> titles = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds an album to the index, or replaces its title if it is indexed already.
+     *
+     * @param id    ID of the album.
+     * @param title Title of the album; a null title only removes the album.
+     */
+    public void put(long id, String title) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            if (title == null) {
+                return;
+            }
+            titles.put(id, title);
+            for (String token : tokenize(title)) {
+                tokens.computeIfAbsent(token, t -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an album from the index if it is indexed.
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every album from the index.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            tokens.clear();
+            titles.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(long id) {
+        String title = titles.remove(id);
+        if (title == null) {
+            return;
+        }
+        for (String token : tokenize(title)) {
+            Postings postings = tokens.get(token);
+            if (postings != null && postings.remove(id) && postings.size == 0) {
+                tokens.remove(token);
+            }
+        }
+    }
+
+    /**
+     * Finds the albums whose title matches every token of the query as a prefix.
+     * The token with the fewest candidate albums drives the search and the candidates are checked against
+     * the other tokens one by one, stopping once enough matches are found, so common words in a query stay cheap.
+     *
+     * @param query Words, or beginnings of words, to look for.
+     * @param limit Maximum number of albums to return.
+     * @return Matching albums in ID order; empty if the query has no tokens.
+     */
+    public List<AlbumTitleDto> search(String query, int limit) {
+        List<String> queryTokens = new ArrayList<>(tokenize(query));
+        if (queryTokens.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            List<Postings> driver = null;
+            long driverSize = Long.MAX_VALUE;
+            for (String token : queryTokens) {
+                List<Postings> matching = new ArrayList<>(tokensWithPrefix(token).values());
+                long size = matching.stream().mapToLong(postings -> postings.size).sum();
+                if (size == 0) {
+                    return List.of();
+                }
+                if (size < driverSize) {
+                    driver = matching;
+                    driverSize = size;
+                }
+            }
+
+            List<AlbumTitleDto> results = new ArrayList<>(Math.min(limit, (int) Math.min(driverSize, 1024)));
+            PriorityQueue<PostingsCursor> merge = new PriorityQueue<>(driver.size());
+            for (Postings postings : driver) {
+                merge.add(new PostingsCursor(postings));
+            }
+            long previous = Long.MIN_VALUE;
+            while (!merge.isEmpty() && results.size() < limit) {
+                PostingsCursor cursor = merge.poll();
+                long id = cursor.current();
+                if (cursor.advance()) {
+                    merge.add(cursor);
+                }
+                // Several matching tokens of one title list the same album
+                if (id == previous) {
+                    continue;
+                }
+                previous = id;
+                String title = titles.get(id);
+                if (queryTokens.size() == 1 || matchesAll(tokenize(title), queryTokens)) {
+                    results.add(new AlbumTitleDto(id, title));
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of indexed albums.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return titles.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of distinct tokens in the index.
+     */
+    public int tokenCount() {
+        lock.readLock().lock();
+        try {
+            return tokens.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private NavigableMap<String, Postings> tokensWithPrefix(String prefix) {
+        return tokens.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static boolean matchesAll(Set<String> titleTokens, List<String> queryTokens) {
+        for (String queryToken : queryTokens) {
+            boolean found = false;
+            for (String titleToken : titleTokens) {
+                if (titleToken.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a text into distinct lower-cased tokens of letters and digits, with diacritics removed.
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        if (text == null) {
+            return result;
+        }
+        String normalized = text.toLowerCase(Locale.ROOT);
+        if (!isAscii(normalized)) {
+            normalized = Normalizer.normalize(normalized, Normalizer.Form.NFD);
+            // "ł" has no decomposition, so it is folded by hand
+            normalized = COMBINING_MARKS.matcher(normalized).replaceAll("").replace('ł', 'l');
+        }
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean tokenChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                result.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A growable sorted array of album IDs. Albums are mostly added in ID order, which appends at the end.
+     */
+    private static final class Postings {
+
+        private long[] ids = new long[2];
+        private int size;
+
+        void add(long id) {
+            int index = size == 0 || ids[size - 1] < id ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            int insertAt = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            ids[insertAt] = id;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+
+    private static final class PostingsCursor implements Comparable<PostingsCursor> {
+
+        private final Postings postings;
+        private int position;
+
+        PostingsCursor(Postings postings) {
+            this.postings = postings;
+        }
+
+        long current() {
+            return postings.ids[position];
+        }
+
+        boolean advance() {
+            return ++position < postings.size;
+        }
+
+        @Override
+        public int compareTo(PostingsCursor other) {
+            return Long.compare(current(), other.current());
+        }
+    }
+}
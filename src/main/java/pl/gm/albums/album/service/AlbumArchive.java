@@ -0,0 +1,283 @@
+package pl.gm.albums.album.service;
+
+import pl.gm.albums.photo.storage.PhotoStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A ZIP archive of the photo files of an album, written straight from the photo storage to a stream.
+ * Photos are compressed already, so every file is STORED as is. The layout of the archive is fixed before anything
+ * is written, which gives its exact length up front. The CRC-32 of each file, needed in its header, was computed when
+ * the file was stored, so each file is read once, while it is copied, and checked against its size and CRC-32 on the
+ * way. Only files stored before the CRC-32 was recorded are read a second time to compute it.
+ * Archives with more than 65534 files or over 4 GB use the ZIP64 extensions.
+ */
+public class AlbumArchive {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int ZIP64_END_LENGTH = 56;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    /** Values at or above this do not fit the 32-bit fields and are moved to the ZIP64 extra field */
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_ZIP64 = 45;
+    /** General purpose flag telling that entry names are UTF-8 */
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A photo file in the archive.
+     *
+     * @param name         Name of the entry, unique within the archive.
+     * @param fileName     Name of the file in the photo storage.
+     * @param size         Size of the file in bytes.
+     * @param lastModified Modification time of the file in epoch milliseconds.
+     * @param crc32        CRC-32 of the file recorded when it was stored, or null if it was not.
+     */
+    record Entry(String name, String fileName, long size, long lastModified, Long crc32) {
+    }
+
+    private final String title;
+    private final List<Entry> entries;
+    private final PhotoStorage photoStorage;
+    private final byte[][] names;
+    private final long[] offsets;
+    private final long centralDirectoryOffset;
+    private final long centralDirectoryLength;
+    private final long length;
+
+    AlbumArchive(String title, List<Entry> entries, PhotoStorage photoStorage) {
+        this.title = title;
+        this.entries = entries;
+        this.photoStorage = photoStorage;
+        this.names = new byte[entries.size()][];
+        this.offsets = new long[entries.size()];
+        long offset = 0;
+        long centralLength = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            names[i] = entry.name().getBytes(StandardCharsets.UTF_8);
+            offsets[i] = offset;
+            offset += localHeader(i, 0).remaining() + entry.size();
+            centralLength += centralHeader(i, 0).remaining();
+        }
+        this.centralDirectoryOffset = offset;
+        this.centralDirectoryLength = centralLength;
+        this.length = offset + centralLength + end().remaining();
+    }
+
+    /**
+     * Returns the title of the album.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns the number of files in the archive.
+     */
+    public int getFileCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the exact number of bytes {@link #writeTo} writes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the archive to the stream, which is left open.
+     *
+     * @throws IOException if a file cannot be read, has changed since the archive was prepared,
+     *                     or the stream cannot be written to.
+     */
+    public void writeTo(OutputStream target) throws IOException {
+        long[] checksums = new long[entries.size()];
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            checksums[i] = entry.crc32() != null ? entry.crc32() : checksum(entry, buffer);
+            write(target, localHeader(i, checksums[i]));
+            copy(entry, checksums[i], target, buffer);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            write(target, centralHeader(i, checksums[i]));
+        }
+        write(target, end());
+    }
+
+    /**
+     * Reads the file for its CRC-32, which was not recorded for files stored before the checksum was.
+     */
+    private long checksum(Entry entry, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = photoStorage.open(entry.fileName())) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        checkFile(entry, size, crc.getValue(), entry.size(), crc.getValue());
+        return crc.getValue();
+    }
+
+    private void copy(Entry entry, long checksum, OutputStream target, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = photoStorage.open(entry.fileName())) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, read);
+                target.write(buffer, 0, read);
+                size += read;
+            }
+        }
+        checkFile(entry, size, crc.getValue(), entry.size(), checksum);
+    }
+
+    /**
+     * Guards the headers written ahead of the file: a file that shrank or grew would corrupt every offset after it,
+     * and one that was replaced would fail the checksum when extracted.
+     */
+    private static void checkFile(Entry entry, long size, long crc, long expectedSize, long expectedCrc)
+            throws IOException {
+        if (size != expectedSize || crc != expectedCrc) {
+            throw new IOException("Photo file " + entry.fileName() + " changed while it was archived");
+        }
+    }
+
+    private static void write(OutputStream target, ByteBuffer bytes) throws IOException {
+        target.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    }
+
+    private ByteBuffer localHeader(int index, long crc) {
+        Entry entry = entries.get(index);
+        boolean zip64 = entry.size() >= ZIP64_MAGIC;
+        ByteBuffer header = allocate(LOCAL_HEADER_LENGTH + names[index].length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_STORED))
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) 0)
+                .putInt(dosDateTime(entry.lastModified()))
+                .putInt((int) crc)
+                .putInt((int) Math.min(entry.size(), ZIP64_MAGIC))
+                .putInt((int) Math.min(entry.size(), ZIP64_MAGIC))
+                .putShort((short) names[index].length)
+                .putShort((short) (zip64 ? 20 : 0))
+                .put(names[index]);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID).putShort((short) 16).putLong(entry.size()).putLong(entry.size());
+        }
+        return header.flip();
+    }
+
+    private ByteBuffer centralHeader(int index, long crc) {
+        Entry entry = entries.get(index);
+        boolean zip64Size = entry.size() >= ZIP64_MAGIC;
+        boolean zip64Offset = offsets[index] >= ZIP64_MAGIC;
+        int extraLength = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+        ByteBuffer header = allocate(CENTRAL_HEADER_LENGTH + names[index].length + (extraLength > 0 ? 4 + extraLength : 0));
+        int version = extraLength > 0 ? VERSION_ZIP64 : VERSION_STORED;
+        header.putInt(CENTRAL_HEADER_SIGNATURE)
+                .putShort((short) version)
+                .putShort((short) version)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) 0)
+                .putInt(dosDateTime(entry.lastModified()))
+                .putInt((int) crc)
+                .putInt((int) Math.min(entry.size(), ZIP64_MAGIC))
+                .putInt((int) Math.min(entry.size(), ZIP64_MAGIC))
+                .putShort((short) names[index].length)
+                .putShort((short) (extraLength > 0 ? 4 + extraLength : 0))
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) Math.min(offsets[index], ZIP64_MAGIC))
+                .put(names[index]);
+        if (extraLength > 0) {
+            header.putShort((short) ZIP64_EXTRA_ID).putShort((short) extraLength);
+            if (zip64Size) {
+                header.putLong(entry.size()).putLong(entry.size());
+            }
+            if (zip64Offset) {
+                header.putLong(offsets[index]);
+            }
+        }
+        return header.flip();
+    }
+
+    private ByteBuffer end() {
+        long count = entries.size();
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC
+                || centralDirectoryLength >= ZIP64_MAGIC;
+        ByteBuffer end = allocate((zip64 ? ZIP64_END_LENGTH + ZIP64_LOCATOR_LENGTH : 0) + END_LENGTH);
+        if (zip64) {
+            long zip64EndOffset = centralDirectoryOffset + centralDirectoryLength;
+            end.putInt(ZIP64_END_SIGNATURE)
+                    .putLong(ZIP64_END_LENGTH - 12)
+                    .putShort((short) VERSION_ZIP64)
+                    .putShort((short) VERSION_ZIP64)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(count)
+                    .putLong(count)
+                    .putLong(centralDirectoryLength)
+                    .putLong(centralDirectoryOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE)
+                    .putInt(0)
+                    .putLong(zip64EndOffset)
+                    .putInt(1);
+        }
+        end.putInt(END_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) Math.min(count, ZIP64_MAGIC_COUNT))
+                .putShort((short) Math.min(count, ZIP64_MAGIC_COUNT))
+                .putInt((int) Math.min(centralDirectoryLength, ZIP64_MAGIC))
+                .putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC))
+                .putShort((short) 0);
+        return end.flip();
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Packs a time into the MS-DOS date and time fields of a ZIP header, time in the low half.
+     * DOS dates start in 1980 and have a resolution of two seconds.
+     */
+    static int dosDateTime(long epochMillis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        int date = (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+        int dosTime = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() / 2;
+        return date << 16 | dosTime;
+    }
+}
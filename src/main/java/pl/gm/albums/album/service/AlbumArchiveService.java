@@ -0,0 +1,112 @@
+package pl.gm.albums.album.service;
+
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.datasource.ReadOnlyTransactional;
+import pl.gm.albums.photo.dto.PhotoArchiveEntryDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.PhotoStorage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prepares ZIP archives of whole albums for download.
+ * Only the names and sizes of the files are read here, inside a short transaction; the files themselves are
+ * written later by {@link AlbumArchive#writeTo}, without holding a database connection while a large album is sent.
+ */
+@Slf4j
+@Service
+public class AlbumArchiveService {
+
+    private final AlbumRepository albumRepository;
+    private final PhotoRepository photoRepository;
+    private final PhotoStorage photoStorage;
+
+    public AlbumArchiveService(AlbumRepository albumRepository, PhotoRepository photoRepository,
+                               PhotoStorage photoStorage) {
+        this.albumRepository = albumRepository;
+        this.photoRepository = photoRepository;
+        this.photoStorage = photoStorage;
+    }
+
+    /**
+     * Lays out the archive of an album: the main photo first, then the other photos in the order they were added.
+     * Every photo is named after the file it was uploaded as, with a number appended to repeated names.
+     * Photos whose file is missing from the storage are left out.
+     *
+     * @param albumId ID of the album.
+     * @return The archive, ready to be written.
+     * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
+     * @throws IOException             if the photo storage cannot be read.
+     */
+    @ReadOnlyTransactional
+    @Timed(value = "albums.service", histogram = true)
+    public AlbumArchive prepare(long albumId) throws IOException {
+        String title = albumRepository.findTitleById(albumId)
+                .orElseThrow(() -> new EntityNotFoundException("Album with id " + albumId + " not found"));
+        Map<Long, PhotoArchiveEntryDto> photos = new LinkedHashMap<>();
+        photoRepository.findMainPhotoArchiveEntry(albumId).ifPresent(photo -> photos.put(photo.getId(), photo));
+        for (PhotoArchiveEntryDto photo : photoRepository.findAlbumPhotoArchiveEntries(albumId)) {
+            photos.putIfAbsent(photo.getId(), photo);
+        }
+
+        List<AlbumArchive.Entry> entries = new ArrayList<>(photos.size());
+        Map<String, Integer> takenNames = new HashMap<>();
+        for (PhotoArchiveEntryDto photo : photos.values()) {
+            PhotoStorage.FileInfo info = photoStorage.stat(photo.getFileName());
+            if (info == null) {
+                log.warn("Photo file {} of album {} is missing, leaving it out of the archive",
+                        photo.getFileName(), albumId);
+                continue;
+            }
+            String name = uniqueName(entryName(photo), takenNames);
+            entries.add(new AlbumArchive.Entry(name, photo.getFileName(), info.size(), info.lastModified(),
+                    photo.getCrc32()));
+        }
+        return new AlbumArchive(title, entries, photoStorage);
+    }
+
+    /**
+     * Returns the uploaded name of a photo reduced to a plain file name, so that no entry can unpack outside
+     * the target directory, or the stored file name if the photo has no usable uploaded name.
+     */
+    private static String entryName(PhotoArchiveEntryDto photo) {
+        String name = photo.getOriginalFileName();
+        if (name != null) {
+            name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1).strip();
+        }
+        return name == null || name.isEmpty() || name.equals(".") || name.equals("..") ? photo.getFileName() : name;
+    }
+
+    /**
+     * Appends " (2)", " (3)" and so on before the extension of a name until it differs from all taken names,
+     * ignoring case, since many file systems do.
+     *
+     * @param takenNames Lower-cased names already in the archive, mapped to the next number to try for each of them.
+     */
+    static String uniqueName(String name, Map<String, Integer> takenNames) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (takenNames.putIfAbsent(key, 2) == null) {
+            return name;
+        }
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        while (true) {
+            int n = takenNames.merge(key, 1, Integer::sum) - 1;
+            String candidate = base + " (" + n + ")" + extension;
+            if (takenNames.putIfAbsent(candidate.toLowerCase(Locale.ROOT), 2) == null) {
+                return candidate;
+            }
+        }
+    }
+}
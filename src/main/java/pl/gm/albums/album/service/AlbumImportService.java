@@ -0,0 +1,370 @@
+package pl.gm.albums.album.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+import pl.gm.albums.album.dto.ImportProgressDto;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports many photos into an album from a ZIP archive streamed in the request body, or from a server-side directory.
+ * Archive entries are read one after another straight from the stream, without extracting the archive anywhere.
+ * Each entry is buffered in memory, within a fixed byte budget, and written to the photo storage on the photo I/O pool,
+ * so hashing and writing run in parallel while the next entries are read. Entries larger than the budget allows
+ * are written from the stream on the reading thread. Photos are committed to the album in batches; when an import
+ * fails, the files already stored for the batch not committed yet are handed to the reaper. The progress
+ * of the latest import of every album can be polled while it runs. Thumbnails the full thumbnail queue cannot take
+ * are left to its sweep, so the import never waits for thumbnail generation.
+ */
+@Slf4j
+@Service
+public class AlbumImportService {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of(".jpg", ".jpeg", ".png", ".gif", ".bmp", ".webp");
+
+    /** Bytes of an archive entry read into memory at a time, each only after the budget allows it */
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final AlbumRepository albumRepository;
+    private final AlbumService albumService;
+    private final PhotoService photoService;
+    private final PhotoFileReaper photoFileReaper;
+    private final Executor photoIoExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int bufferBytes;
+    private final Path importRoot;
+    private final Map<Long, Progress> imports = new ConcurrentHashMap<>();
+
+    public AlbumImportService(AlbumRepository albumRepository, AlbumService albumService, PhotoService photoService,
+                              PhotoFileReaper photoFileReaper, Executor photoIoExecutor,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${photos.import.batch-size:100}") int batchSize,
+                              @Value("${photos.import.buffer-bytes:67108864}") int bufferBytes,
+                              @Value("${photos.import.root:}") String importRoot) {
+        this.albumRepository = albumRepository;
+        this.albumService = albumService;
+        this.photoService = photoService;
+        this.photoFileReaper = photoFileReaper;
+        this.photoIoExecutor = photoIoExecutor;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.bufferBytes = bufferBytes;
+        this.importRoot = importRoot.isBlank() ? null : Paths.get(importRoot).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Imports the image entries of a ZIP archive into an album. Returns once the whole archive has been read.
+     * Other entries, such as directories and text files, are skipped.
+     *
+     * @param albumId ID of the album.
+     * @param zip     The archive; it is read to the end but not closed.
+     * @return Progress of the finished import.
+     * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
+     * @throws IllegalStateException   if another import into the album is running.
+     * @throws IOException             if the archive cannot be read.
+     */
+    public ImportProgressDto importZip(long albumId, InputStream zip) throws IOException {
+        Progress progress = start(albumId);
+        Batch batch = new Batch(albumId, progress);
+        try {
+            ZipInputStream entries = new ZipInputStream(new BufferedInputStream(StreamUtils.nonClosing(zip), 64 * 1024));
+            ZipEntry entry;
+            while ((entry = entries.getNextEntry()) != null) {
+                progress.filesRead.incrementAndGet();
+                String fileName = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                if (entry.isDirectory() || !isImage(fileName)) {
+                    progress.filesSkipped.incrementAndGet();
+                    continue;
+                }
+                batch.add(bufferOrStore(entries, fileName, batch));
+            }
+            batch.commit();
+            return progress.finish(null);
+        } catch (IOException | RuntimeException e) {
+            batch.abort();
+            progress.finish(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Imports the image files of a directory under photos.import.root, and of its subdirectories, into an album.
+     * Files are written to the photo storage straight from disk in parallel, in the order the directories list them,
+     * while the tree is walked, so only the directories on the current path are held open. Returns once all files
+     * have been read.
+     *
+     * @param albumId   ID of the album.
+     * @param directory Path of the directory, relative to photos.import.root.
+     * @return Progress of the finished import.
+     * @throws EntityNotFoundException  if an album with the specified ID is not found in the repository.
+     * @throws IllegalStateException    if another import into the album is running.
+     * @throws IllegalArgumentException if directory imports are disabled or the directory is outside photos.import.root.
+     * @throws IOException              if the directory cannot be read.
+     */
+    public ImportProgressDto importDirectory(long albumId, String directory) throws IOException {
+        if (importRoot == null) {
+            throw new IllegalArgumentException("Directory imports are disabled, set photos.import.root to enable them");
+        }
+        Path source = importRoot.resolve(directory).normalize();
+        if (!source.startsWith(importRoot) || !Files.isDirectory(source)) {
+            throw new IllegalArgumentException("Not a directory under the import root: " + directory);
+        }
+        Progress progress = start(albumId);
+        Batch batch = new Batch(albumId, progress);
+        try (Stream<Path> files = Files.walk(source)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                progress.filesRead.incrementAndGet();
+                String fileName = file.getFileName().toString();
+                if (!isImage(fileName)) {
+                    progress.filesSkipped.incrementAndGet();
+                    continue;
+                }
+                long size = Files.size(file);
+                batch.add(CompletableFuture.supplyAsync(
+                        () -> photoService.storeFile(new FileSystemResource(file), fileName, size), photoIoExecutor));
+            }
+            batch.commit();
+            return progress.finish(null);
+        } catch (IOException | RuntimeException e) {
+            batch.abort();
+            progress.finish(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the progress of the running or latest import into an album since the application started.
+     *
+     * @throws EntityNotFoundException if no import into the album has been started.
+     */
+    public ImportProgressDto getProgress(long albumId) {
+        Progress progress = imports.get(albumId);
+        if (progress == null) {
+            throw new EntityNotFoundException("No import into album " + albumId);
+        }
+        return progress.toDto();
+    }
+
+    private Progress start(long albumId) {
+        if (!albumRepository.existsById(albumId)) {
+            throw new EntityNotFoundException("Album with id " + albumId + " not found");
+        }
+        Progress progress = new Progress(albumId);
+        Progress previous = imports.compute(albumId,
+                (id, current) -> current != null && current.state == ImportProgressDto.State.RUNNING ? current : progress);
+        if (previous != progress) {
+            throw new IllegalStateException("An import into album " + albumId + " is already running");
+        }
+        return progress;
+    }
+
+    /**
+     * Reads the current entry into memory and stores it on the photo I/O pool. Every chunk is read only once the
+     * budget has room for it, so the buffers of the entries being read and written never exceed the budget.
+     * An entry too large for the budget is stored from the stream.
+     */
+    private CompletableFuture<StoredUpload> bufferOrStore(ZipInputStream entries, String fileName, Batch batch)
+            throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        int buffered = 0;
+        while (buffered < bufferBytes) {
+            int chunkSize = Math.min(CHUNK_BYTES, bufferBytes - buffered);
+            batch.buffers.acquireUninterruptibly(chunkSize);
+            byte[] chunk;
+            try {
+                chunk = entries.readNBytes(chunkSize);
+            } catch (IOException e) {
+                batch.buffers.release(buffered + chunkSize);
+                throw e;
+            }
+            batch.buffers.release(chunkSize - chunk.length);
+            if (chunk.length > 0) {
+                chunks.add(chunk);
+                buffered += chunk.length;
+            }
+            if (chunk.length < chunkSize) {
+                break;
+            }
+        }
+        int permits = buffered;
+        if (buffered == bufferBytes && entries.available() > 0) {
+            log.debug("Entry {} exceeds the import buffer, storing it from the stream", fileName);
+            try {
+                InputStream content = new SequenceInputStream(concat(chunks), StreamUtils.nonClosing(entries));
+                return CompletableFuture.completedFuture(photoService.storeFile(() -> content, fileName, -1));
+            } finally {
+                batch.buffers.release(permits);
+            }
+        }
+        long size = buffered;
+        return CompletableFuture
+                .supplyAsync(() -> photoService.storeFile(() -> concat(chunks), fileName, size), photoIoExecutor)
+                .whenComplete((upload, e) -> batch.buffers.release(permits));
+    }
+
+    private static InputStream concat(List<byte[]> chunks) {
+        return new SequenceInputStream(Collections.enumeration(chunks.stream().map(ByteArrayInputStream::new).toList()));
+    }
+
+    private static boolean isImage(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        // macOS archives carry "._name.jpg" resource forks next to the real files
+        return dot > 0 && !fileName.startsWith("._")
+                && IMAGE_EXTENSIONS.contains(fileName.substring(dot).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Files being written to the photo storage and not yet committed to the album.
+     */
+    private final class Batch {
+
+        private final long albumId;
+        private final Progress progress;
+        private final Semaphore buffers = new Semaphore(bufferBytes);
+        private final List<CompletableFuture<StoredUpload>> pending = new ArrayList<>(batchSize);
+
+        Batch(long albumId, Progress progress) {
+            this.albumId = albumId;
+            this.progress = progress;
+        }
+
+        void add(CompletableFuture<StoredUpload> upload) {
+            pending.add(upload);
+            if (pending.size() >= batchSize) {
+                commit();
+            }
+        }
+
+        /**
+         * Waits for the pending files to be stored and adds them to the album in one transaction.
+         * If a file cannot be stored or the transaction rolls back, the files stored by the others are reaped.
+         */
+        void commit() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<CompletableFuture<StoredUpload>> stores = new ArrayList<>(pending);
+            pending.clear();
+            List<StoredUpload> uploads;
+            try {
+                uploads = stores.stream().map(CompletableFuture::join).toList();
+            } catch (CompletionException e) {
+                reap(stores);
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    List<PhotoDto> photos = photoService.savePhotoEntities(uploads);
+                    albumService.addPhotos(albumId, photos);
+                });
+            } catch (RuntimeException e) {
+                reap(stores);
+                throw e;
+            }
+            progress.photosImported.addAndGet(uploads.size());
+            progress.bytesImported.addAndGet(uploads.stream().mapToLong(upload -> upload.file().size()).sum());
+        }
+
+        /**
+         * Waits for the pending files to be stored and reaps them, once the import has failed.
+         */
+        void abort() {
+            List<CompletableFuture<StoredUpload>> stores = new ArrayList<>(pending);
+            pending.clear();
+            reap(stores);
+        }
+
+        private void reap(List<CompletableFuture<StoredUpload>> stores) {
+            List<PhotoFileDto> files = new ArrayList<>(stores.size());
+            for (CompletableFuture<StoredUpload> store : stores) {
+                try {
+                    StoredUpload upload = store.join();
+                    files.add(new PhotoFileDto(null, upload.file().fileName(), upload.file().contentHash()));
+                } catch (CompletionException | CancellationException e) {
+                    // Nothing was stored
+                }
+            }
+            if (files.isEmpty()) {
+                return;
+            }
+            try {
+                // No photo references the stored files unless the same content was uploaded again
+                photoFileReaper.reap(files);
+            } catch (RuntimeException e) {
+                log.error("Could not reap the {} files stored for a failed import into album {}", files.size(),
+                        albumId, e);
+            }
+        }
+    }
+
+    private static final class Progress {
+
+        private final long albumId;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong filesRead = new AtomicLong();
+        private final AtomicLong filesSkipped = new AtomicLong();
+        private final AtomicLong photosImported = new AtomicLong();
+        private final AtomicLong bytesImported = new AtomicLong();
+        private volatile ImportProgressDto.State state = ImportProgressDto.State.RUNNING;
+        private volatile Instant finishedAt;
+        private volatile String error;
+
+        Progress(long albumId) {
+            this.albumId = albumId;
+        }
+
+        ImportProgressDto finish(Exception failure) {
+            if (failure != null) {
+                log.warn("Import into album {} failed after {} photos", albumId, photosImported.get(), failure);
+                error = failure.getMessage();
+            }
+            finishedAt = Instant.now();
+            state = failure == null ? ImportProgressDto.State.COMPLETED : ImportProgressDto.State.FAILED;
+            return toDto();
+        }
+
+        ImportProgressDto toDto() {
+            return new ImportProgressDto(albumId, state, filesRead.get(), filesSkipped.get(), photosImported.get(),
+                    bytesImported.get(), startedAt, finishedAt, error);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package pl.gm.albums.album.service;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.gm.albums.album.dto.AlbumTitleDto;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.album.search.AlbumTitleIndex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches albums by title through an in-memory AlbumTitleIndex.
+ * The index is loaded from the database before the application starts serving requests, and the album service
+ * reports every title change to it once the changing transaction commits, so a rollback never reaches the index.
+ */
+@Slf4j
+@Service
+public class AlbumSearchService implements SmartInitializingSingleton {
+
+    /** Largest number of albums returned by one search. */
+    public static final int MAX_RESULTS = 100;
+    /** Number of albums read from the database per query while the index is loaded. */
+    private static final int LOAD_BATCH_SIZE = 10_000;
+
+    private final AlbumRepository albumRepository;
+    private final AlbumTitleIndex index = new AlbumTitleIndex();
+    private final Timer buildTimer;
+
+    public AlbumSearchService(AlbumRepository albumRepository, MeterRegistry meterRegistry) {
+        this.albumRepository = albumRepository;
+        this.buildTimer = Timer.builder("albums.search.index.build")
+                .description("Time spent loading every album title into the search index")
+                .register(meterRegistry);
+        Gauge.builder("albums.search.index.albums", index, AlbumTitleIndex::size)
+                .description("Albums in the title search index")
+                .register(meterRegistry);
+        Gauge.builder("albums.search.index.tokens", index, AlbumTitleIndex::tokenCount)
+                .description("Distinct title tokens in the title search index")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    /**
+     * Reloads the index from the database, walking the album table in ID order.
+     */
+    public void rebuild() {
+        long start = System.nanoTime();
+        index.clear();
+        long afterId = 0;
+        List<AlbumTitleDto> batch;
+        do {
+            batch = albumRepository.findTitlesAfterId(afterId, PageRequest.of(0, LOAD_BATCH_SIZE));
+            for (AlbumTitleDto album : batch) {
+                index.put(album.getId(), album.getTitle());
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == LOAD_BATCH_SIZE);
+        long elapsed = System.nanoTime() - start;
+        buildTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Indexed {} album titles ({} tokens) in {} ms", index.size(), index.tokenCount(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    /**
+     * Finds albums whose title contains every word of the query, or a word starting with it.
+     *
+     * @param query Words, or beginnings of words, to look for; case and diacritics are ignored.
+     * @param limit Maximum number of albums to return, capped at MAX_RESULTS.
+     * @return Matching albums in ID order.
+     */
+    @Timed(value = "albums.service", histogram = true)
+    public List<AlbumTitleDto> search(String query, int limit) {
+        return index.search(query, Math.min(limit, MAX_RESULTS));
+    }
+
+    /**
+     * Adds an album to the index or updates its title, once the current transaction commits.
+     */
+    public void indexAlbum(Long id, String title) {
+        afterCommit(() -> index.put(id, title));
+    }
+
+    /**
+     * Removes an album from the index, once the current transaction commits.
+     */
+    public void removeAlbum(Long id) {
+        afterCommit(() -> index.remove(id));
+    }
+
+    private static void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+}
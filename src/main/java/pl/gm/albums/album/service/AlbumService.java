@@ -1,52 +1,244 @@
 package pl.gm.albums.album.service;
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.TypeToken;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import pl.gm.albums.AlbumsApplication;
 import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.dto.AlbumSummaryDto;
+import pl.gm.albums.album.mapper.AlbumMapper;
 import pl.gm.albums.album.model.AlbumEntity;
 import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.datasource.ReadOnlyTransactional;
 import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.dto.PhotoSliceDto;
+import pl.gm.albums.photo.mapper.PhotoMapper;
 import pl.gm.albums.photo.model.PhotoEntity;
 import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.service.PhotoFileReaper;
 import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class AlbumService {
+    /** Album properties the summary listing may be sorted by. */
+    private static final Set<String> SUMMARY_SORT_PROPERTIES = Set.of("id", "title");
+    /** Largest number of photos returned in one gallery slice. */
+    public static final int MAX_PHOTO_SLICE_SIZE = 100;
+    /** Earlier than any capture date read from EXIF, so the first capture-ordered slice starts before every photo. */
+    private static final LocalDateTime EARLIEST_CAPTURE = LocalDateTime.of(1, 1, 1, 0, 0);
+
     private final AlbumRepository albumRepository;
     private final PhotoRepository photoRepository;
 
     private final PhotoService photoService;
-    private final ModelMapper modelMapper;
+    private final PhotoFileReaper photoFileReaper;
+    private final AlbumSearchService albumSearchService;
+    private final AlbumMapper albumMapper;
+    private final PhotoMapper photoMapper;
+    private final CacheManager cacheManager;
 
-    public AlbumService(AlbumRepository albumRepository, PhotoRepository photoRepository, PhotoService photoService, ModelMapper modelMapper) {
+    public AlbumService(AlbumRepository albumRepository, PhotoRepository photoRepository, PhotoService photoService,
+                        PhotoFileReaper photoFileReaper, AlbumSearchService albumSearchService, AlbumMapper albumMapper,
+                        PhotoMapper photoMapper, CacheManager cacheManager) {
         this.albumRepository = albumRepository;
         this.photoRepository = photoRepository;
         this.photoService = photoService;
-        this.modelMapper = modelMapper;
+        this.photoFileReaper = photoFileReaper;
+        this.albumSearchService = albumSearchService;
+        this.albumMapper = albumMapper;
+        this.photoMapper = photoMapper;
+        this.cacheManager = cacheManager;
     }
 
     /**
      * Retrieves all albums from the database and maps them to AlbumDto objects.
      * @return List of AlbumDto objects.
      */
+    @ReadOnlyTransactional
+    @Timed(value = "albums.service", histogram = true)
     public List<AlbumDto> listAll() {
         List<AlbumEntity> albumEntities = albumRepository.findAll();
-        return modelMapper.map(albumEntities, new TypeToken<List<AlbumDto>>() {
-        }.getType());
+        return albumMapper.toDtos(albumEntities);
+    }
+
+    /**
+     * Retrieves one page of album summaries without loading the albums' photo collections.
+     * Sort orders on properties other than id and title are ignored.
+     * @param pageable Requested page number, size and sort order.
+     * @return Page of AlbumSummaryDto objects.
+     */
+    @ReadOnlyTransactional
+    @Cacheable(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, key = "#pageable", unless = "@replicaReads.isReplica()")
+    @Timed(value = "albums.service", histogram = true)
+    public Page<AlbumSummaryDto> listSummaries(Pageable pageable) {
+        Sort sort = Sort.by(pageable.getSort().stream()
+                .filter(order -> SUMMARY_SORT_PROPERTIES.contains(order.getProperty()))
+                .toList());
+        if (sort.isUnsorted()) {
+            sort = Sort.by("id");
+        }
+        return albumRepository.findAllSummaries(PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), sort));
+    }
+
+    /**
+     * Retrieves one slice of the photos of an album, starting after the given cursor.
+     * Slices are selected by the key of the last photo returned rather than by an offset,
+     * so every slice costs the same however deep into the album it is.
+     * @param albumId ID of the album.
+     * @param cursor  The nextCursor of the previous slice, or null for the first slice.
+     * @param size    Maximum number of photos in the slice, capped at MAX_PHOTO_SLICE_SIZE.
+     * @param sort    "capturedAt" to order by capture date, with undated photos last; anything else orders by ID.
+     * @return PhotoSliceDto holding the photos and the cursor of the next slice.
+     * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    @ReadOnlyTransactional
+    @Timed(value = "albums.service", histogram = true)
+    public PhotoSliceDto getPhotoSlice(long albumId, String cursor, int size, String sort) {
+        if (!albumRepository.existsById(albumId)) {
+            throw new EntityNotFoundException("Album with id " + albumId + " not found");
+        }
+        int limit = Math.max(1, Math.min(size, MAX_PHOTO_SLICE_SIZE));
+        // One extra row tells whether there is a next slice without a count query
+        PageRequest page = PageRequest.of(0, limit + 1);
+        boolean byCapture = "capturedAt".equals(sort);
+
+        List<PhotoEntity> photos;
+        if (!byCapture) {
+            photos = photoRepository.findAlbumPhotosAfterId(albumId, cursor == null ? 0 : parseCursorId(cursor), page);
+        } else if (cursor == null) {
+            photos = findAlbumPhotosCapturedAfter(albumId, EARLIEST_CAPTURE, 0, page);
+        } else {
+            int separator = cursor.lastIndexOf('_');
+            long afterId = parseCursorId(cursor.substring(separator + 1));
+            if (separator == 0) {
+                photos = photoRepository.findUndatedAlbumPhotosAfterId(albumId, afterId, page);
+            } else if (separator > 0) {
+                photos = findAlbumPhotosCapturedAfter(albumId, parseCursorDate(cursor.substring(0, separator)),
+                        afterId, page);
+            } else {
+                throw new IllegalArgumentException("Invalid cursor " + cursor);
+            }
+        }
+
+        String nextCursor = null;
+        if (photos.size() > limit) {
+            photos = photos.subList(0, limit);
+            PhotoEntity last = photos.get(limit - 1);
+            LocalDateTime capturedAt = last.getMetadata() == null ? null : last.getMetadata().getCapturedAt();
+            nextCursor = !byCapture ? String.valueOf(last.getId())
+                    : (capturedAt == null ? "" : capturedAt.toString()) + "_" + last.getId();
+        }
+        return new PhotoSliceDto(photoMapper.toDtos(photos), nextCursor);
+    }
+
+    /**
+     * Reads the dated photos after the cursor and, if they do not fill the page, the undated photos that follow them.
+     */
+    private List<PhotoEntity> findAlbumPhotosCapturedAfter(long albumId, LocalDateTime capturedAt, long afterId,
+                                                           PageRequest page) {
+        List<PhotoEntity> photos = photoRepository.findAlbumPhotosCapturedAfter(albumId, capturedAt, afterId, page);
+        if (photos.size() == page.getPageSize()) {
+            return photos;
+        }
+        List<PhotoEntity> withUndated = new ArrayList<>(photos);
+        withUndated.addAll(photoRepository.findUndatedAlbumPhotosAfterId(albumId, 0,
+                PageRequest.of(0, page.getPageSize() - photos.size())));
+        return withUndated;
+    }
+
+    private static long parseCursorId(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor " + value, e);
+        }
+    }
+
+    private static LocalDateTime parseCursorDate(String value) {
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor " + value, e);
+        }
     }
 
     /**
      * Maps the AlbumDto object to an AlbumEntity and saves it in the database.
      * @param albumDto AlbumDto object to be saved.
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUMS_CACHE, key = "#albumDto.id", condition = "#albumDto.id != null"),
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, allEntries = true)
+    })
+    @Timed(value = "albums.service", histogram = true)
     public void save(AlbumDto albumDto) {
-        AlbumEntity album = modelMapper.map(albumDto, AlbumEntity.class);
+        AlbumEntity album = albumMapper.toEntity(albumDto);
         albumRepository.save(album);
+        albumSearchService.indexAlbum(album.getId(), album.getTitle());
+    }
+
+    /**
+     * Adds already saved photos to the album with the given ID without loading the album or its photos.
+     * @param albumId ID of the album.
+     * @param photos  Saved photos to be added.
+     * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
+     */
+    @Transactional
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUMS_CACHE, key = "#albumId"),
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, allEntries = true)
+    })
+    @Timed(value = "albums.service", histogram = true)
+    public void addPhotos(long albumId, List<PhotoDto> photos) {
+        if (albumRepository.incrementVersion(albumId) == 0) {
+            throw new EntityNotFoundException("Album with id " + albumId + " not found");
+        }
+        if (!photos.isEmpty()) {
+            albumRepository.addPhotos(albumId, photos.stream().map(PhotoDto::getId).toList());
+        }
+    }
+
+    /**
+     * Inserts the photo entity of a stored file already linked to the album with the given ID.
+     * The album and its photos are never loaded: the album's version is incremented and the photo row is inserted,
+     * so adding a photo costs the same two statements however many photos the album holds. Concurrent additions
+     * to one album wait for each other on the album row, and an update based on an earlier read of the album fails.
+     * @param albumId ID of the album.
+     * @param upload  File returned by PhotoService.storeFile.
+     * @return PhotoDto representing the new photo entity.
+     * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
+     */
+    @Transactional
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUMS_CACHE, key = "#albumId"),
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, allEntries = true)
+    })
+    @Timed(value = "albums.service", histogram = true)
+    public PhotoDto addPhoto(long albumId, StoredUpload upload) {
+        if (albumRepository.incrementVersion(albumId) == 0) {
+            throw new EntityNotFoundException("Album with id " + albumId + " not found");
+        }
+        return photoService.savePhotoEntities(List.of(upload), albumRepository.getReferenceById(albumId)).get(0);
     }
 
     /**
@@ -55,47 +247,67 @@ public class AlbumService {
      * @return AlbumDto object representing the album entity with the specified ID.
      * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
      */
+    @ReadOnlyTransactional
+    @Cacheable(cacheNames = AlbumsApplication.ALBUMS_CACHE, key = "#id", unless = "@replicaReads.isReplica()")
+    @Timed(value = "albums.service", histogram = true)
     public AlbumDto getById(long id) {
         AlbumEntity albumEntity = albumRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Album with id " + id + " not found"));
-        return modelMapper.map(albumEntity, AlbumDto.class);
+        return albumMapper.toDto(albumEntity);
     }
 
     /**
      * Maps the AlbumDto object to an AlbumEntity and updates it in the database.
-     * @param albumDto AlbumDto object to be updated.
+     * @param albumDto AlbumDto object to be updated, carrying the version it was read at.
+     * @throws org.springframework.orm.ObjectOptimisticLockingFailureException if the album has changed since.
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUMS_CACHE, key = "#albumDto.id", condition = "#albumDto.id != null"),
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, allEntries = true)
+    })
+    @Timed(value = "albums.service", histogram = true)
     public void update(AlbumDto albumDto) {
-        AlbumEntity album = modelMapper.map(albumDto, AlbumEntity.class);
+        AlbumEntity album = albumMapper.toEntity(albumDto);
         albumRepository.save(album);
+        albumSearchService.indexAlbum(album.getId(), album.getTitle());
     }
 
     /**
-     * Deletes an album with the given ID from the database.
+     * Deletes an album with the given ID and all of its photos from the database.
+     * Rows are removed with a fixed number of bulk statements; the photo files are deleted in the background
+     * once the transaction commits.
      * @param albumId ID of the album to be deleted.
+     * @throws EntityNotFoundException if an album with the specified ID is not found in the repository.
      */
     @Transactional
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUMS_CACHE, key = "#albumId"),
+            @CacheEvict(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, allEntries = true)
+    })
+    @Timed(value = "albums.service", histogram = true)
     public void deleteAlbum(Long albumId) {
-        AlbumEntity album = albumRepository.findById(albumId)
-                .orElseThrow(() -> new EntityNotFoundException("Album not found with id: " + albumId));
-
-        // Delete the main photo of the album
-        PhotoEntity mainPhoto = album.getMainPhoto();
-        if (mainPhoto != null) {
-            photoRepository.delete(mainPhoto);
-            photoService.deletePhotoFile(mainPhoto.getPath() + mainPhoto.getFileName());
+        List<PhotoFileDto> photoFiles = new ArrayList<>(photoRepository.findFilesByAlbumId(albumId));
+        Optional<PhotoFileDto> mainPhotoFile = photoRepository.findMainPhotoFileByAlbumId(albumId);
+        mainPhotoFile.ifPresent(photoFiles::add);
+        // Queued by one statement that reads the files from the photo rows, so before these are deleted
+        photoFileReaper.reapAlbum(albumId, photoFiles);
+
+        // The photos reference the album and the album references its main photo,
+        // so the album goes after its photos and before its main photo
+        photoRepository.deleteAllByAlbumId(albumId);
+        if (albumRepository.deleteAlbumById(albumId) == 0) {
+            throw new EntityNotFoundException("Album not found with id: " + albumId);
         }
+        if (mainPhotoFile.isPresent()) {
+            photoRepository.deleteAllByIdIn(List.of(mainPhotoFile.get().getId()));
+        }
+        List<Long> photoIds = photoFiles.stream().map(PhotoFileDto::getId).toList();
 
-        // Delete the other photos of the album
-        List<PhotoEntity> photos = album.getPhotos();
-        if (!photos.isEmpty()) {
-            for (PhotoEntity photo : photos) {
-                photoRepository.delete(photo);
-                photoService.deletePhotoFile(photo.getPath() + photo.getFileName());
-            }
+        Cache photoCache = cacheManager.getCache(AlbumsApplication.PHOTOS_CACHE);
+        if (photoCache != null) {
+            photoIds.forEach(photoCache::evict);
         }
-        // Delete the album itself
-        albumRepository.delete(album);
+        albumSearchService.removeAlbum(albumId);
     }
 
     /**
@@ -104,13 +316,16 @@ public class AlbumService {
      * @param mainPhoto Main photo of the album to be set.
      * @return AlbumDto object that was created.
      */
+    @CacheEvict(cacheNames = AlbumsApplication.ALBUM_SUMMARIES_CACHE, allEntries = true)
+    @Timed(value = "albums.service", histogram = true)
     public AlbumDto createAlbumEntity(AlbumDto albumDto, PhotoDto mainPhoto) {
-        AlbumEntity album = modelMapper.map(albumDto, AlbumEntity.class);
-        PhotoEntity photoEntity = modelMapper.map(mainPhoto, PhotoEntity.class);
+        AlbumEntity album = albumMapper.toEntity(albumDto);
+        PhotoEntity photoEntity = photoMapper.toEntity(mainPhoto);
         photoRepository.save(photoEntity);
         album.setMainPhoto(photoEntity);
         albumRepository.save(album);
-        return modelMapper.map(album, AlbumDto.class);
+        albumSearchService.indexAlbum(album.getId(), album.getTitle());
+        return albumMapper.toDto(album);
     }
 
 }
\ No newline at end of file
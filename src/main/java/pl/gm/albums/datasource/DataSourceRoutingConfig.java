@@ -0,0 +1,71 @@
+package pl.gm.albums.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Splits the database traffic between the primary database and a read replica once photos.datasource.replica.jdbc-url
+ * is set; without it the single spring.datasource pool serves everything.
+ * Methods annotated with ReadOnlyTransactional read from the replica pool and everything else uses the primary pool,
+ * which alone is migrated by Flyway. Both pools are separate Hikari pools named "primary" and "replica", so their
+ * sizes and metrics are separate too.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "photos.datasource.replica.jdbc-url")
+public class DataSourceRoutingConfig {
+
+    /**
+     * Pool of the primary database, configured by the spring.datasource properties.
+     */
+    @Bean
+    @FlywayDataSource
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * Pool of the replica, configured by the photos.datasource.replica properties, e.g. jdbc-url, username, password
+     * and maximum-pool-size.
+     */
+    @Bean
+    @ConfigurationProperties("photos.datasource.replica")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("replica");
+        return dataSource;
+    }
+
+    /**
+     * Keeps the reads of a client on the primary for photos.datasource.read-your-writes-ms after it wrote.
+     */
+    @Bean
+    ReadYourWrites readYourWrites(@Value("${photos.datasource.read-your-writes-ms:5000}") long readYourWritesMs) {
+        return new ReadYourWrites(readYourWritesMs);
+    }
+
+    /**
+     * The data source used by JPA and JDBC, routing every transaction to one of the pools.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                 @Qualifier("replicaDataSource") HikariDataSource replicaDataSource,
+                                 ReadYourWrites readYourWrites) {
+        return new LazyConnectionDataSourceProxy(
+                new RoutingDataSource(primaryDataSource, replicaDataSource, readYourWrites));
+    }
+}
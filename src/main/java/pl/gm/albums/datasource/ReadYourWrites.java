@@ -0,0 +1,82 @@
+package pl.gm.albums.datasource;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Keeps the reads of a client on the primary database for a while after it has written, so that a page shown right
+ * after an upload or a deletion never comes from a replica that has not caught up yet.
+ * Once a request writes, its remaining reads go to the primary, and the response carries a cookie that sends the reads
+ * of the same client there too until the window ends. Work done outside of web requests is not affected.
+ */
+class ReadYourWrites {
+
+    static final String COOKIE_NAME = "primary-until";
+    private static final String PINNED = ReadYourWrites.class.getName() + ".PINNED";
+    private static final String COOKIE_SET = ReadYourWrites.class.getName() + ".COOKIE_SET";
+
+    private final long windowMs;
+
+    /**
+     * @param windowMs How long the reads of a client stay on the primary after it wrote; 0 disables the guarantee.
+     */
+    ReadYourWrites(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Returns whether the reads of the current request have to go to the primary.
+     */
+    boolean isPinned() {
+        if (windowMs <= 0 || !(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return false;
+        }
+        Object pinned = attributes.getAttribute(PINNED, RequestAttributes.SCOPE_REQUEST);
+        if (pinned == null) {
+            pinned = pinnedUntil(attributes.getRequest()) > System.currentTimeMillis();
+            attributes.setAttribute(PINNED, pinned, RequestAttributes.SCOPE_REQUEST);
+        }
+        return (Boolean) pinned;
+    }
+
+    /**
+     * Records that the current request writes to the primary.
+     */
+    void wrote() {
+        if (windowMs <= 0 || !(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)
+                || attributes.getAttribute(COOKIE_SET, RequestAttributes.SCOPE_REQUEST) != null) {
+            return;
+        }
+        attributes.setAttribute(PINNED, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        attributes.setAttribute(COOKIE_SET, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        HttpServletResponse response = attributes.getResponse();
+        if (response != null && !response.isCommitted()) {
+            Cookie cookie = new Cookie(COOKIE_NAME, String.valueOf(System.currentTimeMillis() + windowMs));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, (windowMs + 999) / 1000));
+            response.addCookie(cookie);
+        }
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
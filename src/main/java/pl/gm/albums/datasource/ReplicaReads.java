@@ -0,0 +1,29 @@
+package pl.gm.albums.datasource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tells whether the read-only transactions of the current thread read from the replica.
+ * A replica may lag behind the primary, so what it returns must not be cached: a cached copy would outlive the
+ * read-your-writes window and be served to the client that wrote, and to everyone else, until it expires.
+ * Cached read methods therefore skip the cache with {@code unless = "@replicaReads.isReplica()"}.
+ */
+@Component
+public class ReplicaReads {
+
+    /** Null when no replica is configured */
+    private final ReadYourWrites readYourWrites;
+
+    public ReplicaReads(ObjectProvider<ReadYourWrites> readYourWrites) {
+        this.readYourWrites = readYourWrites.getIfAvailable();
+    }
+
+    /**
+     * Returns whether a read-only transaction of the current thread reads from the replica, which is the case when
+     * one is configured and the current request is not pinned to the primary by a recent write.
+     */
+    public boolean isReplica() {
+        return readYourWrites != null && !readYourWrites.isPinned();
+    }
+}
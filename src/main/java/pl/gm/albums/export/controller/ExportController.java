@@ -0,0 +1,47 @@
+package pl.gm.albums.export.controller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+import pl.gm.albums.export.service.ExportService;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Streams a dump of all album and photo metadata for audits and migrations.
+ */
+@Controller
+public class ExportController {
+
+    private final ExportService exportService;
+
+    public ExportController(ExportService exportService) {
+        this.exportService = exportService;
+    }
+
+    /**
+     * Sends the metadata of every photo of every album, e.g. /export/photos?format=csv.
+     * Rows are written to the response while they are read from the database, so nothing is buffered
+     * and the download starts at once; the response has no Content-Length.
+     */
+    @GetMapping("/export/photos")
+    public void exportPhotos(@RequestParam(defaultValue = "ndjson") String format, HttpServletResponse response)
+            throws IOException {
+        ExportService.Format exportFormat;
+        try {
+            exportFormat = ExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown export format " + format);
+        }
+        boolean csv = exportFormat == ExportService.Format.CSV;
+        response.setContentType(csv ? "text/csv;charset=UTF-8" : "application/x-ndjson;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"photos." + (csv ? "csv" : "ndjson") + "\"");
+        exportService.export(exportFormat, response.getOutputStream());
+    }
+}
@@ -0,0 +1,146 @@
+package pl.gm.albums.export.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.stereotype.Service;
+import pl.gm.albums.datasource.ReadOnlyTransactional;
+import pl.gm.albums.photo.dto.PhotoExportDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the metadata of every album and photo as NDJSON or CSV, one row per photo of an album.
+ * Rows are read from database cursors and written as they arrive, so an export of any size runs in constant memory.
+ * Main photos of all albums come first, followed by the other photos of all albums, each part in album ID order.
+ */
+@Service
+public class ExportService {
+
+    private static final String[] CSV_HEADER = {"albumId", "albumTitle", "mainPhoto", "photoId", "fileName",
+            "originalFileName", "contentHash", "width", "height", "byteSize", "contentType", "capturedAt"};
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    private final PhotoRepository photoRepository;
+    private final ObjectMapper objectMapper;
+
+    public ExportService(PhotoRepository photoRepository, ObjectMapper objectMapper) {
+        this.photoRepository = photoRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Writes the export to the given stream, which is flushed but not closed.
+     * The second query is opened only after the first one is drained, so at most one cursor is open at a time.
+     *
+     * @param format Format of the rows.
+     * @param out    Stream to write the rows to.
+     * @return Number of rows written, not counting the CSV header.
+     * @throws IOException if the stream cannot be written to.
+     */
+    @ReadOnlyTransactional
+    @Timed(value = "albums.service", histogram = true)
+    public long export(Format format, OutputStream out) throws IOException {
+        RowWriter writer = format == Format.CSV ? new CsvRowWriter(out) : new NdjsonRowWriter(objectMapper, out);
+        long count = 0;
+        try (Stream<PhotoExportDto> mainPhotos = photoRepository.streamMainPhotosForExport()) {
+            count += writeAll(mainPhotos, writer);
+        }
+        try (Stream<PhotoExportDto> albumPhotos = photoRepository.streamAlbumPhotosForExport()) {
+            count += writeAll(albumPhotos, writer);
+        }
+        writer.finish();
+        return count;
+    }
+
+    private static long writeAll(Stream<PhotoExportDto> rows, RowWriter writer) throws IOException {
+        long count = 0;
+        for (Iterator<PhotoExportDto> iterator = rows.iterator(); iterator.hasNext(); count++) {
+            writer.write(iterator.next());
+        }
+        return count;
+    }
+
+    private interface RowWriter {
+
+        void write(PhotoExportDto row) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static final class NdjsonRowWriter implements RowWriter {
+
+        private final JsonGenerator generator;
+
+        NdjsonRowWriter(ObjectMapper objectMapper, OutputStream out) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void write(PhotoExportDto row) throws IOException {
+            generator.writeObject(row);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+
+        private final Writer writer;
+
+        CsvRowWriter(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writeCsvLine(writer, (Object[]) CSV_HEADER);
+        }
+
+        @Override
+        public void write(PhotoExportDto row) throws IOException {
+            writeCsvLine(writer, row.getAlbumId(), row.getAlbumTitle(), row.isMainPhoto(), row.getPhotoId(),
+                    row.getFileName(), row.getOriginalFileName(), row.getContentHash(), row.getWidth(),
+                    row.getHeight(), row.getByteSize(), row.getContentType(), row.getCapturedAt());
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private static void writeCsvLine(Writer writer, Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (values[i] != null) {
+                writer.write(csvField(values[i].toString()));
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Quotes a CSV field if it contains a separator, quote or line break, doubling any quotes inside it.
+     */
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
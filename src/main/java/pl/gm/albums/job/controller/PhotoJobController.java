@@ -0,0 +1,27 @@
+package pl.gm.albums.job.controller;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.gm.albums.job.dto.PhotoJobQueueStatusDto;
+import pl.gm.albums.job.service.PhotoJobService;
+
+/**
+ * Exposes the state of the queue of uploaded photos waiting to be added to their albums.
+ */
+@RestController
+public class PhotoJobController {
+
+    private final PhotoJobService photoJobService;
+
+    public PhotoJobController(PhotoJobService photoJobService) {
+        this.photoJobService = photoJobService;
+    }
+
+    /**
+     * Returns the number of queued, running and failed jobs and the age of the oldest queued one.
+     */
+    @GetMapping("/jobs/status")
+    public PhotoJobQueueStatusDto getStatus() {
+        return photoJobService.getStatus();
+    }
+}
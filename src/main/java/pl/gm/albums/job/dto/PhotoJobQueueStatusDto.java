@@ -0,0 +1,46 @@
+package pl.gm.albums.job.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * The state of the queue of uploaded photos waiting to be processed.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoJobQueueStatusDto {
+
+    /**
+     * The number of jobs waiting for a worker, including failed attempts waiting to be retried.
+     */
+    private long queued;
+
+    /**
+     * The number of jobs being processed.
+     */
+    private long running;
+
+    /**
+     * The number of jobs that ran out of attempts; their photos were not added.
+     */
+    private long failed;
+
+    /**
+     * The queue depth above which uploads are rejected.
+     */
+    private long maxDepth;
+
+    /**
+     * When the oldest waiting job was enqueued, or null if none is waiting.
+     */
+    private LocalDateTime oldestQueuedAt;
+
+    /**
+     * How long the oldest waiting job has been waiting, in seconds; 0 if none is waiting.
+     */
+    private long lagSeconds;
+}
@@ -0,0 +1,63 @@
+package pl.gm.albums.job.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * An uploaded photo file waiting in the spool directory to be stored and added to an album.
+ * The row is deleted in the transaction that adds the photo, so a job is either pending or done, never both.
+ */
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "photo_job", indexes = {
+        @Index(name = "idx_photo_job_state", columnList = "state, availableAt, id")
+})
+public class PhotoJobEntity {
+
+    public enum State {
+        QUEUED, RUNNING, FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /** Album the photo is added to; not a foreign key, so deleting the album fails its pending jobs instead */
+    @Column(nullable = false)
+    private Long albumId;
+
+    /** Name of the uploaded file in the spool directory */
+    @Column(nullable = false)
+    private String spoolFileName;
+
+    /** Name of the file as uploaded by the user */
+    private String originalFileName;
+
+    /** Size of the uploaded file in bytes */
+    private long byteSize;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private State state;
+
+    /** Number of times a worker has started the job */
+    private int attempts;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    /** The job is not started before this time, which is pushed back after every failed attempt */
+    @Column(nullable = false)
+    private LocalDateTime availableAt;
+
+    /** Message of the error that failed the latest attempt */
+    @Column(length = 1000)
+    private String lastError;
+
+}
@@ -0,0 +1,91 @@
+package pl.gm.albums.job.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import pl.gm.albums.job.model.PhotoJobEntity;
+import pl.gm.albums.job.model.PhotoJobEntity.State;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface PhotoJobRepository extends JpaRepository<PhotoJobEntity, Long> {
+
+    /**
+     * Number of jobs and creation time of the oldest one in one state.
+     */
+    interface StateCount {
+
+        State getState();
+
+        long getCount();
+
+        LocalDateTime getOldestCreatedAt();
+    }
+
+    // The queue is read outside of read-only transactions, so on the primary database even when a replica is
+    // configured; a lagging replica would hand out jobs that were already claimed
+
+    @Transactional(Transactional.TxType.SUPPORTS)
+    long countByState(State state);
+
+    /**
+     * Returns the number of jobs and the oldest creation time per state, omitting states without jobs.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    @Query("select j.state as state, count(j) as count, min(j.createdAt) as oldestCreatedAt " +
+            "from PhotoJobEntity j group by j.state")
+    List<StateCount> countByStates();
+
+    /**
+     * Returns the creation time of the oldest job in a state, or null if there is none.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    @Query("select min(j.createdAt) from PhotoJobEntity j where j.state = :state")
+    LocalDateTime findOldestCreatedAt(State state);
+
+    /**
+     * Returns queued jobs that may be started at the given time, oldest first.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    @Query("select j from PhotoJobEntity j where j.state = :state and j.availableAt <= :now order by j.id")
+    List<PhotoJobEntity> findReady(State state, LocalDateTime now, Pageable pageable);
+
+    /**
+     * Moves a job from one state to another and counts the attempt, unless another worker moved it first.
+     *
+     * @return 1 if the job was moved, 0 otherwise.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoJobEntity j set j.state = :to, j.attempts = j.attempts + 1 where j.id = :id and j.state = :from")
+    int claim(Long id, State from, State to);
+
+    /**
+     * Puts a started job back into the queue, or fails it, with the error of its latest attempt.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoJobEntity j set j.state = :state, j.availableAt = :availableAt, j.lastError = :lastError " +
+            "where j.id = :id")
+    int reschedule(Long id, State state, LocalDateTime availableAt, String lastError);
+
+    /**
+     * Moves every job in one state to another, e.g. the jobs interrupted by a shutdown back into the queue.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoJobEntity j set j.state = :to where j.state = :from")
+    int moveAll(State from, State to);
+
+    /**
+     * Deletes a job with a single statement, without loading it first.
+     */
+    @Modifying
+    @Query("delete from PhotoJobEntity j where j.id = :id")
+    int deleteJobById(Long id);
+}
@@ -0,0 +1,21 @@
+package pl.gm.albums.job.service;
+
+/**
+ * Thrown when an upload is rejected because too many uploaded photos are already waiting to be processed.
+ */
+public class PhotoJobQueueFullException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public PhotoJobQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Returns the number of seconds after which the upload may be retried.
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,344 @@
+package pl.gm.albums.job.service;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.album.service.AlbumService;
+import pl.gm.albums.job.dto.PhotoJobQueueStatusDto;
+import pl.gm.albums.job.model.PhotoJobEntity;
+import pl.gm.albums.job.model.PhotoJobEntity.State;
+import pl.gm.albums.job.repository.PhotoJobRepository;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds uploaded photos to albums in the background, through a queue of jobs kept in the photo_job table.
+ * An upload request only moves the uploaded files into the spool directory and inserts one job per file, so request
+ * threads are released at once; once the queue holds photos.jobs.max-depth jobs, uploads are rejected until it drains.
+ * A dispatcher thread hands the ready jobs to a fixed pool of workers, each of which stores the file, then inserts the
+ * photo into the album and deletes its job in one transaction. Failed attempts are retried with a growing delay.
+ * Jobs survive restarts: the ones that were running when the application stopped are queued again when it starts,
+ * which assumes a single application instance works on the queue.
+ */
+@Slf4j
+@Service
+public class PhotoJobService implements SmartInitializingSingleton {
+
+    private final PhotoJobRepository photoJobRepository;
+    private final AlbumRepository albumRepository;
+    private final AlbumService albumService;
+    private final PhotoService photoService;
+    private final PhotoFileReaper photoFileReaper;
+    private final TransactionTemplate transactionTemplate;
+    private final Path spoolDir;
+    private final long maxDepth;
+    private final long retryAfterSeconds;
+    private final int maxAttempts;
+    private final long retryDelayMs;
+    private final long pollIntervalMs;
+    private final Semaphore idleWorkers;
+    private final ExecutorService workerPool;
+    private final ScheduledExecutorService dispatcher;
+    private final Timer waitTimer;
+    private final Counter rejected;
+
+    public PhotoJobService(PhotoJobRepository photoJobRepository, AlbumRepository albumRepository,
+                           AlbumService albumService, PhotoService photoService, PhotoFileReaper photoFileReaper,
+                           TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                           @Value("${photos.jobs.spool-dir:./data/spool}") String spoolDir,
+                           @Value("${photos.jobs.workers:4}") int workers,
+                           @Value("${photos.jobs.max-depth:1000}") long maxDepth,
+                           @Value("${photos.jobs.retry-after-seconds:10}") long retryAfterSeconds,
+                           @Value("${photos.jobs.max-attempts:5}") int maxAttempts,
+                           @Value("${photos.jobs.retry-delay-ms:1000}") long retryDelayMs,
+                           @Value("${photos.jobs.poll-interval-ms:1000}") long pollIntervalMs) {
+        this.photoJobRepository = photoJobRepository;
+        this.albumRepository = albumRepository;
+        this.albumService = albumService;
+        this.photoService = photoService;
+        this.photoFileReaper = photoFileReaper;
+        this.transactionTemplate = transactionTemplate;
+        this.spoolDir = Paths.get(spoolDir).toAbsolutePath().normalize();
+        this.maxDepth = maxDepth;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMs = retryDelayMs;
+        this.pollIntervalMs = pollIntervalMs;
+        this.idleWorkers = new Semaphore(workers);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workerPool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "photo-job-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "photo-job-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.waitTimer = Timer.builder("photos.jobs.wait")
+                .description("Time uploaded photos spent in the queue before a worker started them")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejected = Counter.builder("photos.jobs.rejected")
+                .description("Uploaded photos rejected because the job queue was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues again the jobs interrupted by the previous shutdown and starts dispatching jobs to the workers.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        int interrupted = photoJobRepository.moveAll(State.RUNNING, State.QUEUED);
+        if (interrupted > 0) {
+            log.info("Queued {} photo jobs interrupted by the previous shutdown again", interrupted);
+        }
+        dispatcher.scheduleWithFixedDelay(this::dispatch, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Moves uploaded files into the spool directory and queues a job for each of them, which adds it to an album.
+     * Empty files are skipped. If called inside a transaction, the workers are woken only after it commits.
+     *
+     * @param albumId ID of the album.
+     * @param files   Uploaded files.
+     * @return IDs of the queued jobs, in the order of the files.
+     * @throws EntityNotFoundException     if an album with the specified ID is not found in the repository.
+     * @throws PhotoJobQueueFullException if photos.jobs.max-depth jobs are waiting already.
+     * @throws IOException                if a file cannot be moved into the spool directory.
+     */
+    @Timed(value = "photos.service", histogram = true)
+    public List<Long> enqueue(long albumId, List<MultipartFile> files) throws IOException {
+        long depth = photoJobRepository.countByState(State.QUEUED);
+        if (depth >= maxDepth) {
+            rejected.increment(files.size());
+            throw new PhotoJobQueueFullException(
+                    depth + " uploaded photos are waiting to be processed, retry in " + retryAfterSeconds + " s",
+                    retryAfterSeconds);
+        }
+        if (!albumRepository.existsById(albumId)) {
+            throw new EntityNotFoundException("Album with id " + albumId + " not found");
+        }
+        Files.createDirectories(spoolDir);
+        LocalDateTime now = LocalDateTime.now();
+        List<PhotoJobEntity> jobs = new ArrayList<>(files.size());
+        try {
+            for (MultipartFile file : files) {
+                if (file.isEmpty()) {
+                    continue;
+                }
+                String spoolFileName = UUID.randomUUID().toString();
+                // Multipart parts already sit in temporary files, which this moves rather than copies when it can
+                file.transferTo(spoolDir.resolve(spoolFileName));
+                jobs.add(new PhotoJobEntity(null, albumId, spoolFileName, file.getOriginalFilename(), file.getSize(),
+                        State.QUEUED, 0, now, now, null));
+            }
+            photoJobRepository.saveAll(jobs);
+        } catch (IOException | RuntimeException e) {
+            jobs.forEach(job -> deleteSpoolFile(job.getSpoolFileName()));
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeDispatcher();
+                }
+            });
+        } else {
+            wakeDispatcher();
+        }
+        return jobs.stream().map(PhotoJobEntity::getId).toList();
+    }
+
+    /**
+     * Returns the number of jobs per state and how far the queue lags behind.
+     */
+    public PhotoJobQueueStatusDto getStatus() {
+        PhotoJobQueueStatusDto status = new PhotoJobQueueStatusDto();
+        status.setMaxDepth(maxDepth);
+        for (PhotoJobRepository.StateCount count : photoJobRepository.countByStates()) {
+            switch (count.getState()) {
+                case QUEUED -> {
+                    status.setQueued(count.getCount());
+                    status.setOldestQueuedAt(count.getOldestCreatedAt());
+                    status.setLagSeconds(lagSeconds(count.getOldestCreatedAt()));
+                }
+                case RUNNING -> status.setRunning(count.getCount());
+                case FAILED -> status.setFailed(count.getCount());
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Returns the number of jobs waiting for a worker.
+     */
+    public long getQueueDepth() {
+        return photoJobRepository.countByState(State.QUEUED);
+    }
+
+    /**
+     * Returns for how many seconds the oldest waiting job has been waiting, or 0 if none is waiting.
+     */
+    public long getLagSeconds() {
+        return lagSeconds(photoJobRepository.findOldestCreatedAt(State.QUEUED));
+    }
+
+    private static long lagSeconds(LocalDateTime oldestCreatedAt) {
+        return oldestCreatedAt == null ? 0 : Math.max(0, Duration.between(oldestCreatedAt, LocalDateTime.now()).toSeconds());
+    }
+
+    /**
+     * Claims as many ready jobs as there are idle workers and starts them. Runs on the dispatcher thread only.
+     */
+    void dispatch() {
+        int idle = idleWorkers.availablePermits();
+        if (idle == 0) {
+            return;
+        }
+        List<PhotoJobEntity> ready;
+        try {
+            ready = photoJobRepository.findReady(State.QUEUED, LocalDateTime.now(), PageRequest.of(0, idle));
+        } catch (RuntimeException e) {
+            log.warn("Could not read the photo job queue", e);
+            return;
+        }
+        for (PhotoJobEntity job : ready) {
+            if (!idleWorkers.tryAcquire()) {
+                return;
+            }
+            boolean started = false;
+            try {
+                if (photoJobRepository.claim(job.getId(), State.QUEUED, State.RUNNING) == 1) {
+                    workerPool.execute(() -> {
+                        try {
+                            process(job);
+                        } finally {
+                            idleWorkers.release();
+                            wakeDispatcher();
+                        }
+                    });
+                    started = true;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not start photo job {}", job.getId(), e);
+            } finally {
+                if (!started) {
+                    idleWorkers.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the spooled file of a claimed job and adds the photo to the album, deleting the job in the same
+     * transaction. A failed attempt puts the job back into the queue, unless it was the last one or the album is gone.
+     */
+    void process(PhotoJobEntity job) {
+        waitTimer.record(Duration.between(job.getCreatedAt(), LocalDateTime.now()));
+        int attempt = job.getAttempts() + 1;
+        StoredUpload upload = null;
+        try {
+            upload = photoService.storeFile(new FileSystemResource(spoolDir.resolve(job.getSpoolFileName())),
+                    job.getOriginalFileName(), job.getByteSize());
+            StoredUpload stored = upload;
+            transactionTemplate.executeWithoutResult(status -> {
+                albumService.addPhoto(job.getAlbumId(), stored);
+                photoJobRepository.deleteJobById(job.getId());
+            });
+        } catch (RuntimeException e) {
+            boolean permanent = e instanceof EntityNotFoundException || attempt >= maxAttempts;
+            log.warn("Photo job {} for {} failed (attempt {} of {})", job.getId(), job.getOriginalFileName(),
+                    attempt, maxAttempts, e);
+            fail(job, upload, attempt, permanent, e);
+            return;
+        }
+        deleteSpoolFile(job.getSpoolFileName());
+    }
+
+    private void fail(PhotoJobEntity job, StoredUpload upload, int attempt, boolean permanent, RuntimeException e) {
+        String error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+        if (error.length() > 1000) {
+            error = error.substring(0, 1000);
+        }
+        try {
+            if (!permanent) {
+                // 1, 2, 4, 8... times the retry delay
+                LocalDateTime retryAt = LocalDateTime.now().plus(Duration.ofMillis(retryDelayMs << Math.min(attempt - 1, 20)));
+                photoJobRepository.reschedule(job.getId(), State.QUEUED, retryAt, error);
+                return;
+            }
+            photoJobRepository.reschedule(job.getId(), State.FAILED, LocalDateTime.now(), error);
+        } catch (RuntimeException rescheduleError) {
+            // The job stays running until the next start queues it again
+            log.error("Could not reschedule photo job {}", job.getId(), rescheduleError);
+            return;
+        }
+        deleteSpoolFile(job.getSpoolFileName());
+        if (upload != null) {
+            // No photo references the stored file unless the same content was uploaded again
+            photoFileReaper.reap(List.of(new PhotoFileDto(null, upload.file().fileName(), upload.file().contentHash())));
+        }
+    }
+
+    private void deleteSpoolFile(String spoolFileName) {
+        try {
+            Files.deleteIfExists(spoolDir.resolve(spoolFileName));
+        } catch (IOException e) {
+            log.warn("Could not delete spooled upload {}", spoolFileName, e);
+        }
+    }
+
+    private void wakeDispatcher() {
+        try {
+            dispatcher.execute(this::dispatch);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the queued jobs are picked up after the next start
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        dispatcher.shutdownNow();
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Photo jobs still running after 30 s are queued again at the next start");
+            workerPool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package pl.gm.albums.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import pl.gm.albums.job.service.PhotoJobService;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.ThumbnailService;
+
+/**
+ * Reports the depth of the background work queues. Cache sizes and hit rates are reported by Spring Boot.
+ */
+@Component
+public class QueueMetrics implements MeterBinder {
+
+    private final ThumbnailService thumbnailService;
+    private final PhotoFileReaper photoFileReaper;
+    private final PhotoJobService photoJobService;
+
+    public QueueMetrics(ThumbnailService thumbnailService, PhotoFileReaper photoFileReaper,
+                        PhotoJobService photoJobService) {
+        this.thumbnailService = thumbnailService;
+        this.photoFileReaper = photoFileReaper;
+        this.photoJobService = photoJobService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("photos.thumbnails.queue", thumbnailService, ThumbnailService::getQueueSize)
+                .description("Thumbnail jobs waiting for a worker")
+                .register(registry);
+        Gauge.builder("photos.reaper.queue", photoFileReaper, PhotoFileReaper::getQueueSize)
+                .description("Deleted photo files waiting to be removed from disk")
+                .register(registry);
+        // Both read the job table, once per scrape
+        Gauge.builder("photos.jobs.queue", photoJobService, PhotoJobService::getQueueDepth)
+                .description("Uploaded photos waiting to be added to their albums")
+                .register(registry);
+        Gauge.builder("photos.jobs.lag", photoJobService, PhotoJobService::getLagSeconds)
+                .description("Time the oldest waiting uploaded photo has been waiting")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+}
@@ -0,0 +1,33 @@
+package pl.gm.albums.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread.
+ * Registered through the hibernate.session_factory.statement_inspector property; the counter is reset
+ * at the start of every web request, so it holds the number of statements the request has issued so far.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * Returns the number of statements prepared on the current thread since the last reset.
+     */
+    public static long getCount() {
+        return COUNT.get()[0];
+    }
+
+    /**
+     * Starts counting the statements of the current thread from zero.
+     */
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+}
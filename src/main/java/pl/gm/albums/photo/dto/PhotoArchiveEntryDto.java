@@ -0,0 +1,34 @@
+package pl.gm.albums.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The stored file of a photo and the name it was uploaded under, as needed to put the photo into an album archive.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoArchiveEntryDto {
+
+    /**
+     * The ID of the photo entity.
+     */
+    private Long id;
+
+    /**
+     * The name of the stored file.
+     */
+    private String fileName;
+
+    /**
+     * The name of the file as uploaded by the user.
+     */
+    private String originalFileName;
+
+    /**
+     * The CRC-32 of the stored file, or null if it was stored before the checksum was recorded.
+     */
+    private Long crc32;
+}
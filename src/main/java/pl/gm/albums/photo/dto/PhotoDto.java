@@ -3,7 +3,8 @@ package pl.gm.albums.photo.dto;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import pl.gm.albums.album.dto.AlbumDto;
+
+import java.time.LocalDateTime;
 
 /**
  * A DTO (Data Transfer Object) representing a photo entity.
@@ -20,18 +21,90 @@ public class PhotoDto {
     private Long id;
 
     /**
-     * The path to the photo file.
+     * The directory the photo file was kept in before the photo storage was introduced,
+     * or null once the file has been moved into the photo storage.
      */
     private String path;
 
     /**
-     * The name of the photo file.
+     * The name of the stored photo file, derived from its content hash.
      */
     private String fileName;
 
     /**
-     * The album that this photo belongs to.
+     * The name of the photo file as uploaded by the user.
+     */
+    private String originalFileName;
+
+    /**
+     * The SHA-256 hash of the photo file content.
+     */
+    private String contentHash;
+
+    /**
+     * The CRC-32 of the photo file content, or null if it was stored before the checksum was recorded.
+     */
+    private Long crc32;
+
+    /**
+     * Whether the thumbnail variants of this photo have been generated.
+     */
+    private boolean thumbnailsReady;
+
+    /**
+     * The ID of the album that this photo belongs to.
+     */
+    private Long albumId;
+
+    /**
+     * The width of the photo in pixels as displayed.
+     */
+    private Integer width;
+
+    /**
+     * The height of the photo in pixels as displayed.
+     */
+    private Integer height;
+
+    /**
+     * The size of the stored photo file in bytes.
+     */
+    private Long byteSize;
+
+    /**
+     * The MIME type of the photo file.
+     */
+    private String contentType;
+
+    /**
+     * The date and time the photo was taken, if the file records it.
+     */
+    private LocalDateTime capturedAt;
+
+    /**
+     * Returns the file name of the thumbnail variant with the given size,
+     * or the original file name while the thumbnails are still being generated.
+     *
+     * @param size Longest edge of the thumbnail in pixels.
+     * @return File name to be displayed.
+     */
+    public String getThumbnailFileName(int size) {
+        return thumbnailsReady ? thumbnailFileName(fileName, size) : fileName;
+    }
+
+    /**
+     * Builds the file name of a thumbnail variant, e.g. "cat.jpg" and 512 give "cat_512.jpg".
+     *
+     * @param fileName File name of the original photo.
+     * @param size     Longest edge of the thumbnail in pixels.
+     * @return File name of the thumbnail variant.
      */
-    private AlbumDto album;
+    public static String thumbnailFileName(String fileName, int size) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) {
+            return fileName + "_" + size;
+        }
+        return fileName.substring(0, dot) + "_" + size + fileName.substring(dot);
+    }
 
 }
@@ -0,0 +1,77 @@
+package pl.gm.albums.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One photo of an album as written by the metadata export.
+ * An album without any photo is exported as a single row whose photo fields are null.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoExportDto {
+
+    /**
+     * The ID of the album.
+     */
+    private Long albumId;
+
+    /**
+     * The title of the album.
+     */
+    private String albumTitle;
+
+    /**
+     * Whether this photo is the main photo of the album.
+     */
+    private boolean mainPhoto;
+
+    /**
+     * The ID of the photo.
+     */
+    private Long photoId;
+
+    /**
+     * The name of the stored photo file.
+     */
+    private String fileName;
+
+    /**
+     * The name of the photo file as uploaded by the user.
+     */
+    private String originalFileName;
+
+    /**
+     * The SHA-256 hash of the photo file content.
+     */
+    private String contentHash;
+
+    /**
+     * The width of the photo in pixels as displayed.
+     */
+    private Integer width;
+
+    /**
+     * The height of the photo in pixels as displayed.
+     */
+    private Integer height;
+
+    /**
+     * The size of the stored photo file in bytes.
+     */
+    private Long byteSize;
+
+    /**
+     * The MIME type of the photo file.
+     */
+    private String contentType;
+
+    /**
+     * The date and time the photo was taken, if the file records it.
+     */
+    private LocalDateTime capturedAt;
+}
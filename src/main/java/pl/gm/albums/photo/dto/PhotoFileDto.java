@@ -0,0 +1,29 @@
+package pl.gm.albums.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The stored file of a photo entity, as needed to delete the file once the entity is gone.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoFileDto {
+
+    /**
+     * The ID of the photo entity.
+     */
+    private Long id;
+
+    /**
+     * The name of the stored file.
+     */
+    private String fileName;
+
+    /**
+     * The SHA-256 hash of the file content, shared by all photo entities storing the same content.
+     */
+    private String contentHash;
+}
@@ -0,0 +1,26 @@
+package pl.gm.albums.photo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One slice of the photos of an album, as returned by the keyset-paginated gallery endpoint.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoSliceDto {
+
+    /**
+     * The photos of this slice, in the requested order.
+     */
+    private List<PhotoDto> photos;
+
+    /**
+     * The cursor to request the next slice with, or null if this is the last slice.
+     */
+    private String nextCursor;
+}
@@ -0,0 +1,30 @@
+package pl.gm.albums.photo.mapper;
+
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.model.PhotoEntity;
+
+import java.util.List;
+
+/**
+ * Maps photos between entities and DTOs. The implementation is generated at compile time by MapStruct.
+ * A photo DTO refers to its album by ID only, so mapping a photo never pulls in the album and its other photos,
+ * and carries the image metadata as flat fields.
+ */
+@Mapper(componentModel = "spring")
+public interface PhotoMapper {
+
+    @Mapping(target = "albumId", source = "album.id")
+    @Mapping(target = ".", source = "metadata")
+    PhotoDto toDto(PhotoEntity photoEntity);
+
+    List<PhotoDto> toDtos(List<PhotoEntity> photoEntities);
+
+    /**
+     * The album reference is not mapped; the photo service sets it from the album ID of the DTO.
+     */
+    @Mapping(target = "album", ignore = true)
+    @Mapping(target = "metadata", source = ".")
+    PhotoEntity toEntity(PhotoDto photoDto);
+}
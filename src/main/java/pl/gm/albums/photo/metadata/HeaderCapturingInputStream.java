@@ -0,0 +1,64 @@
+package pl.gm.albums.photo.metadata;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes a stream through unchanged while keeping a copy of its first bytes,
+ * so the header of an upload can be parsed without reading the upload twice.
+ */
+public class HeaderCapturingInputStream extends FilterInputStream {
+
+    private final byte[] header;
+    private int captured;
+
+    public HeaderCapturingInputStream(InputStream in, int headerSize) {
+        super(in);
+        this.header = new byte[headerSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0 && captured < header.length) {
+            header[captured++] = (byte) b;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0 && captured < header.length) {
+            int count = Math.min(read, header.length - captured);
+            System.arraycopy(b, off, header, captured, count);
+            captured += count;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes would leave a gap in the captured header
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Returns the buffer holding the captured bytes; only the first getCapturedLength() of them are valid.
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    public int getCapturedLength() {
+        return captured;
+    }
+}
@@ -0,0 +1,215 @@
+package pl.gm.albums.photo.metadata;
+
+import pl.gm.albums.photo.model.ImageMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Reads image dimensions, type and EXIF capture date from the first bytes of a JPEG, PNG, GIF, BMP or WebP file.
+ * Only the headers are parsed; the image data itself is never decoded.
+ */
+public final class ImageHeaderParser {
+
+    /** JPEG files may carry up to 64 KiB of EXIF and other APP segments before the frame header */
+    public static final int HEADER_SIZE = 256 * 1024;
+
+    private static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+    private ImageHeaderParser() {
+    }
+
+    /**
+     * Parses the header of an image file.
+     *
+     * @param header   The first bytes of the file, at most HEADER_SIZE of them are looked at.
+     * @param length   Number of valid bytes in the header array.
+     * @param byteSize Size of the whole file in bytes.
+     * @return Metadata of the image; dimensions, type and capture date are null if they could not be read.
+     */
+    public static ImageMetadata parse(byte[] header, int length, long byteSize) {
+        Header h = new Header(header, Math.min(length, header.length));
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.setByteSize(byteSize);
+        try {
+            if (h.startsWith(0xFF, 0xD8, 0xFF)) {
+                metadata.setContentType("image/jpeg");
+                parseJpeg(h, metadata);
+            } else if (h.startsWith(0x89, 'P', 'N', 'G')) {
+                metadata.setContentType("image/png");
+                if (h.ascii(12, 4).equals("IHDR")) {
+                    metadata.setWidth((int) h.u32(16, false));
+                    metadata.setHeight((int) h.u32(20, false));
+                }
+            } else if (h.startsWith('G', 'I', 'F', '8')) {
+                metadata.setContentType("image/gif");
+                metadata.setWidth(h.u16(6, true));
+                metadata.setHeight(h.u16(8, true));
+            } else if (h.startsWith('B', 'M')) {
+                metadata.setContentType("image/bmp");
+                metadata.setWidth(Math.abs((int) h.u32(18, true)));
+                metadata.setHeight(Math.abs((int) h.u32(22, true)));
+            } else if (h.startsWith('R', 'I', 'F', 'F') && h.ascii(8, 4).equals("WEBP")) {
+                metadata.setContentType("image/webp");
+                parseWebp(h, metadata);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated header: keep whatever was read before it ended
+        }
+        return metadata;
+    }
+
+    private static void parseJpeg(Header h, ImageMetadata metadata) {
+        int orientation = 1;
+        int pos = 2;
+        while (pos + 4 <= h.length) {
+            if (h.u8(pos) != 0xFF) {
+                return;
+            }
+            int marker = h.u8(pos + 1);
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                pos += 2;
+                continue;
+            }
+            int segmentLength = h.u16(pos + 2, false);
+            if (marker == 0xE1 && h.ascii(pos + 4, 6).equals("Exif\0\0")) {
+                orientation = parseExif(h, pos + 10, metadata);
+            } else if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                int height = h.u16(pos + 5, false);
+                int width = h.u16(pos + 7, false);
+                // Orientations 5 to 8 rotate the image by 90 degrees
+                boolean rotated = orientation >= 5 && orientation <= 8;
+                metadata.setWidth(rotated ? height : width);
+                metadata.setHeight(rotated ? width : height);
+                return;
+            } else if (marker == 0xDA) {
+                return;
+            }
+            pos += 2 + segmentLength;
+        }
+    }
+
+    /**
+     * Reads the capture date from a TIFF structure embedded in an EXIF segment.
+     *
+     * @return The EXIF orientation, or 1 if there is none.
+     */
+    private static int parseExif(Header h, int base, ImageMetadata metadata) {
+        boolean littleEndian = h.ascii(base, 2).equals("II");
+        int orientation = 1;
+        String dateTime = null;
+        String dateTimeOriginal = null;
+        int ifd = base + (int) h.u32(base + 4, littleEndian);
+        int exifIfd = -1;
+        int entries = h.u16(ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = h.u16(entry, littleEndian);
+            if (tag == TAG_ORIENTATION) {
+                orientation = h.u16(entry + 8, littleEndian);
+            } else if (tag == TAG_DATE_TIME) {
+                dateTime = h.ascii(base + (int) h.u32(entry + 8, littleEndian), 19);
+            } else if (tag == TAG_EXIF_IFD) {
+                exifIfd = base + (int) h.u32(entry + 8, littleEndian);
+            }
+        }
+        if (exifIfd >= 0) {
+            entries = h.u16(exifIfd, littleEndian);
+            for (int i = 0; i < entries; i++) {
+                int entry = exifIfd + 2 + i * 12;
+                if (h.u16(entry, littleEndian) == TAG_DATE_TIME_ORIGINAL) {
+                    dateTimeOriginal = h.ascii(base + (int) h.u32(entry + 8, littleEndian), 19);
+                }
+            }
+        }
+        metadata.setCapturedAt(parseDateTime(dateTimeOriginal != null ? dateTimeOriginal : dateTime));
+        return orientation;
+    }
+
+    private static void parseWebp(Header h, ImageMetadata metadata) {
+        String chunk = h.ascii(12, 4);
+        switch (chunk) {
+            case "VP8X" -> {
+                metadata.setWidth(1 + h.u24(24));
+                metadata.setHeight(1 + h.u24(27));
+            }
+            case "VP8 " -> {
+                metadata.setWidth(h.u16(26, true) & 0x3FFF);
+                metadata.setHeight(h.u16(28, true) & 0x3FFF);
+            }
+            case "VP8L" -> {
+                int b0 = h.u8(21), b1 = h.u8(22), b2 = h.u8(23), b3 = h.u8(24);
+                metadata.setWidth(1 + (((b1 & 0x3F) << 8) | b0));
+                metadata.setHeight(1 + (((b3 & 0x0F) << 10) | (b2 << 2) | ((b1 & 0xC0) >> 6)));
+            }
+            default -> {
+            }
+        }
+    }
+
+    static LocalDateTime parseDateTime(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value, EXIF_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            // Cameras without a clock write "0000:00:00 00:00:00" or blanks
+            return null;
+        }
+    }
+
+    private record Header(byte[] bytes, int length) {
+
+        int u8(int pos) {
+            if (pos < 0 || pos >= length) {
+                throw new IndexOutOfBoundsException(pos);
+            }
+            return bytes[pos] & 0xFF;
+        }
+
+        int u16(int pos, boolean littleEndian) {
+            return littleEndian ? u8(pos) | u8(pos + 1) << 8 : u8(pos) << 8 | u8(pos + 1);
+        }
+
+        int u24(int pos) {
+            return u8(pos) | u8(pos + 1) << 8 | u8(pos + 2) << 16;
+        }
+
+        long u32(int pos, boolean littleEndian) {
+            return littleEndian
+                    ? (u16(pos, true) | (long) u16(pos + 2, true) << 16)
+                    : ((long) u16(pos, false) << 16 | u16(pos + 2, false));
+        }
+
+        String ascii(int pos, int count) {
+            if (pos < 0 || pos + count > length) {
+                throw new IndexOutOfBoundsException(pos + count);
+            }
+            return new String(bytes, pos, count, StandardCharsets.US_ASCII);
+        }
+
+        boolean startsWith(int... signature) {
+            if (length < signature.length) {
+                return false;
+            }
+            for (int i = 0; i < signature.length; i++) {
+                if (u8(i) != signature[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package pl.gm.albums.photo.model;
+
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Facts about a photo file read from its header when it is uploaded, so listings never have to open the file.
+ * Any field may be null if the header did not contain it.
+ */
+@Embeddable
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImageMetadata {
+
+    /** Width in pixels as displayed, i.e. after applying the EXIF orientation */
+    private Integer width;
+
+    /** Height in pixels as displayed, i.e. after applying the EXIF orientation */
+    private Integer height;
+
+    /** Size of the stored file in bytes */
+    private Long byteSize;
+
+    /** MIME type detected from the file signature */
+    private String contentType;
+
+    /** Date and time the photo was taken according to EXIF, in the camera's local time */
+    private LocalDateTime capturedAt;
+}
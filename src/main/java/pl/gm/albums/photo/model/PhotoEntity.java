@@ -3,25 +3,63 @@ package pl.gm.albums.photo.model;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
 import pl.gm.albums.album.model.AlbumEntity;
 
 @Entity
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-@Table(name = "photo")
+@Table(name = "photo", indexes = {
+        @Index(name = "idx_photo_file_name", columnList = "fileName"),
+        @Index(name = "idx_photo_captured_at", columnList = "capturedAt"),
+        @Index(name = "idx_photo_dimensions", columnList = "width, height"),
+        @Index(name = "idx_photo_content_type", columnList = "contentType"),
+        @Index(name = "idx_photo_album", columnList = "album_id, id"),
+        @Index(name = "idx_photo_album_captured_at", columnList = "album_id, capturedAt, id")
+})
 public class PhotoEntity {
 
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    /** Sequence ids are handed out in blocks of 50, which lets Hibernate batch inserts (IDENTITY disables batching) */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "photo_seq")
+    @SequenceGenerator(name = "photo_seq", sequenceName = "photo_seq", allocationSize = PhotoEntity.ID_ALLOCATION_SIZE)
     private Long id;
 
+    /** Directory of a file not yet moved into the photo storage; null for every file stored since */
     private String path;
 
+    /**
+     * Name of the stored file: the SHA-256 hash of its content followed by the original extension.
+     * Shared by every photo entity that references the same file, so the same content uploaded with another
+     * extension is a separate file with its own thumbnails
+     */
     private String fileName;
-    /** This field represents the many-to-one relationship between the PhotoEntity and AlbumEntity classes */
-    @ManyToOne
+
+    /** Name of the file as uploaded by the user */
+    private String originalFileName;
+
+    /** Hex-encoded SHA-256 hash of the file content */
+    @Column(length = 64)
+    private String contentHash;
+    /** CRC-32 of the file content, written into album archive entries; null for files stored before it was recorded */
+    private Long crc32;
+    /** Set once every thumbnail variant of this photo has been written next to the original file */
+    @ColumnDefault("false")
+    private boolean thumbnailsReady;
+    /** Album the photo belongs to; null for the main photo of an album, which the album references instead */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "album_id", foreignKey = @ForeignKey(name = "fk_photo_album"))
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private AlbumEntity album;
+    /** Dimensions, size, type and capture date read from the file header at upload */
+    @Embedded
+    private ImageMetadata metadata;
 
 }
@@ -0,0 +1,43 @@
+package pl.gm.albums.photo.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A stored file of deleted photos waiting to be deleted from the photo storage.
+ * The row is written in the transaction that deletes the photos, so a rollback never loses or deletes a file,
+ * and it is locked while the file is deleted, so an upload of the same content can wait for the deletion to finish.
+ */
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "photo_file_deletion", indexes = {
+        @Index(name = "idx_photo_file_deletion_due", columnList = "dueAt, id"),
+        @Index(name = "idx_photo_file_deletion_file", columnList = "fileName")
+})
+public class PhotoFileDeletionEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /** Name of the file in the photo storage */
+    @Column(nullable = false)
+    private String fileName;
+
+    /** Number of failed attempts to delete the file */
+    private int attempts;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    /** The file is not deleted before this time, which uploads of the same content and failed attempts push back */
+    @Column(nullable = false)
+    private LocalDateTime dueAt;
+
+}
@@ -0,0 +1,70 @@
+package pl.gm.albums.photo.repository;
+
+import jakarta.persistence.LockModeType;
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import pl.gm.albums.photo.model.PhotoFileDeletionEntity;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PhotoFileDeletionRepository extends JpaRepository<PhotoFileDeletionEntity, Long> {
+
+    // Read outside of read-only transactions, so on the primary database even when a replica is configured;
+    // a lagging replica would hand out deletions that uploads have already postponed
+
+    @Transactional(Transactional.TxType.SUPPORTS)
+    @Query("select count(d) from PhotoFileDeletionEntity d")
+    long countPending();
+
+    /**
+     * Returns pending deletions that are due at the given time, oldest first.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
+    @Query("select d from PhotoFileDeletionEntity d where d.dueAt <= :now order by d.dueAt, d.id")
+    List<PhotoFileDeletionEntity> findDue(LocalDateTime now, Pageable pageable);
+
+    /**
+     * Loads a pending deletion and locks its row until the end of the current transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select d from PhotoFileDeletionEntity d where d.id = :id")
+    Optional<PhotoFileDeletionEntity> findAndLockById(Long id);
+
+    /**
+     * Adds a pending deletion for every distinct file of the photos of an album and of its main photo.
+     *
+     * @return Number of pending deletions added.
+     */
+    @Modifying
+    @Query(value = "insert into photo_file_deletion (file_name, attempts, created_at, due_at) " +
+            "select distinct p.file_name, 0, :now, :dueAt from photo p " +
+            "where p.album_id = :albumId or p.id = (select a.main_photo_id from album a where a.id = :albumId)",
+            nativeQuery = true)
+    int queueAlbumFiles(long albumId, LocalDateTime now, LocalDateTime dueAt);
+
+    /**
+     * Pushes back the pending deletions of a stored file. Waits while the reaper holds the lock of one of them.
+     *
+     * @return Number of pending deletions postponed.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoFileDeletionEntity d set d.dueAt = :dueAt where d.fileName = :fileName")
+    int postpone(String fileName, LocalDateTime dueAt);
+
+    /**
+     * Counts a failed attempt to delete a file and pushes its deletion back.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoFileDeletionEntity d set d.attempts = d.attempts + 1, d.dueAt = :dueAt where d.id = :id")
+    int reschedule(Long id, LocalDateTime dueAt);
+}
@@ -0,0 +1,59 @@
+package pl.gm.albums.photo.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Component;
+import pl.gm.albums.photo.model.PhotoEntity;
+
+import javax.sql.DataSource;
+
+/**
+ * Moves the photo id sequence past the ids of existing photo rows.
+ * Databases created before photo ids came from a sequence hold IDENTITY ids, and a freshly created
+ * sequence would hand those ids out again. Runs once the schema is up to date and before the application
+ * accepts requests; it does nothing when the sequence is already ahead.
+ */
+@Slf4j
+@Component
+class PhotoIdSequenceInitializer implements InitializingBean {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+
+    /**
+     * The EntityManagerFactory is only injected to run after the schema migrations, which create the sequence.
+     */
+    PhotoIdSequenceInitializer(JdbcTemplate jdbcTemplate, DataSource dataSource, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Long maxId = jdbcTemplate.queryForObject("select max(id) from photo", Long.class);
+        if (maxId == null) {
+            return;
+        }
+        long required = maxId + PhotoEntity.ID_ALLOCATION_SIZE;
+        String product = JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName");
+        if ("H2".equals(product)) {
+            Long next = jdbcTemplate.queryForObject(
+                    "select base_value from information_schema.sequences where upper(sequence_name) = 'PHOTO_SEQ'",
+                    Long.class);
+            if (next != null && next < required) {
+                jdbcTemplate.execute("alter sequence photo_seq restart with " + required);
+                log.info("Photo id sequence moved from {} to {}", next, required);
+            }
+        } else if ("MySQL".equals(product)) {
+            // MySQL has no sequences; Hibernate emulates photo_seq with a single-row table
+            Long next = jdbcTemplate.queryForObject("select next_val from photo_seq", Long.class);
+            if (next != null && next < required) {
+                jdbcTemplate.update("update photo_seq set next_val = ?", required);
+                log.info("Photo id sequence moved from {} to {}", next, required);
+            }
+        }
+    }
+}
@@ -1,9 +1,198 @@
 package pl.gm.albums.photo.repository;
 
+import jakarta.persistence.QueryHint;
+import jakarta.transaction.Transactional;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import pl.gm.albums.photo.dto.PhotoArchiveEntryDto;
+import pl.gm.albums.photo.dto.PhotoExportDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
 import pl.gm.albums.photo.model.PhotoEntity;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
 @Repository
 public interface PhotoRepository extends JpaRepository<PhotoEntity,Long> {
+
+    /** Rows fetched from the database per round trip while exporting */
+    String EXPORT_FETCH_SIZE = "1000";
+
+    /**
+     * Checks whether a stored file is still referenced by a photo entity.
+     */
+    boolean existsByFileName(String fileName);
+
+    /**
+     * Returns the stored files of the photos of an album other than the main photo, without loading any entity.
+     */
+    @Query("select new pl.gm.albums.photo.dto.PhotoFileDto(p.id, p.fileName, p.contentHash) " +
+            "from PhotoEntity p where p.album.id = :albumId")
+    List<PhotoFileDto> findFilesByAlbumId(Long albumId);
+
+    /**
+     * Returns the stored file of the main photo of an album, if it has one.
+     */
+    @Query("select new pl.gm.albums.photo.dto.PhotoFileDto(p.id, p.fileName, p.contentHash) " +
+            "from AlbumEntity a join a.mainPhoto p where a.id = :albumId")
+    Optional<PhotoFileDto> findMainPhotoFileByAlbumId(Long albumId);
+
+    /**
+     * Returns the stored file and original name of the main photo of an album, if it has one.
+     */
+    @Query("select new pl.gm.albums.photo.dto.PhotoArchiveEntryDto(p.id, p.fileName, p.originalFileName, p.crc32) " +
+            "from AlbumEntity a join a.mainPhoto p where a.id = :albumId")
+    Optional<PhotoArchiveEntryDto> findMainPhotoArchiveEntry(Long albumId);
+
+    /**
+     * Returns the stored files and original names of the photos of an album other than the main photo, in ID order.
+     */
+    @Query("select new pl.gm.albums.photo.dto.PhotoArchiveEntryDto(p.id, p.fileName, p.originalFileName, p.crc32) " +
+            "from PhotoEntity p where p.album.id = :albumId order by p.id")
+    List<PhotoArchiveEntryDto> findAlbumPhotoArchiveEntries(Long albumId);
+
+    /**
+     * Returns the photos of an album with an ID greater than the given one, in ID order.
+     * Only the page size of the pageable is used; the cursor replaces the offset, so deep slices cost the same as the first.
+     */
+    @Query("select p from PhotoEntity p where p.album.id = :albumId and p.id > :afterId order by p.id")
+    List<PhotoEntity> findAlbumPhotosAfterId(Long albumId, long afterId, Pageable pageable);
+
+    /**
+     * Returns the dated photos of an album that follow the given capture date and ID, ordered by capture date and ID.
+     * Both conditions are ranges of idx_photo_album_captured_at; photos without a capture date, which follow all
+     * dated ones, are read by findUndatedAlbumPhotosAfterId.
+     */
+    @Query("select p from PhotoEntity p where p.album.id = :albumId " +
+            "and (p.metadata.capturedAt > :capturedAt " +
+            "or (p.metadata.capturedAt = :capturedAt and p.id > :afterId)) " +
+            "order by p.metadata.capturedAt, p.id")
+    List<PhotoEntity> findAlbumPhotosCapturedAfter(Long albumId, LocalDateTime capturedAt, long afterId,
+                                                   Pageable pageable);
+
+    /**
+     * Returns the photos of an album without a capture date and with an ID greater than the given one, in ID order.
+     */
+    @Query("select p from PhotoEntity p where p.album.id = :albumId " +
+            "and p.metadata.capturedAt is null and p.id > :afterId order by p.id")
+    List<PhotoEntity> findUndatedAlbumPhotosAfterId(Long albumId, long afterId, Pageable pageable);
+
+    /**
+     * Streams every album with its main photo, or with null photo fields if it has none, in album ID order.
+     * Rows are read from a cursor as the stream is consumed and are never managed entities,
+     * so memory use does not grow with the number of rows. Must be consumed inside a transaction and closed.
+     */
+    @QueryHints({
+            @QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = AvailableHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select new pl.gm.albums.photo.dto.PhotoExportDto(a.id, a.title, true, p.id, p.fileName, " +
+            "p.originalFileName, p.contentHash, p.metadata.width, p.metadata.height, p.metadata.byteSize, " +
+            "p.metadata.contentType, p.metadata.capturedAt) " +
+            "from AlbumEntity a left join a.mainPhoto p order by a.id")
+    Stream<PhotoExportDto> streamMainPhotosForExport();
+
+    /**
+     * Streams the photos of every album other than the main photos, in album and photo ID order.
+     * Rows are read from a cursor as the stream is consumed and are never managed entities,
+     * so memory use does not grow with the number of rows. Must be consumed inside a transaction and closed.
+     */
+    @QueryHints({
+            @QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = AvailableHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select new pl.gm.albums.photo.dto.PhotoExportDto(a.id, a.title, false, p.id, p.fileName, " +
+            "p.originalFileName, p.contentHash, p.metadata.width, p.metadata.height, p.metadata.byteSize, " +
+            "p.metadata.contentType, p.metadata.capturedAt) " +
+            "from AlbumEntity a join a.photos p order by a.id, p.id")
+    Stream<PhotoExportDto> streamAlbumPhotosForExport();
+
+    /**
+     * Deletes the photos of an album other than the main photo with a single statement.
+     */
+    @Modifying
+    @Query("delete from PhotoEntity p where p.album.id = :albumId")
+    int deleteAllByAlbumId(Long albumId);
+
+    /**
+     * Deletes the photos with the given IDs with a single statement.
+     * The photos must not be linked to any album any more.
+     */
+    @Modifying
+    @Query("delete from PhotoEntity p where p.id in :ids")
+    int deleteAllByIdIn(Collection<Long> ids);
+
+    /**
+     * Checks whether thumbnails already exist for the stored file with the given name.
+     */
+    boolean existsByFileNameAndThumbnailsReadyTrue(String fileName);
+
+    /**
+     * Returns those of the given stored file names that already have thumbnails.
+     */
+    @Query("select distinct p.fileName from PhotoEntity p where p.fileName in :fileNames and p.thumbnailsReady = true")
+    Set<String> findFileNamesWithThumbnails(Collection<String> fileNames);
+
+    /**
+     * Returns the stored files of the photos without thumbnails with an ID above the given one, in ID order.
+     */
+    @Query("select new pl.gm.albums.photo.dto.PhotoFileDto(p.id, p.fileName, p.contentHash) " +
+            "from PhotoEntity p where p.thumbnailsReady = false and p.id > :afterId order by p.id")
+    List<PhotoFileDto> findFilesWithoutThumbnails(long afterId, Pageable pageable);
+
+    /**
+     * Flags the photo with the given ID, and every other photo sharing its stored file,
+     * as having all of its thumbnail variants on disk.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoEntity p set p.thumbnailsReady = true where p.id = :id or p.fileName = :fileName")
+    int markThumbnailsReady(Long id, String fileName);
+
+    /**
+     * Returns the IDs of the photos markThumbnailsReady flags for the same arguments.
+     */
+    @Query("select p.id from PhotoEntity p where p.id = :id or p.fileName = :fileName")
+    List<Long> findIdsSharingFile(Long id, String fileName);
+
+    /**
+     * Returns the IDs of the albums the given photos belong to, other than as their main photo.
+     */
+    @Query("select distinct p.album.id from PhotoEntity p where p.id in :ids and p.album is not null")
+    Set<Long> findAlbumIdsByPhotoIds(Collection<Long> ids);
+
+    /**
+     * Returns the IDs of the albums whose main photo is one of the given photos.
+     */
+    @Query("select a.id from AlbumEntity a where a.mainPhoto.id in :ids")
+    Set<Long> findAlbumIdsByMainPhotoIds(Collection<Long> ids);
+
+    /**
+     * Returns the directories photo files were stored in before they were moved into the photo storage.
+     */
+    @Query("select distinct p.path from PhotoEntity p where p.path is not null")
+    List<String> findLegacyPaths();
+
+    /**
+     * Returns the names of the files stored in the given legacy directory.
+     */
+    @Query("select distinct p.fileName from PhotoEntity p where p.path = :path")
+    List<String> findFileNamesByPath(String path);
+
+    /**
+     * Marks the files of the given legacy directory as moved into the photo storage.
+     */
+    @Transactional
+    @Modifying
+    @Query("update PhotoEntity p set p.path = null where p.path = :path")
+    int clearPath(String path);
 }
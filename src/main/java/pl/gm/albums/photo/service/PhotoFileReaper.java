@@ -0,0 +1,227 @@
+package pl.gm.albums.photo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.model.PhotoFileDeletionEntity;
+import pl.gm.albums.photo.repository.PhotoFileDeletionRepository;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.PhotoStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the files of deleted photos in the background.
+ * Pending deletions are rows of the photo_file_deletion table written in the deleting transaction, so a rollback
+ * never loses a file and a restart never forgets one. They become due only after a grace period, which covers
+ * uploads that stored the same content but have not committed their photo entity yet.
+ * Every file is deleted in its own transaction that holds the lock of its row: the reference check, the delete and
+ * the removal of the row happen under it, and uploads postponing the deletion wait for it, then store the file again
+ * if it is gone. A single worker takes at most one batch per interval, which caps the unlink rate, and pushes failed
+ * deletions back until they run out of attempts.
+ */
+@Slf4j
+@Service
+public class PhotoFileReaper {
+
+    private final PhotoRepository photoRepository;
+    private final PhotoFileDeletionRepository photoFileDeletionRepository;
+    private final ThumbnailService thumbnailService;
+    private final PhotoStorage photoStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long graceMs;
+    private final long retryDelayMs;
+    private final int maxAttempts;
+    private final Counter bytesDeleted;
+    private final ScheduledExecutorService scheduler;
+
+    public PhotoFileReaper(PhotoRepository photoRepository, PhotoFileDeletionRepository photoFileDeletionRepository,
+                           ThumbnailService thumbnailService, PhotoStorage photoStorage,
+                           TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                           @Value("${photos.reaper.batch-size:100}") int batchSize,
+                           @Value("${photos.reaper.interval-ms:100}") long intervalMs,
+                           @Value("${photos.reaper.grace-ms:600000}") long graceMs,
+                           @Value("${photos.reaper.retry-delay-ms:10000}") long retryDelayMs,
+                           @Value("${photos.reaper.max-attempts:5}") int maxAttempts) {
+        this.photoRepository = photoRepository;
+        this.photoFileDeletionRepository = photoFileDeletionRepository;
+        this.thumbnailService = thumbnailService;
+        this.photoStorage = photoStorage;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.graceMs = graceMs;
+        this.retryDelayMs = retryDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.bytesDeleted = Counter.builder("photos.file.bytes.deleted")
+                .description("Bytes of original photo files deleted from the photo storage")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "photo-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reapBatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the files of deleted photos to the pending deletions, in the current transaction if there is one,
+     * and drops the cached copies of them and their thumbnails once it commits.
+     * Files still referenced by another photo entity when their deletion is due are kept.
+     *
+     * @param files Stored files of the deleted photo entities.
+     */
+    public void reap(Collection<PhotoFileDto> files) {
+        Set<String> fileNames = fileNames(files);
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime dueAt = now.plus(Duration.ofMillis(graceMs));
+        photoFileDeletionRepository.saveAll(fileNames.stream()
+                .map(fileName -> new PhotoFileDeletionEntity(null, fileName, 0, now, dueAt))
+                .toList());
+        evictCachedAfterCommit(fileNames);
+    }
+
+    /**
+     * Adds the files of all photos of an album, its main photo included, to the pending deletions with a single
+     * statement, however many files there are. Called in the transaction that deletes the album, before its photos
+     * are deleted; the cached copies of the files are dropped once it commits.
+     *
+     * @param albumId ID of the album being deleted.
+     * @param files   Stored files of the photos of the album.
+     */
+    public void reapAlbum(long albumId, Collection<PhotoFileDto> files) {
+        LocalDateTime now = LocalDateTime.now();
+        photoFileDeletionRepository.queueAlbumFiles(albumId, now, now.plus(Duration.ofMillis(graceMs)));
+        evictCachedAfterCommit(fileNames(files));
+    }
+
+    private static Set<String> fileNames(Collection<PhotoFileDto> files) {
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (PhotoFileDto file : files) {
+            fileNames.add(file.getFileName());
+        }
+        return fileNames;
+    }
+
+    private void evictCachedAfterCommit(Set<String> fileNames) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictCached(fileNames);
+                }
+            });
+        } else {
+            evictCached(fileNames);
+        }
+    }
+
+    private void evictCached(Collection<String> fileNames) {
+        // Cached copies go at once, even of files that stay stored because another photo shares them
+        for (String fileName : fileNames) {
+            photoStorage.evictCached(fileName);
+            thumbnailService.thumbnailFileNames(fileName).forEach(photoStorage::evictCached);
+        }
+    }
+
+    /**
+     * Pushes back the pending deletions of a file that was just stored again, by a grace period from now.
+     * If the reaper is deleting the file at that moment, this waits until it is done; the caller then has to
+     * check that the file is still stored.
+     *
+     * @param fileName Name of the stored file.
+     */
+    public void postpone(String fileName) {
+        photoFileDeletionRepository.postpone(fileName, LocalDateTime.now().plus(Duration.ofMillis(graceMs)));
+    }
+
+    /**
+     * Returns the number of files waiting to be deleted.
+     */
+    public long getQueueSize() {
+        return photoFileDeletionRepository.countPending();
+    }
+
+    void reapBatch() {
+        List<PhotoFileDeletionEntity> batch;
+        try {
+            batch = photoFileDeletionRepository.findDue(LocalDateTime.now(), PageRequest.of(0, batchSize));
+        } catch (RuntimeException e) {
+            log.warn("Could not read the pending photo file deletions", e);
+            return;
+        }
+        for (PhotoFileDeletionEntity deletion : batch) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> delete(deletion.getId()));
+            } catch (RuntimeException e) {
+                log.warn("Could not delete {} (attempt {})", deletion.getFileName(), deletion.getAttempts() + 1, e);
+                retry(deletion);
+            }
+        }
+    }
+
+    private void delete(Long deletionId) {
+        // Uploads may have postponed the deletion or a later batch may have done it since the batch was read
+        PhotoFileDeletionEntity deletion = photoFileDeletionRepository.findAndLockById(deletionId).orElse(null);
+        if (deletion == null || deletion.getDueAt().isAfter(LocalDateTime.now())) {
+            return;
+        }
+        // The same content may have been uploaded again since the photo was deleted
+        if (!photoRepository.existsByFileName(deletion.getFileName())) {
+            try {
+                PhotoStorage.FileInfo info = photoStorage.stat(deletion.getFileName());
+                if (photoStorage.delete(deletion.getFileName()) && info != null) {
+                    bytesDeleted.increment(info.size());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            thumbnailService.deleteThumbnails(deletion.getFileName());
+        }
+        photoFileDeletionRepository.delete(deletion);
+    }
+
+    private void retry(PhotoFileDeletionEntity deletion) {
+        try {
+            if (deletion.getAttempts() + 1 >= maxAttempts) {
+                log.error("Giving up deleting {} after {} attempts", deletion.getFileName(), maxAttempts);
+                photoFileDeletionRepository.deleteById(deletion.getId());
+                return;
+            }
+            // 1, 2, 4, 8... times the retry delay
+            LocalDateTime dueAt = LocalDateTime.now()
+                    .plus(Duration.ofMillis(retryDelayMs << Math.min(deletion.getAttempts(), 20)));
+            photoFileDeletionRepository.reschedule(deletion.getId(), dueAt);
+        } catch (RuntimeException e) {
+            // The deletion stays due and is attempted again with the next batch
+            log.warn("Could not reschedule the deletion of {}", deletion.getFileName(), e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
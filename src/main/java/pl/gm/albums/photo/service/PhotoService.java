@@ -1,30 +1,73 @@
 package pl.gm.albums.photo.service;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.persistence.EntityNotFoundException;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.TypeToken;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import pl.gm.albums.AlbumsApplication;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.datasource.ReadOnlyTransactional;
 import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.mapper.PhotoMapper;
+import pl.gm.albums.photo.metadata.HeaderCapturingInputStream;
+import pl.gm.albums.photo.metadata.ImageHeaderParser;
+import pl.gm.albums.photo.model.ImageMetadata;
 import pl.gm.albums.photo.model.PhotoEntity;
 import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.PhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 @Service
 public class PhotoService {
 
     private final PhotoRepository photoRepository;
-    private final ModelMapper modelMapper;
+    private final AlbumRepository albumRepository;
+    private final ThumbnailService thumbnailService;
+    private final PhotoMapper photoMapper;
+    private final Executor photoIoExecutor;
+    private final PhotoStorage photoStorage;
+    private final PhotoFileReaper photoFileReaper;
+    private final Timer fileWriteTimer;
+    private final Counter bytesWritten;
 
-    public PhotoService(PhotoRepository photoRepository, ModelMapper modelMapper) {
+    public PhotoService(PhotoRepository photoRepository, AlbumRepository albumRepository,
+                        ThumbnailService thumbnailService, PhotoMapper photoMapper, Executor photoIoExecutor,
+                        PhotoStorage photoStorage, PhotoFileReaper photoFileReaper, MeterRegistry meterRegistry) {
         this.photoRepository = photoRepository;
-        this.modelMapper = modelMapper;
+        this.albumRepository = albumRepository;
+        this.thumbnailService = thumbnailService;
+        this.photoMapper = photoMapper;
+        this.photoIoExecutor = photoIoExecutor;
+        this.photoStorage = photoStorage;
+        this.photoFileReaper = photoFileReaper;
+        this.fileWriteTimer = Timer.builder("photos.file.write")
+                .description("Time spent hashing and storing an uploaded photo file")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.bytesWritten = Counter.builder("photos.file.bytes.written")
+                .description("Bytes of uploaded photo files written to the photo storage")
+                .baseUnit("bytes")
+                .register(meterRegistry);
     }
 
     /**
@@ -32,9 +75,11 @@ public class PhotoService {
      *
      * @return List of PhotoDto objects.
      */
+    @ReadOnlyTransactional
+    @Timed(value = "photos.service", histogram = true)
     public List<PhotoDto> listAll() {
         List<PhotoEntity> photoEntities = photoRepository.findAll();
-        return modelMapper.map(photoEntities, new TypeToken<List<PhotoDto>>() {}.getType());
+        return photoMapper.toDtos(photoEntities);
     }
 
     /**
@@ -42,9 +87,13 @@ public class PhotoService {
      *
      * @param photoDto PhotoEntity object to be saved.
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.PHOTOS_CACHE, key = "#photoDto.id", condition = "#photoDto.id != null"),
+            @CacheEvict(cacheNames = {AlbumsApplication.ALBUMS_CACHE, AlbumsApplication.ALBUM_SUMMARIES_CACHE}, allEntries = true)
+    })
+    @Timed(value = "photos.service", histogram = true)
     public void save(PhotoDto photoDto) {
-        PhotoEntity photo = modelMapper.map(photoDto, PhotoEntity.class);
-        photoRepository.save(photo);
+        photoRepository.save(toEntity(photoDto));
     }
 
     /**
@@ -54,10 +103,13 @@ public class PhotoService {
      * @return PhotoDto object representing the photo entity with the specified ID.
      * @throws EntityNotFoundException if an photo with the specified ID is not found in the repository.
      */
+    @ReadOnlyTransactional
+    @Cacheable(cacheNames = AlbumsApplication.PHOTOS_CACHE, key = "#id", unless = "@replicaReads.isReplica()")
+    @Timed(value = "photos.service", histogram = true)
     public PhotoDto getById(long id) {
         PhotoEntity photoEntity = photoRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Photo with id " + id + " not found"));
-        return modelMapper.map(photoEntity, PhotoDto.class);
+        return photoMapper.toDto(photoEntity);
     }
 
     /**
@@ -65,9 +117,25 @@ public class PhotoService {
      *
      * @param photoDto PhotoDto object to be updated.
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.PHOTOS_CACHE, key = "#photoDto.id", condition = "#photoDto.id != null"),
+            @CacheEvict(cacheNames = {AlbumsApplication.ALBUMS_CACHE, AlbumsApplication.ALBUM_SUMMARIES_CACHE}, allEntries = true)
+    })
+    @Timed(value = "photos.service", histogram = true)
     public void update(PhotoDto photoDto) {
-        PhotoEntity photo = modelMapper.map(photoDto, PhotoEntity.class);
-        photoRepository.save(photo);
+        photoRepository.save(toEntity(photoDto));
+    }
+
+    /**
+     * Maps the DTO to an entity linked to the album it names. The mapper leaves the album out, since it cannot load
+     * one, and saving the entity without it would detach the photo from its album.
+     */
+    private PhotoEntity toEntity(PhotoDto photoDto) {
+        PhotoEntity photo = photoMapper.toEntity(photoDto);
+        if (photoDto.getAlbumId() != null) {
+            photo.setAlbum(albumRepository.getReferenceById(photoDto.getAlbumId()));
+        }
+        return photo;
     }
 
     /**
@@ -75,54 +143,199 @@ public class PhotoService {
      *
      * @param id ID of the photo to be deleted.
      */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = AlbumsApplication.PHOTOS_CACHE, key = "#id"),
+            @CacheEvict(cacheNames = {AlbumsApplication.ALBUMS_CACHE, AlbumsApplication.ALBUM_SUMMARIES_CACHE}, allEntries = true)
+    })
+    @Timed(value = "photos.service", histogram = true)
     public void delete(long id) {
         photoRepository.deleteById(id);
     }
 
     /**
-     * Creates a new photo entity based on the uploaded file and path.
+     * Creates a new photo entity based on the uploaded file.
+     * The file is stored under its content hash, so uploading the same image again reuses the stored file.
+     * Thumbnails are generated in the background after the entity has been saved.
      *
      * @param imageFile MultipartFile containing the uploaded image file.
-     * @param path      Path where the file should be saved on the server.
      * @return PhotoDto object representing the new photo entity.
      */
-    public PhotoDto createPhotoEntity(MultipartFile imageFile, String path) {
+    @Timed(value = "photos.service", histogram = true)
+    public PhotoDto createPhotoEntity(MultipartFile imageFile) {
+        StoredUpload upload = storeFile(imageFile, imageFile.getOriginalFilename(), imageFile.getSize());
+        StoredFile storedFile = upload.file();
         PhotoDto photo = new PhotoDto();
-        photo.setFileName(imageFile.getOriginalFilename());
-        photo.setPath(path);
-        savePhotoFile(imageFile, path);
-        PhotoEntity photoEntity = modelMapper.map(photo, PhotoEntity.class);
-        photoRepository.save(photoEntity);
-        return modelMapper.map(photoEntity, PhotoDto.class);
+        photo.setFileName(storedFile.fileName());
+        photo.setOriginalFileName(upload.originalFileName());
+        photo.setContentHash(storedFile.contentHash());
+        photo.setCrc32(storedFile.crc32());
+        PhotoEntity photoEntity = photoMapper.toEntity(photo);
+        photoEntity.setMetadata(upload.metadata());
+        if (photoRepository.existsByFileNameAndThumbnailsReadyTrue(storedFile.fileName())) {
+            // The same content was uploaded before and its thumbnails are already stored
+            photoEntity.setThumbnailsReady(true);
+            photoRepository.save(photoEntity);
+        } else {
+            photoRepository.save(photoEntity);
+            thumbnailService.generateThumbnails(photoEntity.getId(), storedFile.fileName());
+        }
+        return photoMapper.toDto(photoEntity);
+    }
+
+    /**
+     * Creates photo entities for many uploaded files at once.
+     * The files are stored in parallel and the entities are inserted in JDBC batches,
+     * so this should be called inside a transaction.
+     *
+     * @param imageFiles Uploaded image files; empty parts are skipped.
+     * @return PhotoDto objects representing the new photo entities, in upload order.
+     */
+    @Timed(value = "photos.service", histogram = true)
+    public List<PhotoDto> createPhotoEntities(List<MultipartFile> imageFiles) {
+        List<CompletableFuture<StoredUpload>> writes = imageFiles.stream()
+                .filter(file -> !file.isEmpty())
+                .map(file -> CompletableFuture.supplyAsync(
+                        () -> storeFile(file, file.getOriginalFilename(), file.getSize()), photoIoExecutor))
+                .toList();
+        List<StoredUpload> uploads;
+        try {
+            uploads = writes.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return savePhotoEntities(uploads);
+    }
+
+    /**
+     * Inserts photo entities for files already written to the photo storage, in JDBC batches,
+     * and queues thumbnail generation once per new stored file. Should be called inside a transaction.
+     *
+     * @param uploads Files returned by storeFile.
+     * @return PhotoDto objects representing the new photo entities, in the order of the uploads.
+     */
+    public List<PhotoDto> savePhotoEntities(List<StoredUpload> uploads) {
+        return savePhotoEntities(uploads, null);
+    }
+
+    /**
+     * Inserts photo entities for files already written to the photo storage, already linked to an album,
+     * and queues thumbnail generation once per new stored file. Should be called inside a transaction.
+     *
+     * @param uploads Files returned by storeFile.
+     * @param album   Album the photos belong to, usually a reference that is never loaded; null for none.
+     * @return PhotoDto objects representing the new photo entities, in the order of the uploads.
+     */
+    public List<PhotoDto> savePhotoEntities(List<StoredUpload> uploads, AlbumEntity album) {
+        Set<String> fileNames = uploads.stream().map(upload -> upload.file().fileName()).collect(Collectors.toSet());
+        Set<String> withThumbnails = fileNames.isEmpty()
+                ? Set.of() : photoRepository.findFileNamesWithThumbnails(fileNames);
+        List<PhotoEntity> photoEntities = new ArrayList<>(uploads.size());
+        for (StoredUpload upload : uploads) {
+            StoredFile storedFile = upload.file();
+            PhotoEntity photoEntity = new PhotoEntity();
+            photoEntity.setFileName(storedFile.fileName());
+            photoEntity.setOriginalFileName(upload.originalFileName());
+            photoEntity.setContentHash(storedFile.contentHash());
+            photoEntity.setCrc32(storedFile.crc32());
+            photoEntity.setThumbnailsReady(withThumbnails.contains(storedFile.fileName()));
+            photoEntity.setMetadata(upload.metadata());
+            photoEntity.setAlbum(album);
+            photoEntities.add(photoEntity);
+        }
+        photoRepository.saveAll(photoEntities);
+
+        // Thumbnails are generated once per stored file, not once per photo entity
+        Set<String> queued = new HashSet<>();
+        for (PhotoEntity photoEntity : photoEntities) {
+            if (!photoEntity.isThumbnailsReady() && queued.add(photoEntity.getFileName())) {
+                thumbnailService.generateThumbnails(photoEntity.getId(), photoEntity.getFileName());
+            }
+        }
+        return photoMapper.toDtos(photoEntities);
     }
 
     /**
-     * Saves the uploaded file on the server.
+     * Stores a file under the SHA-256 hash of its content and records the write time and size.
+     * The image header is captured while the content streams into the storage and parsed afterwards,
+     * so the file is read only once and never decoded.
+     * A pending deletion of a deleted photo with the same content is postponed, and should the reaper have deleted
+     * the file in the meantime, the content is stored once more.
      *
-     * @param file MultipartFile containing the uploaded file.
-     * @param path Path where the file should be saved on the server.
-     * @throws IOException if an I/O error occurs.
+     * @param content          Source of the file content; the stream it opens is read once and closed, and opened
+     *                         again only if the stored file was deleted concurrently.
+     * @param originalFileName Name of the file as uploaded, used for its extension.
+     * @param size             Size of the file in bytes, or -1 if it is not known in advance.
+     * @return The stored file and the metadata read from its header.
+     * @throws RuntimeException if an I/O error occurs.
+     */
+    public StoredUpload storeFile(InputStreamSource content, String originalFileName, long size) {
+        StoredUpload upload = fileWriteTimer.record(() -> {
+            int headerSize = (int) (size < 0 ? ImageHeaderParser.HEADER_SIZE : Math.min(ImageHeaderParser.HEADER_SIZE, size));
+            try (HeaderCapturingInputStream in = new HeaderCapturingInputStream(content.getInputStream(), headerSize)) {
+                StoredFile storedFile = photoStorage.store(in, extensionOf(originalFileName));
+                ImageMetadata metadata = ImageHeaderParser.parse(in.getHeader(), in.getCapturedLength(),
+                        storedFile.size());
+                return new StoredUpload(originalFileName, storedFile, metadata);
+            } catch (IOException e) {
+                throw new RuntimeException("Saving file error " + originalFileName, e);
+            }
+        });
+        keepStored(upload, content);
+        bytesWritten.increment(upload.file().size());
+        return upload;
+    }
+
+    /**
+     * Makes sure the reaper does not delete a file that was just stored. The storage skips writing content it
+     * already holds, so the file may be one of a deleted photo whose deletion is pending or even under way.
      */
-    static void savePhotoFile(MultipartFile file, String path) {
+    private void keepStored(StoredUpload upload, InputStreamSource content) {
+        String fileName = upload.file().fileName();
+        photoFileReaper.postpone(fileName);
         try {
-            Path filePath = Paths.get(path, file.getOriginalFilename());
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+            if (photoStorage.stat(fileName) != null) {
+                return;
+            }
+            // The reaper deleted the file between the store and the postponing
+            try (InputStream in = content.getInputStream()) {
+                StoredFile storedFile = photoStorage.store(in, extensionOf(upload.originalFileName()));
+                if (!storedFile.fileName().equals(fileName)) {
+                    throw new IllegalStateException("The content of " + upload.originalFileName()
+                            + " could not be read again after its stored file was deleted");
+                }
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Saving file error " + file.getOriginalFilename(), e);
+            throw new RuntimeException("Saving file error " + upload.originalFileName(), e);
         }
     }
 
-    /** Deletes a file at the specified path if it exists.
-            * @param path Path of the file to be deleted.
-            */
-     public void deletePhotoFile(String path) {
-        // Deletes a file at the specified path if it exists
+    /**
+     * Returns the lower-cased extension of the file name including the dot, or an empty string if it has none.
+     */
+    static String extensionOf(String fileName) {
+        if (fileName == null) {
+            return "";
+        }
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return extension.matches("[a-z0-9]{1,10}") ? "." + extension : "";
+    }
+
+    /**
+     * Deletes a stored photo file if it exists.
+     * @param fileName Name of the stored file to be deleted.
+     */
+    public void deletePhotoFile(String fileName) {
         try {
-            Path filePath = Paths.get(path);
-            Files.deleteIfExists(filePath);
+            photoStorage.delete(fileName);
         } catch (IOException e) {
             throw new RuntimeException("Error deleting file ", e);
         }
     }
 
+    /**
+     * A file written to the photo storage, with the name it was uploaded under and the metadata read from its header.
+     */
+    public record StoredUpload(String originalFileName, StoredFile file, ImageMetadata metadata) {
+    }
 }
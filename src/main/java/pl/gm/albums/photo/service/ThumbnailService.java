@@ -0,0 +1,288 @@
+package pl.gm.albums.photo.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.gm.albums.AlbumsApplication;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.PhotoStorage;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates downscaled variants of uploaded photos in the background.
+ * Jobs run on a bounded pool sized to the available cores, so uploads never wait for image decoding or resizing.
+ * When the queue is full, new jobs are dropped rather than holding up the threads that commit the photos; a periodic
+ * sweep, which also runs shortly after startup, queues the photos still without thumbnails again.
+ */
+@Slf4j
+@Service
+public class ThumbnailService {
+
+    private final PhotoRepository photoRepository;
+    private final PhotoStorage photoStorage;
+    private final CacheManager cacheManager;
+    private final int[] sizes;
+    private final ThreadPoolExecutor executor;
+    /** One permit per job that may be queued or running at once */
+    private final Semaphore slots;
+    /** Files with a job queued or running, which the sweep leaves alone */
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService sweeper;
+    /** ID of the last photo the sweep has looked at; accessed by the sweeper thread only */
+    private long sweptUpTo;
+
+    public ThumbnailService(PhotoRepository photoRepository, PhotoStorage photoStorage, CacheManager cacheManager,
+                            @Value("${photos.thumbnails.sizes:128,512,1600}") int[] sizes,
+                            @Value("${photos.thumbnails.queue-capacity:1000}") int queueCapacity,
+                            @Value("${photos.thumbnails.sweep-delay-ms:10000}") long sweepDelayMs,
+                            @Value("${photos.thumbnails.sweep-interval-ms:60000}") long sweepIntervalMs) {
+        this.photoRepository = photoRepository;
+        this.photoStorage = photoStorage;
+        this.cacheManager = cacheManager;
+        // Largest first, so every smaller variant is scaled from the previous one instead of the original
+        this.sizes = Arrays.stream(sizes).boxed().sorted((a, b) -> b - a).mapToInt(Integer::intValue).toArray();
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.slots = new Semaphore(threads + queueCapacity);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepDelayMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues generation of all thumbnail variants of a photo, or drops it if the queue is full, leaving the photo to
+     * the next sweep. If called inside a transaction, the job is queued only after the transaction commits.
+     *
+     * @param photoId  ID of the photo entity to be marked once the thumbnails exist.
+     * @param fileName Name of the stored original photo file; other photo entities sharing it are marked too.
+     */
+    public void generateThumbnails(Long photoId, String fileName) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(photoId, fileName);
+                }
+            });
+        } else {
+            submit(photoId, fileName);
+        }
+    }
+
+    private void submit(Long photoId, String fileName) {
+        if (!slots.tryAcquire()) {
+            log.warn("Thumbnail queue is full, thumbnails for {} are left to the sweep", fileName);
+            return;
+        }
+        queued.add(fileName);
+        try {
+            executor.execute(() -> {
+                try {
+                    createThumbnails(photoId, fileName);
+                } finally {
+                    queued.remove(fileName);
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(fileName);
+            slots.release();
+            log.warn("Thumbnail service is shut down, no thumbnails for {}", fileName);
+        }
+    }
+
+    /**
+     * Queues the photos without thumbnails whose file has no job queued or running, such as those dropped while the
+     * queue was full or left behind by a restart. Takes up to half of the free places, so uploads still find room,
+     * and continues after the last photo looked at, wrapping around at the end, so that files which keep failing do
+     * not hold back the others.
+     */
+    void sweep() {
+        try {
+            int places = slots.availablePermits() / 2;
+            if (places == 0) {
+                return;
+            }
+            List<PhotoFileDto> files = photoRepository.findFilesWithoutThumbnails(sweptUpTo, PageRequest.of(0, places));
+            sweptUpTo = files.size() < places ? 0 : files.get(files.size() - 1).getId();
+            Set<String> fileNames = new HashSet<>();
+            for (PhotoFileDto file : files) {
+                if (fileNames.add(file.getFileName()) && !queued.contains(file.getFileName())) {
+                    submit(file.getId(), file.getFileName());
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Thumbnail sweep failed", e);
+        }
+    }
+
+    /**
+     * Deletes every thumbnail variant of a photo file.
+     *
+     * @param fileName Name of the stored original photo file.
+     */
+    public void deleteThumbnails(String fileName) {
+        for (String thumbnailFileName : thumbnailFileNames(fileName)) {
+            try {
+                photoStorage.delete(thumbnailFileName);
+            } catch (IOException e) {
+                throw new RuntimeException("Error deleting file ", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the file names of every thumbnail variant of a photo file, whether or not they exist.
+     *
+     * @param fileName Name of the stored original photo file.
+     */
+    public List<String> thumbnailFileNames(String fileName) {
+        return Arrays.stream(sizes).mapToObj(size -> PhotoDto.thumbnailFileName(fileName, size)).toList();
+    }
+
+    /**
+     * Returns the number of jobs waiting for a worker.
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of jobs that can still be queued before new ones are dropped.
+     */
+    public int getRemainingCapacity() {
+        return slots.availablePermits();
+    }
+
+    void createThumbnails(Long photoId, String fileName) {
+        try {
+            BufferedImage image;
+            try (InputStream in = photoStorage.open(fileName)) {
+                image = ImageIO.read(in);
+            }
+            if (image == null) {
+                log.warn("Unsupported image format, no thumbnails for {}", fileName);
+                return;
+            }
+            String format = formatOf(fileName);
+            if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+                log.warn("No image writer for {}, no thumbnails for {}", format, fileName);
+                return;
+            }
+            for (int size : sizes) {
+                image = scale(image, size, format);
+                writeImage(image, format, PhotoDto.thumbnailFileName(fileName, size));
+            }
+            photoRepository.markThumbnailsReady(photoId, fileName);
+            evictCached(photoRepository.findIdsSharingFile(photoId, fileName));
+        } catch (IOException | RuntimeException e) {
+            log.error("Thumbnail generation failed for {}", fileName, e);
+        }
+    }
+
+    /**
+     * Drops the cached photos that were just flagged and the cached albums showing them, after the flag has been
+     * committed. Pages of album summaries show main photos only, so they are dropped only if one of them was flagged.
+     */
+    private void evictCached(List<Long> photoIds) {
+        if (photoIds.isEmpty()) {
+            return;
+        }
+        Set<Long> albumIds = new HashSet<>(photoRepository.findAlbumIdsByPhotoIds(photoIds));
+        Set<Long> mainPhotoAlbumIds = photoRepository.findAlbumIdsByMainPhotoIds(photoIds);
+        albumIds.addAll(mainPhotoAlbumIds);
+        evict(AlbumsApplication.PHOTOS_CACHE, photoIds);
+        evict(AlbumsApplication.ALBUMS_CACHE, albumIds);
+        Cache albumSummaries = cacheManager.getCache(AlbumsApplication.ALBUM_SUMMARIES_CACHE);
+        if (albumSummaries != null && !mainPhotoAlbumIds.isEmpty()) {
+            albumSummaries.clear();
+        }
+    }
+
+    private void evict(String cacheName, Collection<Long> keys) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            keys.forEach(cache::evict);
+        }
+    }
+
+    /**
+     * Scales the image so that its longer edge is at most the given size. Images are never upscaled.
+     */
+    static BufferedImage scale(BufferedImage image, int size, String format) {
+        int longerEdge = Math.max(image.getWidth(), image.getHeight());
+        double ratio = Math.min(1.0, (double) size / longerEdge);
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        // JPEG cannot store an alpha channel
+        int type = format.equals("jpg") || format.equals("jpeg")
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private void writeImage(BufferedImage image, String format, String fileName) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        photoStorage.put(fileName, new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static String formatOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+    }
+}
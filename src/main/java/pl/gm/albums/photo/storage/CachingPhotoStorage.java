@@ -0,0 +1,268 @@
+package pl.gm.albums.photo.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps copies of the files of a slow photo storage, such as a network share or an object store, close at hand.
+ * Files up to a size limit, which includes the thumbnails shown on the album pages, are kept in memory, and larger
+ * ones, the originals, in a directory on the local disk. Both tiers are bounded by their total size in bytes and keep
+ * the files that are read most often and most recently. A file is copied into a tier when it is first opened;
+ * concurrent reads of a file that is not cached yet wait for a single read from the storage.
+ * Writes and deletions go straight to the storage and drop the cached copy.
+ */
+@Slf4j
+public class CachingPhotoStorage implements PhotoStorage {
+
+    private final PhotoStorage storage;
+    private final Path cacheRoot;
+    private final long memoryMaxFileBytes;
+    private final Cache<String, CachedFile> memory;
+    private final Cache<String, CachedFile> disk;
+    private final Map<String, CompletableFuture<CachedFile>> loads = new ConcurrentHashMap<>();
+    private final Counter memoryHits;
+    private final Counter diskHits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    /**
+     * @param storage            The slow storage holding the files.
+     * @param cacheRoot          Directory of the disk tier; anything in it is deleted at startup.
+     * @param memoryBytes        Total size of the files kept in memory.
+     * @param memoryMaxFileBytes Largest file kept in memory; larger files go to the disk tier.
+     * @param diskBytes          Total size of the files kept on the local disk.
+     */
+    public CachingPhotoStorage(PhotoStorage storage, Path cacheRoot, long memoryBytes, long memoryMaxFileBytes,
+                               long diskBytes, MeterRegistry meterRegistry) {
+        this.storage = storage;
+        this.cacheRoot = cacheRoot;
+        this.memoryMaxFileBytes = memoryMaxFileBytes;
+        try {
+            FileSystemUtils.deleteRecursively(cacheRoot);
+            Files.createDirectories(cacheRoot);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the photo cache directory " + cacheRoot, e);
+        }
+        // Removals run on the calling thread, so a replaced or evicted file is gone from the disk once the call returns
+        this.memory = Caffeine.newBuilder()
+                .maximumWeight(memoryBytes)
+                .weigher((String fileName, CachedFile file) -> file.weight())
+                .executor(Runnable::run)
+                .build();
+        this.disk = Caffeine.newBuilder()
+                .maximumWeight(diskBytes)
+                .weigher((String fileName, CachedFile file) -> file.weight())
+                .executor(Runnable::run)
+                .<String, CachedFile>removalListener((fileName, file, cause) -> deleteCopy(file))
+                .build();
+        this.memoryHits = readCounter(meterRegistry, "memory");
+        this.diskHits = readCounter(meterRegistry, "disk");
+        this.misses = readCounter(meterRegistry, "miss");
+        this.coalesced = readCounter(meterRegistry, "coalesced");
+        Gauge.builder("photos.storage.cache.size", memory, cache -> weightedSize(cache))
+                .description("Bytes of photo files cached in front of the photo storage")
+                .tag("tier", "memory")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("photos.storage.cache.size", disk, cache -> weightedSize(cache))
+                .description("Bytes of photo files cached in front of the photo storage")
+                .tag("tier", "disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private static Counter readCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("photos.storage.cache.reads")
+                .description("Photo files opened through the photo storage cache, by where they were read from")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static long weightedSize(Cache<String, CachedFile> cache) {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    @Override
+    public StoredFile store(InputStream content, String extension) throws IOException {
+        // Content-addressed, so a cached copy of the same name already has the same content
+        return storage.store(content, extension);
+    }
+
+    @Override
+    public void put(String fileName, InputStream content) throws IOException {
+        storage.put(fileName, content);
+        evictCached(fileName);
+    }
+
+    @Override
+    public void moveIn(String fileName, Path source) throws IOException {
+        storage.moveIn(fileName, source);
+        evictCached(fileName);
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        CachedFile file = memory.getIfPresent(fileName);
+        if (file != null) {
+            memoryHits.increment();
+        } else if ((file = disk.getIfPresent(fileName)) != null) {
+            diskHits.increment();
+        } else {
+            file = load(fileName);
+        }
+        if (file.content() != null) {
+            return new ByteArrayInputStream(file.content());
+        }
+        try {
+            return Files.newInputStream(file.copy());
+        } catch (NoSuchFileException e) {
+            // Evicted between the lookup and the opening
+            return storage.open(fileName);
+        }
+    }
+
+    @Override
+    public FileInfo stat(String fileName) throws IOException {
+        CachedFile file = cached(fileName);
+        return file != null ? file.info() : storage.stat(fileName);
+    }
+
+    /**
+     * Always null, so that readers go through {@link #open} and the cache: the path of the slow storage would bypass
+     * it, and a copy in the disk tier may be evicted and deleted while it is still being sent.
+     */
+    @Override
+    public Path localPath(String fileName) {
+        return null;
+    }
+
+    @Override
+    public boolean delete(String fileName) throws IOException {
+        boolean deleted = storage.delete(fileName);
+        evictCached(fileName);
+        return deleted;
+    }
+
+    /**
+     * Drops the cached copy of a file, and makes a read of it that is still running leave no copy behind.
+     */
+    @Override
+    public void evictCached(String fileName) {
+        loads.remove(fileName);
+        memory.invalidate(fileName);
+        disk.invalidate(fileName);
+    }
+
+    private CachedFile cached(String fileName) {
+        CachedFile file = memory.getIfPresent(fileName);
+        return file != null ? file : disk.getIfPresent(fileName);
+    }
+
+    /**
+     * Reads a file from the storage into one of the tiers, or waits for the read another thread has started.
+     */
+    private CachedFile load(String fileName) throws IOException {
+        CompletableFuture<CachedFile> load = new CompletableFuture<>();
+        CompletableFuture<CachedFile> running = loads.putIfAbsent(fileName, load);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            // Another read may have finished between the lookup and now
+            CachedFile file = cached(fileName);
+            if (file != null) {
+                load.complete(file);
+                return file;
+            }
+            misses.increment();
+            file = read(fileName);
+            CachedFile loaded = file;
+            boolean[] kept = new boolean[1];
+            // Skipped if the file was written or deleted while it was read; readers then fall back to the storage
+            loads.computeIfPresent(fileName, (name, current) -> {
+                if (current == load) {
+                    (loaded.content() != null ? memory : disk).put(fileName, loaded);
+                    kept[0] = true;
+                }
+                return current;
+            });
+            if (!kept[0]) {
+                deleteCopy(file);
+            }
+            load.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(fileName, load);
+        }
+    }
+
+    private CachedFile read(String fileName) throws IOException {
+        FileInfo info = storage.stat(fileName);
+        if (info == null) {
+            throw new NoSuchFileException(fileName);
+        }
+        try (InputStream in = storage.open(fileName)) {
+            if (info.size() <= memoryMaxFileBytes) {
+                return new CachedFile(info, in.readAllBytes(), null);
+            }
+            Path copy = cacheRoot.resolve(UUID.randomUUID().toString());
+            try {
+                Files.copy(in, copy);
+            } catch (IOException e) {
+                Files.deleteIfExists(copy);
+                throw e;
+            }
+            return new CachedFile(info, null, copy);
+        }
+    }
+
+    private static void deleteCopy(CachedFile file) {
+        if (file == null || file.copy() == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file.copy());
+        } catch (IOException e) {
+            log.warn("Could not delete the cached copy {}", file.copy(), e);
+        }
+    }
+
+    /**
+     * A cached file, with its content in memory or in a copy on the local disk.
+     */
+    private record CachedFile(FileInfo info, byte[] content, Path copy) {
+
+        int weight() {
+            return (int) Math.min(Integer.MAX_VALUE, content != null ? content.length : info.size());
+        }
+    }
+}
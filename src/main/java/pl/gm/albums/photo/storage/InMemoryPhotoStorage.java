@@ -0,0 +1,77 @@
+package pl.gm.albums.photo.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps photo files in memory. Meant for tests and benchmarks, where no files should be left on disk.
+ */
+public class InMemoryPhotoStorage implements PhotoStorage {
+
+    private final Map<String, StoredBytes> files = new ConcurrentHashMap<>();
+
+    @Override
+    public StoredFile store(InputStream content, String extension) throws IOException {
+        byte[] bytes = content.readAllBytes();
+        String contentHash;
+        try {
+            contentHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        String fileName = contentHash + extension;
+        files.putIfAbsent(fileName, new StoredBytes(bytes, System.currentTimeMillis()));
+        return new StoredFile(fileName, contentHash, crc.getValue(), bytes.length);
+    }
+
+    @Override
+    public void put(String fileName, InputStream content) throws IOException {
+        files.put(fileName, new StoredBytes(content.readAllBytes(), System.currentTimeMillis()));
+    }
+
+    @Override
+    public void moveIn(String fileName, Path source) throws IOException {
+        put(fileName, new ByteArrayInputStream(Files.readAllBytes(source)));
+        Files.delete(source);
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        StoredBytes file = files.get(fileName);
+        if (file == null) {
+            throw new NoSuchFileException(fileName);
+        }
+        return new ByteArrayInputStream(file.bytes());
+    }
+
+    @Override
+    public FileInfo stat(String fileName) {
+        StoredBytes file = files.get(fileName);
+        return file == null ? null : new FileInfo(file.bytes().length, file.lastModified());
+    }
+
+    @Override
+    public Path localPath(String fileName) {
+        return null;
+    }
+
+    @Override
+    public boolean delete(String fileName) {
+        return files.remove(fileName) != null;
+    }
+
+    private record StoredBytes(byte[] bytes, long lastModified) {
+    }
+}
@@ -0,0 +1,78 @@
+package pl.gm.albums.photo.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Stores photo files and their thumbnails by file name.
+ * Uploaded photos are stored under the SHA-256 hash of their content, so storing the same content twice keeps one file.
+ * File names must not contain path separators.
+ */
+public interface PhotoStorage {
+
+    /**
+     * Stores the content under its SHA-256 hash followed by the given extension,
+     * unless a file with the same content is already stored.
+     *
+     * @param content   Content of the photo file, read to the end but not closed.
+     * @param extension Extension of the stored file including the dot, or an empty string.
+     * @return Name, content hash and size of the stored file.
+     */
+    StoredFile store(InputStream content, String extension) throws IOException;
+
+    /**
+     * Stores the content under the given name, replacing any file with that name.
+     * Readers see either the old or the new content, never a partially written file.
+     */
+    void put(String fileName, InputStream content) throws IOException;
+
+    /**
+     * Moves a file from the local disk into the storage under the given name, replacing any file with that name.
+     */
+    void moveIn(String fileName, Path source) throws IOException;
+
+    /**
+     * Opens the file with the given name for reading.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no such file.
+     */
+    InputStream open(String fileName) throws IOException;
+
+    /**
+     * Returns the size and modification time of the file with the given name, or null if there is no such file.
+     */
+    FileInfo stat(String fileName) throws IOException;
+
+    /**
+     * Returns the location of the file on the local disk, or null if the storage does not keep its files there.
+     * The returned path may point to a file that does not exist.
+     */
+    Path localPath(String fileName);
+
+    /**
+     * Deletes the file with the given name.
+     *
+     * @return Whether the file existed.
+     */
+    boolean delete(String fileName) throws IOException;
+
+    /**
+     * Drops any copy of the file kept in front of the storage, e.g. by CachingPhotoStorage. The stored file is kept.
+     */
+    default void evictCached(String fileName) {
+    }
+
+    /**
+     * Name, SHA-256 content hash, CRC-32 and size of a stored photo file. Both checksums are computed in the one pass
+     * that stores the content, so an album archive can write its entry headers without reading the file again.
+     */
+    record StoredFile(String fileName, String contentHash, long crc32, long size) {
+    }
+
+    /**
+     * Size in bytes and last modification time in epoch milliseconds of a stored file.
+     */
+    record FileInfo(long size, long lastModified) {
+    }
+}
@@ -0,0 +1,82 @@
+package pl.gm.albums.photo.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Moves photo files from the directories they were stored in before the photo storage existed into the storage.
+ * Runs only when the application is started with --migrate-photos and exits once all files are moved:
+ * <pre>java -jar albums.jar --migrate-photos</pre>
+ * A photo is marked as migrated by clearing its path, so an interrupted migration can simply be started again.
+ */
+@Slf4j
+@Component
+public class PhotoStorageMigration implements ApplicationRunner {
+
+    static final String OPTION = "migrate-photos";
+
+    private final PhotoRepository photoRepository;
+    private final PhotoStorage photoStorage;
+    private final ApplicationContext context;
+    private final int[] thumbnailSizes;
+
+    public PhotoStorageMigration(PhotoRepository photoRepository, PhotoStorage photoStorage, ApplicationContext context,
+                                 @Value("${photos.thumbnails.sizes:128,512,1600}") int[] thumbnailSizes) {
+        this.photoRepository = photoRepository;
+        this.photoStorage = photoStorage;
+        this.context = context;
+        this.thumbnailSizes = thumbnailSizes;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (!args.containsOption(OPTION)) {
+            return;
+        }
+        int moved = migrate();
+        log.info("Moved {} photo files into the photo storage", moved);
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+
+    /**
+     * Moves the files of every photo that still has a legacy path, together with their thumbnails.
+     *
+     * @return Number of files moved.
+     */
+    int migrate() throws IOException {
+        int moved = 0;
+        for (String path : photoRepository.findLegacyPaths()) {
+            Path directory = Paths.get(path);
+            for (String fileName : photoRepository.findFileNamesByPath(path)) {
+                moved += moveIn(directory, fileName);
+                for (int size : thumbnailSizes) {
+                    moved += moveIn(directory, PhotoDto.thumbnailFileName(fileName, size));
+                }
+            }
+            photoRepository.clearPath(path);
+            log.info("Moved the photo files of {}", directory);
+        }
+        return moved;
+    }
+
+    private int moveIn(Path directory, String fileName) throws IOException {
+        Path source = directory.resolve(fileName);
+        if (!Files.isRegularFile(source)) {
+            return 0;
+        }
+        photoStorage.moveIn(fileName, source);
+        return 1;
+    }
+}
@@ -0,0 +1,124 @@
+package pl.gm.albums.photo.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Keeps photo files on the local disk, spread over two levels of subdirectories named after the first
+ * four characters of the file name, e.g. "ab/cd/abcd1234....jpg". Content-addressed names start with a hash,
+ * so no directory holds more than a small share of the files, and thumbnails land next to their original.
+ * New files are written to a temporary file under the root first and then moved into place atomically.
+ */
+public class ShardedFileSystemPhotoStorage implements PhotoStorage {
+
+    private static final String TEMP_DIRECTORY = ".tmp";
+
+    private final Path root;
+    private final Path tempDirectory;
+
+    public ShardedFileSystemPhotoStorage(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.tempDirectory = this.root.resolve(TEMP_DIRECTORY);
+        try {
+            Files.createDirectories(tempDirectory);
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating photo storage directory ", e);
+        }
+    }
+
+    @Override
+    public StoredFile store(InputStream content, String extension) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        Path temp = Files.createTempFile(tempDirectory, "upload", ".tmp");
+        try {
+            long size;
+            CRC32 crc = new CRC32();
+            try (InputStream in = new CheckedInputStream(new DigestInputStream(content, digest), crc)) {
+                size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            String fileName = contentHash + extension;
+            Path target = localPath(fileName);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // Stored concurrently by another upload of the same content
+                }
+            }
+            return new StoredFile(fileName, contentHash, crc.getValue(), size);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void put(String fileName, InputStream content) throws IOException {
+        Path temp = Files.createTempFile(tempDirectory, "put", ".tmp");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            Path target = localPath(fileName);
+            Files.createDirectories(target.getParent());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void moveIn(String fileName, Path source) throws IOException {
+        Path target = localPath(fileName);
+        Files.createDirectories(target.getParent());
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        return Files.newInputStream(localPath(fileName));
+    }
+
+    @Override
+    public FileInfo stat(String fileName) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(localPath(fileName), BasicFileAttributes.class);
+            return attributes.isRegularFile()
+                    ? new FileInfo(attributes.size(), attributes.lastModifiedTime().toMillis()) : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Path localPath(String fileName) {
+        if (fileName.isEmpty() || fileName.contains("/") || fileName.contains("\\") || fileName.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid photo file name: " + fileName);
+        }
+        if (fileName.length() < 4) {
+            return root.resolve(fileName);
+        }
+        return root.resolve(fileName.substring(0, 2)).resolve(fileName.substring(2, 4)).resolve(fileName);
+    }
+
+    @Override
+    public boolean delete(String fileName) throws IOException {
+        return Files.deleteIfExists(localPath(fileName));
+    }
+}
@@ -0,0 +1,19 @@
+package pl.gm.albums.threads;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Stops the startup when photos.threads.virtual is set on a build without VirtualThreadConfig,
+ * which only the jdk21 profile compiles.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "photos.threads.virtual", havingValue = "true")
+@ConditionalOnMissingClass("pl.gm.albums.threads.VirtualThreadConfig")
+public class VirtualThreadGuard {
+
+    public VirtualThreadGuard() {
+        throw new IllegalStateException("photos.threads.virtual=true needs a build made with the jdk21 profile (./mvnw -Pjdk21 package)");
+    }
+}
@@ -0,0 +1,61 @@
+package pl.gm.albums.threads;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import pl.gm.albums.datasource.ConnectionLimitingDataSource;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs request handling and photo file I/O on virtual threads when photos.threads.virtual is set.
+ * A thread blocked on the disk, the photo storage or the network then no longer holds one of a fixed number of
+ * platform threads, so the number of requests in progress is not bounded by the Tomcat thread pool any more.
+ * The database is bounded separately instead: at most photos.threads.db-concurrency threads hold a connection
+ * at once, and the rest wait for one in arrival order.
+ * <p>
+ * Compiled only by the jdk21 profile, from src/main/java21.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "photos.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+    /**
+     * Handles every request on a new virtual thread instead of the Tomcat worker pool.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadRequestExecutor() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Writes uploaded photo files to the photo storage on a new virtual thread each.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService photoIoExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Puts a ConnectionLimitingDataSource in front of the data source used by JPA and JDBC.
+     */
+    @Bean
+    public static BeanPostProcessor databaseConcurrencyLimit(
+            @Value("${photos.threads.db-concurrency:${spring.datasource.hikari.maximum-pool-size:10}}") int dbConcurrency,
+            @Value("${photos.threads.db-wait-ms:30000}") long dbWaitMs) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if ("dataSource".equals(beanName) && bean instanceof DataSource dataSource) {
+                    return new ConnectionLimitingDataSource(dataSource, dbConcurrency, dbWaitMs);
+                }
+                return bean;
+            }
+        };
+    }
+}
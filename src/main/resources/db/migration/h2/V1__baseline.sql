@@ -0,0 +1,50 @@
+-- Schema as created by Hibernate's hbm2ddl=update before migrations were introduced.
+-- Every statement is conditional, so the script also brings databases of older releases,
+-- which lack some of the photo columns, up to this baseline.
+
+create sequence if not exists photo_seq start with 1 increment by 50;
+
+create table if not exists album (
+    id bigint generated by default as identity,
+    title varchar(255),
+    main_photo_id bigint,
+    primary key (id)
+);
+
+create table if not exists album_photos (
+    album_entity_id bigint not null,
+    photos_id bigint not null
+);
+
+create table if not exists photo (
+    id bigint not null,
+    file_name varchar(255),
+    path varchar(255),
+    album_id bigint,
+    primary key (id)
+);
+
+alter table photo add column if not exists content_hash varchar(64);
+alter table photo add column if not exists original_file_name varchar(255);
+alter table photo add column if not exists thumbnails_ready boolean default false not null;
+alter table photo add column if not exists byte_size bigint;
+alter table photo add column if not exists captured_at timestamp(6);
+alter table photo add column if not exists content_type varchar(255);
+alter table photo add column if not exists height integer;
+alter table photo add column if not exists width integer;
+
+alter table album_photos add constraint if not exists UK_g43le8avq1w0vgxbha9sn10oj unique (photos_id);
+
+create index if not exists idx_photo_content_hash on photo (content_hash);
+create index if not exists idx_photo_captured_at on photo (captured_at);
+create index if not exists idx_photo_dimensions on photo (width, height);
+create index if not exists idx_photo_content_type on photo (content_type);
+
+alter table album add constraint if not exists FKbdndn60u7yk1chmc6axn3ug9q
+    foreign key (main_photo_id) references photo (id);
+alter table album_photos add constraint if not exists FK2r6hlw41f42qf6uoh378o7i2b
+    foreign key (photos_id) references photo (id);
+alter table album_photos add constraint if not exists FKhj8rkh8w0vfba2xhbgl6avx5q
+    foreign key (album_entity_id) references album (id);
+alter table photo add constraint if not exists FKpy64km2p72eoy5rwh31ria0vx
+    foreign key (album_id) references album (id);
@@ -0,0 +1,18 @@
+-- Photos of an album reference it through photo.album_id instead of rows of the album_photos join table.
+-- The main photo stays referenced by album.main_photo_id only. A photo belongs to at most one album,
+-- which the unique constraint on album_photos.photos_id has guaranteed.
+
+update photo p
+set album_id = (select ap.album_entity_id from album_photos ap where ap.photos_id = p.id)
+where p.id in (select ap.photos_id from album_photos ap);
+
+drop table album_photos;
+
+-- The album's photos in ID or capture order are read as one range of these indexes
+create index idx_photo_album on photo (album_id, id);
+create index idx_photo_album_captured_at on photo (album_id, captured_at, id);
+
+-- Recreated under a readable name. H2 only backs a constraint with an index of exactly its columns,
+-- so it keeps a single-column index for it next to the ones above
+alter table photo drop constraint FKpy64km2p72eoy5rwh31ria0vx;
+alter table photo add constraint fk_photo_album foreign key (album_id) references album (id);
@@ -0,0 +1,18 @@
+-- Uploaded photos waiting in the spool directory to be stored and added to an album
+
+create table photo_job (
+    id bigint generated by default as identity,
+    album_id bigint not null,
+    spool_file_name varchar(255) not null,
+    original_file_name varchar(255),
+    byte_size bigint not null,
+    state varchar(16) not null,
+    attempts integer not null,
+    created_at timestamp(6) not null,
+    available_at timestamp(6) not null,
+    last_error varchar(1000),
+    primary key (id)
+);
+
+-- Workers take the ready jobs of the queue, and the status counts the jobs per state, from one range of this index
+create index idx_photo_job_state on photo_job (state, available_at, id);
@@ -0,0 +1,5 @@
+-- Stored files are referenced by name: the same content uploaded with another extension is another file,
+-- so references and thumbnails are looked up by file name instead of content hash
+
+drop index if exists idx_photo_content_hash;
+create index idx_photo_file_name on photo (file_name);
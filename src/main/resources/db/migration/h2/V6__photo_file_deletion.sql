@@ -0,0 +1,15 @@
+-- Stored files of deleted photos waiting to be deleted, written in the transaction that deletes the photos
+
+create table photo_file_deletion (
+    id bigint generated by default as identity,
+    file_name varchar(255) not null,
+    attempts integer not null,
+    created_at timestamp(6) not null,
+    due_at timestamp(6) not null,
+    primary key (id)
+);
+
+-- The reaper takes the due deletions from one range of this index
+create index idx_photo_file_deletion_due on photo_file_deletion (due_at, id);
+-- Uploads postpone the pending deletions of the file they store
+create index idx_photo_file_deletion_file on photo_file_deletion (file_name);
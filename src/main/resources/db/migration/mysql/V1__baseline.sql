@@ -0,0 +1,52 @@
+-- Schema as created by Hibernate's hbm2ddl=update before migrations were introduced.
+-- Existing databases already hold these tables, so the script skips them;
+-- foreign key checks are off while the tables, which reference each other, are created.
+
+set foreign_key_checks = 0;
+
+create table if not exists album (
+    id bigint not null auto_increment,
+    title varchar(255),
+    main_photo_id bigint,
+    primary key (id),
+    constraint FKbdndn60u7yk1chmc6axn3ug9q foreign key (main_photo_id) references photo (id)
+) engine = InnoDB;
+
+create table if not exists album_photos (
+    album_entity_id bigint not null,
+    photos_id bigint not null,
+    constraint UK_g43le8avq1w0vgxbha9sn10oj unique (photos_id),
+    constraint FK2r6hlw41f42qf6uoh378o7i2b foreign key (photos_id) references photo (id),
+    constraint FKhj8rkh8w0vfba2xhbgl6avx5q foreign key (album_entity_id) references album (id)
+) engine = InnoDB;
+
+create table if not exists photo (
+    id bigint not null,
+    content_hash varchar(64),
+    file_name varchar(255),
+    byte_size bigint,
+    captured_at datetime(6),
+    content_type varchar(255),
+    height integer,
+    width integer,
+    original_file_name varchar(255),
+    path varchar(255),
+    thumbnails_ready bit default false not null,
+    album_id bigint,
+    primary key (id),
+    index idx_photo_content_hash (content_hash),
+    index idx_photo_captured_at (captured_at),
+    index idx_photo_dimensions (width, height),
+    index idx_photo_content_type (content_type),
+    constraint FKpy64km2p72eoy5rwh31ria0vx foreign key (album_id) references album (id)
+) engine = InnoDB;
+
+-- MySQL has no sequences; Hibernate emulates photo_seq with a single-row table
+create table if not exists photo_seq (
+    next_val bigint
+) engine = InnoDB;
+
+insert into photo_seq (next_val)
+select 1 from dual where not exists (select * from photo_seq);
+
+set foreign_key_checks = 1;
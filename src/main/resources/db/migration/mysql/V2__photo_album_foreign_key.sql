@@ -0,0 +1,18 @@
+-- Photos of an album reference it through photo.album_id instead of rows of the album_photos join table.
+-- The main photo stays referenced by album.main_photo_id only. A photo belongs to at most one album,
+-- which the unique constraint on album_photos.photos_id has guaranteed.
+
+update photo p
+join album_photos ap on ap.photos_id = p.id
+set p.album_id = ap.album_entity_id;
+
+drop table album_photos;
+
+-- The album's photos in ID or capture order are read as one range of these indexes
+create index idx_photo_album on photo (album_id, id);
+create index idx_photo_album_captured_at on photo (album_id, captured_at, id);
+
+-- Recreated under a readable name; the new index above now backs it instead of the single-column one
+alter table photo drop foreign key FKpy64km2p72eoy5rwh31ria0vx;
+drop index FKpy64km2p72eoy5rwh31ria0vx on photo;
+alter table photo add constraint fk_photo_album foreign key (album_id) references album (id);
@@ -0,0 +1,17 @@
+-- Uploaded photos waiting in the spool directory to be stored and added to an album
+
+create table photo_job (
+    id bigint not null auto_increment,
+    album_id bigint not null,
+    spool_file_name varchar(255) not null,
+    original_file_name varchar(255),
+    byte_size bigint not null,
+    state varchar(16) not null,
+    attempts integer not null,
+    created_at datetime(6) not null,
+    available_at datetime(6) not null,
+    last_error varchar(1000),
+    primary key (id),
+    -- Workers take the ready jobs of the queue, and the status counts the jobs per state, from one range of this index
+    index idx_photo_job_state (state, available_at, id)
+) engine = InnoDB;
@@ -0,0 +1,3 @@
+-- Optimistic locking version of an album, incremented by every change of the album and every photo added to it
+
+alter table album add column version bigint default 0 not null;
@@ -0,0 +1,14 @@
+-- Stored files of deleted photos waiting to be deleted, written in the transaction that deletes the photos
+
+create table photo_file_deletion (
+    id bigint not null auto_increment,
+    file_name varchar(255) not null,
+    attempts integer not null,
+    created_at datetime(6) not null,
+    due_at datetime(6) not null,
+    primary key (id),
+    -- The reaper takes the due deletions from one range of this index
+    index idx_photo_file_deletion_due (due_at, id),
+    -- Uploads postpone the pending deletions of the file they store
+    index idx_photo_file_deletion_file (file_name)
+) engine = InnoDB;
@@ -0,0 +1,4 @@
+-- CRC-32 of the file content, computed at upload next to the SHA-256 hash so album archives read each file once;
+-- null for files stored before
+
+alter table photo add column crc32 bigint;
@@ -0,0 +1,272 @@
+package pl.gm.albums;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.util.FileSystemUtils;
+import pl.gm.albums.metrics.SqlStatementCounter;
+import pl.gm.albums.photo.storage.PhotoStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Guards the number of SQL statements every AlbumController and IndexController endpoint issues per request.
+ * Endpoints that work on one album are called for an album with 1 photo and for one with 500 photos, and must issue
+ * the same statements for both, so an N+1 query fails here instead of in production. The counts must also stay within
+ * the limits below; when a change adds a statement the test fails and lists the statements of the request, and the
+ * limit is raised only on purpose.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:controller-query-count-test",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=pl.gm.albums.ControllerQueryCountTest$StatementRecorder",
+        "photos.storage.type=memory",
+        "photos.import.root=target/query-count-test/import",
+        "photos.jobs.spool-dir=target/query-count-test/spool"})
+@AutoConfigureMockMvc
+class ControllerQueryCountTest {
+
+    private static final Path WORK_DIRECTORY = Paths.get("target/query-count-test");
+    private static final int SMALL = 1;
+    private static final int LARGE = 500;
+    private static final byte[] PHOTO = "photo".getBytes();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PhotoStorage photoStorage;
+
+    /**
+     * Hibernate's statement inspector, which also records the statements of the current thread between start and
+     * stop. It still counts them like SqlStatementCounter, so the statement metrics keep working. Photo ids are taken
+     * from the sequence in blocks, so whether a request fetches the next block depends on the requests before it;
+     * those fetches are left out.
+     */
+    public static class StatementRecorder extends SqlStatementCounter {
+
+        private static final ThreadLocal<List<String>> STATEMENTS = new ThreadLocal<>();
+
+        @Override
+        public String inspect(String sql) {
+            List<String> statements = STATEMENTS.get();
+            if (statements != null && !sql.startsWith("select next value for")) {
+                statements.add(sql);
+            }
+            return super.inspect(sql);
+        }
+
+        static List<String> start() {
+            List<String> statements = new ArrayList<>();
+            STATEMENTS.set(statements);
+            return statements;
+        }
+
+        static void stop() {
+            STATEMENTS.remove();
+        }
+    }
+
+    @BeforeAll
+    static void createImportDirectory() throws IOException {
+        FileSystemUtils.deleteRecursively(WORK_DIRECTORY);
+        Path directory = Files.createDirectories(WORK_DIRECTORY.resolve("import/holidays"));
+        for (int i = 0; i < 3; i++) {
+            Files.write(directory.resolve("IMG_" + i + ".jpg"), PHOTO);
+        }
+    }
+
+    /**
+     * Creates an album with the given number of photos, each with its own file in the photo storage, so per-file
+     * statements show up as growing with the album.
+     */
+    private long newAlbum(int photos) throws IOException {
+        Long albumId = jdbcTemplate.queryForObject(
+                "select id from final table (insert into album (title, version) values ('Album', 0))", Long.class);
+        for (int x = 1; x <= photos; x++) {
+            photoStorage.put("seed-" + albumId + "-" + x + ".jpg", new ByteArrayInputStream(PHOTO));
+        }
+        // Seeded with ids outside the photo sequence, so the sequence is not advanced
+        jdbcTemplate.update("insert into photo (id, file_name, original_file_name, thumbnails_ready, album_id) " +
+                "select 1000000 + ? * 10000 + x, 'seed-' || ? || '-' || x || '.jpg', 'IMG.jpg', false, ? " +
+                "from system_range(1, ?)",
+                albumId, albumId, albumId, photos);
+        return albumId;
+    }
+
+    private List<String> statements(RequestBuilder request, ResultMatcher expectedStatus) throws Exception {
+        List<String> statements = StatementRecorder.start();
+        try {
+            mockMvc.perform(request).andExpect(expectedStatus);
+        } finally {
+            StatementRecorder.stop();
+        }
+        return statements;
+    }
+
+    /**
+     * Sends the request built for an album with few photos and for one with many, and checks that both issue the
+     * same number of statements, at most max.
+     */
+    private void assertStatementsPerAlbum(int max, Function<Long, RequestBuilder> request, ResultMatcher expectedStatus)
+            throws Exception {
+        long small = newAlbum(SMALL);
+        long large = newAlbum(LARGE);
+
+        List<String> smallStatements = statements(request.apply(small), expectedStatus);
+        List<String> largeStatements = statements(request.apply(large), expectedStatus);
+
+        assertEquals(smallStatements.size(), largeStatements.size(), () -> "The statements grow with the album from "
+                + SMALL + " to " + LARGE + " photos:\n" + describe(smallStatements) + "\nto\n" + describe(largeStatements));
+        assertStatements(max, largeStatements);
+    }
+
+    private static void assertStatements(int max, List<String> statements) {
+        assertTrue(statements.size() <= max, () -> statements.size() + " statements, at most " + max + " allowed:\n"
+                + describe(statements));
+    }
+
+    private static String describe(List<String> statements) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < statements.size(); i++) {
+            description.append(i + 1).append(": ").append(statements.get(i)).append('\n');
+        }
+        return description.toString();
+    }
+
+    private static MockMultipartFile image(String name) {
+        return new MockMultipartFile(name, "IMG.jpg", "image/jpeg", PHOTO);
+    }
+
+    private static byte[] zip(int images) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < images; i++) {
+                zip.putNextEntry(new ZipEntry("IMG_" + i + ".jpg"));
+                zip.write(PHOTO);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void indexShouldNotQueryTheDatabase() throws Exception {
+        assertStatements(0, statements(get("/"), status().isOk()));
+    }
+
+    @Test
+    void albumFormShouldNotQueryTheDatabase() throws Exception {
+        assertStatements(0, statements(get("/album/create"), status().isOk()));
+    }
+
+    @Test
+    void saveAlbumShouldInsertThePhotoAndTheAlbum() throws Exception {
+        // Storing the file also postpones a pending deletion of the same content
+        assertStatements(4, statements(multipart("/album/create").file(image("imageFile")).param("title", "New"),
+                status().isOk()));
+    }
+
+    @Test
+    void photoFormShouldNotQueryTheDatabase() throws Exception {
+        assertStatementsPerAlbum(0, albumId -> get("/album/photo-add/" + albumId), status().isOk());
+    }
+
+    @Test
+    void addPhotoShouldIssueAFixedNumberOfStatements() throws Exception {
+        assertStatementsPerAlbum(3, albumId -> multipart("/album/photo-add").file(image("imageFile"))
+                .param("albumId", albumId.toString()), status().is3xxRedirection());
+    }
+
+    @Test
+    void addPhotosShouldIssueOneInsertPerFile() throws Exception {
+        // The queue depth, the album, and one job per file since job ids come from an identity column
+        assertStatementsPerAlbum(2 + 3, albumId -> multipart("/album/photo-add-batch").file(image("imageFiles"))
+                .file(image("imageFiles")).file(image("imageFiles"))
+                .param("albumId", albumId.toString()), status().is3xxRedirection());
+    }
+
+    @Test
+    void importZipShouldIssueAFixedNumberOfStatements() throws Exception {
+        byte[] zip = zip(3);
+        assertStatementsPerAlbum(5, albumId -> post("/album/import/" + albumId)
+                .contentType("application/zip").content(zip), status().isOk());
+    }
+
+    @Test
+    void importDirectoryShouldIssueAFixedNumberOfStatements() throws Exception {
+        assertStatementsPerAlbum(5, albumId -> post("/album/import/" + albumId)
+                .param("directory", "holidays"), status().isOk());
+    }
+
+    @Test
+    void importProgressShouldNotQueryTheDatabase() throws Exception {
+        long albumId = newAlbum(SMALL);
+        statements(post("/album/import/" + albumId).contentType("application/zip").content(zip(1)), status().isOk());
+
+        assertStatements(0, statements(get("/album/import/" + albumId), status().isOk()));
+    }
+
+    @Test
+    void albumPhotosShouldIssueAFixedNumberOfStatements() throws Exception {
+        assertStatementsPerAlbum(2, albumId -> get("/album/photo-all/" + albumId), status().isOk());
+    }
+
+    @Test
+    void albumPhotoSliceShouldIssueAFixedNumberOfStatements() throws Exception {
+        assertStatementsPerAlbum(2, albumId -> get("/album/photo-all/" + albumId + "/photos")
+                .param("cursor", "1000005").param("size", "48"), status().isOk());
+    }
+
+    @Test
+    void downloadAlbumShouldIssueAFixedNumberOfStatements() throws Exception {
+        assertStatementsPerAlbum(3, albumId -> get("/album/" + albumId + "/download"), status().isOk());
+    }
+
+    @Test
+    void listShouldIssueTheSameStatementsForSmallAndLargePages() throws Exception {
+        for (int i = 0; i < 48; i++) {
+            newAlbum(SMALL);
+        }
+
+        List<String> smallPage = statements(get("/album/list").param("size", "1"), status().isOk());
+        List<String> largePage = statements(get("/album/list").param("size", "48"), status().isOk());
+
+        assertEquals(smallPage.size(), largePage.size(), () -> "The statements grow with the page size:\n"
+                + describe(smallPage) + "\nto\n" + describe(largePage));
+        assertStatements(2, largePage);
+    }
+
+    @Test
+    void searchShouldNotQueryTheDatabase() throws Exception {
+        assertStatements(0, statements(get("/album/search").param("q", "album"), status().isOk()));
+    }
+
+    @Test
+    void deleteAlbumShouldIssueAFixedNumberOfStatements() throws Exception {
+        // Including the single insert-select of the pending file deletions
+        assertStatementsPerAlbum(5, albumId -> get("/album/delete/" + albumId), status().is3xxRedirection());
+    }
+}
@@ -0,0 +1,77 @@
+package pl.gm.albums;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseMigrationTest {
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:migration-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Test
+    void shouldMoveJoinTableLinksToPhotoAlbumColumn() {
+        // given
+        flyway("1").migrate();
+        jdbcTemplate.update("insert into photo (id, file_name) values (1, 'main.jpg'), (2, 'a.jpg'), (3, 'b.jpg'), (4, 'c.jpg')");
+        jdbcTemplate.update("insert into album (id, title, main_photo_id) values (10, 'One', 1), (11, 'Two', null)");
+        jdbcTemplate.update("insert into album_photos (album_entity_id, photos_id) values (10, 2), (10, 3), (11, 4)");
+
+        // when
+        flyway(null).migrate();
+
+        // then
+        List<Map<String, Object>> photos = jdbcTemplate.queryForList("select id, album_id from photo order by id");
+        assertEquals(List.of(1L, 2L, 3L, 4L), photos.stream().map(row -> row.get("ID")).toList());
+        assertEquals(java.util.Arrays.asList(null, 10L, 10L, 11L), photos.stream().map(row -> row.get("ALBUM_ID")).toList());
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.tables where table_name = 'ALBUM_PHOTOS'", Integer.class));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.indexes where index_name = 'IDX_PHOTO_ALBUM'", Integer.class));
+    }
+
+    @Test
+    void shouldBringTablesOfOlderReleasesUpToBaseline() {
+        // given
+        jdbcTemplate.execute("create table album (id bigint generated by default as identity primary key, " +
+                "title varchar(255), main_photo_id bigint)");
+        jdbcTemplate.execute("create table album_photos (album_entity_id bigint not null, photos_id bigint not null)");
+        jdbcTemplate.execute("create table photo (id bigint generated by default as identity primary key, " +
+                "file_name varchar(255), path varchar(255), album_id bigint)");
+        jdbcTemplate.update("insert into photo (id, file_name, path) values (1, 'a.jpg', 'uploads')");
+
+        // when
+        flyway(null).migrate();
+
+        // then
+        Map<String, Object> photo = jdbcTemplate.queryForMap("select * from photo where id = 1");
+        assertEquals(false, photo.get("THUMBNAILS_READY"));
+        assertTrue(photo.containsKey("CONTENT_HASH"));
+        assertTrue(photo.containsKey("CAPTURED_AT"));
+    }
+
+    private Flyway flyway(String target) {
+        var configuration = Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration/h2")
+                .baselineOnMigrate(true)
+                .baselineVersion("0");
+        if (target != null) {
+            configuration.target(target);
+        }
+        return configuration.load();
+    }
+}
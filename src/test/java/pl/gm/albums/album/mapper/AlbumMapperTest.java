@@ -0,0 +1,58 @@
+package pl.gm.albums.album.mapper;
+
+import org.junit.jupiter.api.Test;
+import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.mapper.PhotoMapperImpl;
+import pl.gm.albums.photo.model.PhotoEntity;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlbumMapperTest {
+
+    private final AlbumMapper albumMapper = new AlbumMapperImpl(new PhotoMapperImpl());
+
+    @Test
+    void shouldMapAlbumWithFlatPhotos() {
+        // given
+        AlbumEntity album = new AlbumEntity(1L, "Album 1", null, null, 3L);
+        PhotoEntity mainPhoto = new PhotoEntity(2L, "/path/", "main.jpg", "IMG_1.jpg", "main", null, true, album, null);
+        PhotoEntity photo = new PhotoEntity(3L, "/path/", "other.jpg", "IMG_2.jpg", "other", null, false, album, null);
+        album.setMainPhoto(mainPhoto);
+        album.setPhotos(List.of(photo));
+
+        // when
+        AlbumDto albumDto = albumMapper.toDto(album);
+
+        // then
+        assertEquals("Album 1", albumDto.getTitle());
+        assertEquals(3L, albumDto.getVersion());
+        assertEquals(2L, albumDto.getMainPhoto().getId());
+        assertEquals(1L, albumDto.getMainPhoto().getAlbumId());
+        assertEquals(List.of(new PhotoDto(3L, "/path/", "other.jpg", "IMG_2.jpg", "other", null, false, 1L,
+                        null, null, null, null, null)),
+                albumDto.getPhotos());
+    }
+
+    @Test
+    void shouldMapAlbumBackToEntity() {
+        // given
+        AlbumDto albumDto = new AlbumDto(1L, "Album 1", null,
+                List.of(new PhotoDto(3L, "/path/", "other.jpg", "IMG_2.jpg", "other", null, true, 1L,
+                        null, null, null, null, null)), 3L);
+
+        // when
+        AlbumEntity album = albumMapper.toEntity(albumDto);
+
+        // then
+        assertEquals(1L, album.getId());
+        assertEquals(3L, album.getVersion());
+        assertEquals(1, album.getPhotos().size());
+        assertEquals("other.jpg", album.getPhotos().get(0).getFileName());
+        assertTrue(album.getPhotos().get(0).isThumbnailsReady());
+        assertNull(album.getPhotos().get(0).getAlbum());
+    }
+}
@@ -0,0 +1,75 @@
+package pl.gm.albums.album.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.gm.albums.album.dto.AlbumTitleDto;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlbumTitleIndexTest {
+
+    private AlbumTitleIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new AlbumTitleIndex();
+        index.put(1L, "Wakacje w Tatrach");
+        index.put(2L, "Łódź 2023");
+        index.put(3L, "Tatry zimą");
+        index.put(4L, "Wakacje nad morzem");
+    }
+
+    @Test
+    void shouldMatchEveryQueryTokenAsPrefix() {
+        // when
+        List<AlbumTitleDto> results = index.search("wak tat", 10);
+
+        // then
+        assertEquals(List.of(new AlbumTitleDto(1L, "Wakacje w Tatrach")), results);
+    }
+
+    @Test
+    void shouldIgnoreCaseAndDiacritics() {
+        assertEquals(List.of(2L), ids(index.search("LODZ", 10)));
+        assertEquals(List.of(3L), ids(index.search("zima", 10)));
+    }
+
+    @Test
+    void shouldReturnAlbumsInIdOrderUpToLimit() {
+        // when
+        List<AlbumTitleDto> results = index.search("t", 2);
+
+        // then
+        assertEquals(List.of(1L, 3L), ids(results));
+    }
+
+    @Test
+    void shouldReindexRenamedAndRemovedAlbums() {
+        // when
+        index.put(1L, "Góry");
+        index.remove(4L);
+
+        // then
+        assertEquals(List.of(3L), ids(index.search("tat", 10)));
+        assertEquals(List.of(), index.search("wakacje", 10));
+        assertEquals(List.of(1L), ids(index.search("gory", 10)));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void shouldReturnNothingForBlankQuery() {
+        assertEquals(List.of(), index.search(" - ", 10));
+    }
+
+    @Test
+    void shouldTokenizeOnNonAlphanumericCharacters() {
+        assertEquals(Set.of("zolw", "2023", "x"), AlbumTitleIndex.tokenize("Żółw_2023 / x!"));
+    }
+
+    private static List<Long> ids(List<AlbumTitleDto> albums) {
+        return albums.stream().map(AlbumTitleDto::getId).toList();
+    }
+}
@@ -0,0 +1,188 @@
+package pl.gm.albums.album.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.photo.dto.PhotoArchiveEntryDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.InMemoryPhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+import pl.gm.albums.photo.storage.ShardedFileSystemPhotoStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AlbumArchiveServiceTest {
+
+    @Mock
+    private AlbumRepository albumRepository;
+
+    @Mock
+    private PhotoRepository photoRepository;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void prepareShouldArchiveStoredFilesUnderTheirUploadedNames() throws IOException {
+        // given
+        PhotoStorage photoStorage = new ShardedFileSystemPhotoStorage(directory.resolve("photos"));
+        StoredFile main = photoStorage.store(new ByteArrayInputStream("main photo".getBytes()), ".jpg");
+        StoredFile first = photoStorage.store(new ByteArrayInputStream("first photo".getBytes()), ".jpg");
+        StoredFile second = photoStorage.store(new ByteArrayInputStream("second photo".getBytes()), ".jpg");
+        when(albumRepository.findTitleById(1L)).thenReturn(Optional.of("Holidays"));
+        when(photoRepository.findMainPhotoArchiveEntry(1L))
+                .thenReturn(Optional.of(new PhotoArchiveEntryDto(1L, main.fileName(), "cover.jpg", main.crc32())));
+        when(photoRepository.findAlbumPhotoArchiveEntries(1L)).thenReturn(List.of(
+                new PhotoArchiveEntryDto(2L, first.fileName(), "IMG.jpg", first.crc32()),
+                // Stored before the CRC-32 was recorded
+                new PhotoArchiveEntryDto(3L, second.fileName(), "../../img.JPG", null),
+                new PhotoArchiveEntryDto(4L, "missing.jpg", "missing.jpg", null)));
+        AlbumArchiveService albumArchiveService = new AlbumArchiveService(albumRepository, photoRepository, photoStorage);
+
+        // when
+        AlbumArchive archive = albumArchiveService.prepare(1L);
+        Path zip = write(archive);
+
+        // then
+        assertEquals("Holidays", archive.getTitle());
+        assertEquals(3, archive.getFileCount());
+        assertEquals(archive.getLength(), Files.size(zip));
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            List<? extends ZipEntry> entries = Collections.list(zipFile.entries());
+            assertEquals(List.of("cover.jpg", "IMG.jpg", "img (2).JPG"), entries.stream().map(ZipEntry::getName).toList());
+            assertEquals(List.of("main photo", "first photo", "second photo"), entries.stream().map(entry -> {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                try {
+                    return new String(zipFile.getInputStream(entry).readAllBytes());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }).toList());
+            assertEquals(crc("first photo"), entries.get(1).getCrc());
+            assertEquals(crc("second photo"), entries.get(2).getCrc());
+        }
+    }
+
+    @Test
+    void writeToShouldReadEachFileWithARecordedChecksumOnce() throws IOException {
+        // given
+        PhotoStorage photoStorage = spy(new InMemoryPhotoStorage());
+        StoredFile recorded = photoStorage.store(new ByteArrayInputStream("recorded".getBytes()), ".jpg");
+        StoredFile legacy = photoStorage.store(new ByteArrayInputStream("legacy".getBytes()), ".jpg");
+        when(albumRepository.findTitleById(1L)).thenReturn(Optional.of("Holidays"));
+        when(photoRepository.findMainPhotoArchiveEntry(1L)).thenReturn(Optional.empty());
+        when(photoRepository.findAlbumPhotoArchiveEntries(1L)).thenReturn(List.of(
+                new PhotoArchiveEntryDto(1L, recorded.fileName(), "a.jpg", recorded.crc32()),
+                new PhotoArchiveEntryDto(2L, legacy.fileName(), "b.jpg", null)));
+        AlbumArchiveService albumArchiveService = new AlbumArchiveService(albumRepository, photoRepository, photoStorage);
+
+        // when
+        write(albumArchiveService.prepare(1L));
+
+        // then
+        verify(photoStorage, times(1)).open(recorded.fileName());
+        verify(photoStorage, times(2)).open(legacy.fileName());
+    }
+
+    @Test
+    void writeToShouldThrowWhenAFileNoLongerMatchesItsChecksum() throws IOException {
+        // given
+        PhotoStorage photoStorage = new InMemoryPhotoStorage();
+        StoredFile file = photoStorage.store(new ByteArrayInputStream("original".getBytes()), ".jpg");
+        photoStorage.put(file.fileName(), new ByteArrayInputStream("replaced".getBytes()));
+        when(albumRepository.findTitleById(1L)).thenReturn(Optional.of("Holidays"));
+        when(photoRepository.findMainPhotoArchiveEntry(1L)).thenReturn(Optional.empty());
+        when(photoRepository.findAlbumPhotoArchiveEntries(1L)).thenReturn(List.of(
+                new PhotoArchiveEntryDto(1L, file.fileName(), "a.jpg", file.crc32())));
+        AlbumArchive archive = new AlbumArchiveService(albumRepository, photoRepository, photoStorage).prepare(1L);
+
+        // when, then
+        assertThrows(IOException.class, () -> archive.writeTo(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void prepareShouldUseZip64ForMoreThan65534Files() throws IOException {
+        // given
+        PhotoStorage photoStorage = new InMemoryPhotoStorage();
+        StoredFile file = photoStorage.store(new ByteArrayInputStream("x".getBytes()), ".jpg");
+        List<PhotoArchiveEntryDto> photos = new ArrayList<>();
+        for (long id = 1; id <= 70_000; id++) {
+            photos.add(new PhotoArchiveEntryDto(id, file.fileName(), "image.jpg", file.crc32()));
+        }
+        when(albumRepository.findTitleById(1L)).thenReturn(Optional.of("Phone"));
+        when(photoRepository.findMainPhotoArchiveEntry(1L)).thenReturn(Optional.empty());
+        when(photoRepository.findAlbumPhotoArchiveEntries(1L)).thenReturn(photos);
+        AlbumArchiveService albumArchiveService = new AlbumArchiveService(albumRepository, photoRepository, photoStorage);
+
+        // when
+        AlbumArchive archive = albumArchiveService.prepare(1L);
+        Path zip = write(archive);
+
+        // then
+        assertEquals(archive.getLength(), Files.size(zip));
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(70_000, zipFile.size());
+            ZipEntry last = zipFile.getEntry("image (70000).jpg");
+            assertEquals("x", new String(zipFile.getInputStream(last).readAllBytes()));
+        }
+    }
+
+    @Test
+    void prepareShouldThrowForMissingAlbum() {
+        // given
+        when(albumRepository.findTitleById(1L)).thenReturn(Optional.empty());
+        AlbumArchiveService albumArchiveService =
+                new AlbumArchiveService(albumRepository, photoRepository, new InMemoryPhotoStorage());
+
+        // when, then
+        assertThrows(EntityNotFoundException.class, () -> albumArchiveService.prepare(1L));
+        verifyNoInteractions(photoRepository);
+    }
+
+    @Test
+    void uniqueNameShouldNumberRepeatedNamesIgnoringCase() {
+        Map<String, Integer> taken = new HashMap<>();
+        assertEquals("a.jpg", AlbumArchiveService.uniqueName("a.jpg", taken));
+        assertEquals("A (2).jpg", AlbumArchiveService.uniqueName("A.jpg", taken));
+        assertEquals("a (2) (2).jpg", AlbumArchiveService.uniqueName("a (2).jpg", taken));
+        assertEquals("a (3).jpg", AlbumArchiveService.uniqueName("a.jpg", taken));
+        assertEquals("README", AlbumArchiveService.uniqueName("README", taken));
+        assertEquals("README (2)", AlbumArchiveService.uniqueName("README", taken));
+    }
+
+    private Path write(AlbumArchive archive) throws IOException {
+        Path zip = directory.resolve("album.zip");
+        try (OutputStream out = Files.newOutputStream(zip)) {
+            archive.writeTo(out);
+        }
+        return zip;
+    }
+
+    private static long crc(String content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.getBytes());
+        return crc.getValue();
+    }
+}
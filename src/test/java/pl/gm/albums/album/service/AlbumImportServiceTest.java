@@ -0,0 +1,277 @@
+package pl.gm.albums.album.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.gm.albums.album.dto.ImportProgressDto;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.model.ImageMetadata;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AlbumImportServiceTest {
+
+    @Mock
+    private AlbumRepository albumRepository;
+
+    @Mock
+    private AlbumService albumService;
+
+    @Mock
+    private PhotoService photoService;
+
+    @Mock
+    private PhotoFileReaper photoFileReaper;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path importRoot;
+
+    private AlbumImportService albumImportService;
+
+    @BeforeEach
+    void setUp() {
+        albumImportService = service(2, 1024);
+    }
+
+    private AlbumImportService service(int batchSize, int bufferBytes) {
+        return new AlbumImportService(albumRepository, albumService, photoService, photoFileReaper, Runnable::run,
+                transactionTemplate, batchSize, bufferBytes, importRoot.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubImport() throws IOException {
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any(Consumer.class));
+        stubStoreFile();
+        when(photoService.savePhotoEntities(anyList())).thenAnswer(invocation ->
+                invocation.<List<StoredUpload>>getArgument(0).stream().map(upload -> new PhotoDto()).toList());
+    }
+
+    private void stubStoreFile() throws IOException {
+        when(photoService.storeFile(any(), anyString(), anyLong())).thenAnswer(invocation -> {
+            byte[] content = invocation.<InputStreamSource>getArgument(0).getInputStream().readAllBytes();
+            String name = invocation.getArgument(1);
+            return new StoredUpload(name, new StoredFile(name, name, 0, content.length), new ImageMetadata());
+        });
+    }
+
+    @Test
+    void importZipShouldCommitImagesInBatchesAndSkipOtherEntries() throws IOException {
+        // given
+        stubImport();
+        byte[] zip = zip("photos/", null, "photos/a.jpg", "aaa", "photos/b.PNG", "bb", "readme.txt", "x",
+                "__MACOSX/._c.jpg", "x", "c.jpeg", "c");
+
+        // when
+        ImportProgressDto progress = albumImportService.importZip(1L, new ByteArrayInputStream(zip));
+
+        // then
+        assertEquals(ImportProgressDto.State.COMPLETED, progress.getState());
+        assertEquals(6, progress.getFilesRead());
+        assertEquals(3, progress.getFilesSkipped());
+        assertEquals(3, progress.getPhotosImported());
+        assertEquals(6, progress.getBytesImported());
+        ArgumentCaptor<List<StoredUpload>> batches = ArgumentCaptor.forClass(List.class);
+        verify(photoService, times(2)).savePhotoEntities(batches.capture());
+        assertEquals(List.of("a.jpg", "b.PNG"), batches.getAllValues().get(0).stream().map(StoredUpload::originalFileName).toList());
+        assertEquals(List.of("c.jpeg"), batches.getAllValues().get(1).stream().map(StoredUpload::originalFileName).toList());
+        verify(albumService, times(2)).addPhotos(eq(1L), anyList());
+        assertEquals(progress, albumImportService.getProgress(1L));
+    }
+
+    @Test
+    void importZipShouldStoreEntriesLargerThanTheBufferFromTheStream() throws IOException {
+        // given
+        stubImport();
+        albumImportService = service(2, 4);
+        byte[] zip = zip("big.jpg", "0123456789");
+
+        // when
+        ImportProgressDto progress = albumImportService.importZip(1L, new ByteArrayInputStream(zip));
+
+        // then
+        assertEquals(10, progress.getBytesImported());
+        verify(photoService).storeFile(any(), eq("big.jpg"), eq(-1L));
+    }
+
+    @Test
+    void importZipShouldReportFailure() throws IOException {
+        // given
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+
+        // when
+        assertThrows(IOException.class, () -> albumImportService.importZip(1L, broken));
+
+        // then
+        ImportProgressDto progress = albumImportService.getProgress(1L);
+        assertEquals(ImportProgressDto.State.FAILED, progress.getState());
+        assertEquals("Connection reset", progress.getError());
+        assertNotNull(progress.getFinishedAt());
+    }
+
+    @Test
+    void importZipShouldReapTheFilesStoredForTheBatchWhenAnEntryFails() throws IOException {
+        // given
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        stubStoreFile();
+        albumImportService = service(3, 1024);
+        when(photoService.storeFile(any(), eq("b.jpg"), anyLong())).thenThrow(new IllegalStateException("Disk full"));
+        byte[] zip = zip("a.jpg", "aaa", "b.jpg", "bb", "c.jpg", "c");
+
+        // when
+        assertThrows(IllegalStateException.class, () -> albumImportService.importZip(1L, new ByteArrayInputStream(zip)));
+
+        // then
+        verify(photoFileReaper).reap(List.of(new PhotoFileDto(null, "a.jpg", "a.jpg"),
+                new PhotoFileDto(null, "c.jpg", "c.jpg")));
+        verify(transactionTemplate, never()).executeWithoutResult(any());
+        assertEquals(ImportProgressDto.State.FAILED, albumImportService.getProgress(1L).getState());
+    }
+
+    @Test
+    void importZipShouldReapTheFilesOfARolledBackBatchAndOfTheUncommittedOne() throws IOException {
+        // given
+        stubImport();
+        doNothing().doThrow(new IllegalStateException("Deadlock")).when(albumService).addPhotos(eq(1L), anyList());
+        byte[] zip = zip("a.jpg", "aaa", "b.jpg", "bb", "c.jpg", "c", "d.jpg", "d");
+
+        // when
+        assertThrows(IllegalStateException.class, () -> albumImportService.importZip(1L, new ByteArrayInputStream(zip)));
+
+        // then
+        verify(photoFileReaper).reap(List.of(new PhotoFileDto(null, "c.jpg", "c.jpg"),
+                new PhotoFileDto(null, "d.jpg", "d.jpg")));
+        verifyNoMoreInteractions(photoFileReaper);
+        assertEquals(2, albumImportService.getProgress(1L).getPhotosImported());
+    }
+
+    @Test
+    void importZipShouldReapTheFilesStoredForTheBatchWhenTheClientAborts() throws IOException {
+        // given
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        stubStoreFile();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append(UUID.randomUUID());
+        }
+        byte[] zip = zip("a.jpg", "aaa", "b.jpg", large.toString());
+        // Cut off in the middle of the second entry
+        InputStream aborted = new FilterInputStream(new ByteArrayInputStream(zip, 0, zip.length - 1000)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read < 0) {
+                    throw new IOException("Connection reset");
+                }
+                return read;
+            }
+        };
+
+        // when
+        assertThrows(IOException.class, () -> albumImportService.importZip(1L, aborted));
+
+        // then
+        verify(photoFileReaper).reap(List.of(new PhotoFileDto(null, "a.jpg", "a.jpg")));
+        verify(transactionTemplate, never()).executeWithoutResult(any());
+    }
+
+    @Test
+    void importZipShouldBufferEntriesInChunksWithinTheBudget() throws IOException {
+        // given
+        stubImport();
+        albumImportService = service(10, 200 * 1024);
+        String large = "x".repeat(150 * 1024);
+        byte[] zip = zip("a.jpg", large, "b.jpg", "b");
+
+        // when
+        ImportProgressDto progress = albumImportService.importZip(1L, new ByteArrayInputStream(zip));
+
+        // then
+        assertEquals(large.length() + 1, progress.getBytesImported());
+        verify(photoService).storeFile(any(), eq("a.jpg"), eq((long) large.length()));
+        verify(photoService).storeFile(any(), eq("b.jpg"), eq(1L));
+    }
+
+    @Test
+    void importDirectoryShouldImportImagesOfSubdirectories() throws IOException {
+        // given
+        stubImport();
+        Path holidays = Files.createDirectories(importRoot.resolve("holidays/day-2"));
+        Files.writeString(importRoot.resolve("holidays/a.jpg"), "aaa");
+        Files.writeString(importRoot.resolve("holidays/notes.txt"), "x");
+        Files.writeString(holidays.resolve("b.png"), "bb");
+        Files.writeString(holidays.resolve("c.gif"), "c");
+
+        // when
+        ImportProgressDto progress = albumImportService.importDirectory(1L, "holidays");
+
+        // then
+        assertEquals(ImportProgressDto.State.COMPLETED, progress.getState());
+        assertEquals(4, progress.getFilesRead());
+        assertEquals(1, progress.getFilesSkipped());
+        assertEquals(3, progress.getPhotosImported());
+        assertEquals(6, progress.getBytesImported());
+        verify(albumService, times(2)).addPhotos(eq(1L), anyList());
+    }
+
+    @Test
+    void importDirectoryShouldRejectPathsOutsideTheRoot() {
+        assertThrows(IllegalArgumentException.class, () -> albumImportService.importDirectory(1L, "../"));
+        verifyNoInteractions(albumRepository, photoService);
+    }
+
+    private static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                if (namesAndContents[i + 1] != null) {
+                    zip.write(namesAndContents[i + 1].getBytes());
+                }
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+package pl.gm.albums.album.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.metrics.SqlStatementCounter;
+import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:album-add-photo-test", "photos.storage.type=memory"})
+public class AlbumServiceAddPhotoTest {
+
+    @Autowired
+    private AlbumService albumService;
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private AlbumRepository albumRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private StoredUpload upload;
+
+    @BeforeEach
+    void setUp() {
+        upload = photoService.storeFile(new ByteArrayResource("photo".getBytes()), "a.jpg", 5);
+    }
+
+    private long newAlbum(int photos) {
+        long albumId = albumRepository.save(new AlbumEntity(null, "Album", null, new ArrayList<>(), null)).getId();
+        // Seeded with ids outside the photo sequence, so the sequence is not advanced
+        jdbcTemplate.update("insert into photo (id, file_name, thumbnails_ready, album_id) " +
+                "select 1000000 + ? * 10000 + x, 'seed.jpg', false, ? from system_range(1, ?)", albumId, albumId, photos);
+        return albumId;
+    }
+
+    private long countPhotos(long albumId) {
+        return jdbcTemplate.queryForObject("select count(*) from photo where album_id = ?", Long.class, albumId);
+    }
+
+    @Test
+    void addPhotoShouldIssueTheSameStatementsForSmallAndLargeAlbums() {
+        // given
+        long small = newAlbum(0);
+        long large = newAlbum(2000);
+        albumService.addPhoto(small, upload);
+
+        // when
+        SqlStatementCounter.reset();
+        albumService.addPhoto(small, upload);
+        long smallStatements = SqlStatementCounter.getCount();
+        SqlStatementCounter.reset();
+        albumService.addPhoto(large, upload);
+        long largeStatements = SqlStatementCounter.getCount();
+
+        // then
+        assertEquals(smallStatements, largeStatements);
+        assertTrue(largeStatements <= 3, "statements: " + largeStatements);
+        assertEquals(2001, countPhotos(large));
+    }
+
+    @Test
+    void addPhotoShouldKeepEveryPhotoOfConcurrentUploads() throws Exception {
+        // given
+        long albumId = newAlbum(0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        try {
+            List<CompletableFuture<Void>> uploads = new ArrayList<>();
+            for (int i = 0; i < 80; i++) {
+                uploads.add(CompletableFuture.runAsync(() -> albumService.addPhoto(albumId, upload), executor));
+            }
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        // then
+        assertEquals(80, countPhotos(albumId));
+        assertEquals(80L, albumRepository.findById(albumId).orElseThrow().getVersion());
+    }
+
+    @Test
+    void updateShouldRejectAnAlbumReadBeforeAPhotoWasAdded() {
+        // given
+        long albumId = newAlbum(0);
+        AlbumDto stale = albumService.getById(albumId);
+        albumService.addPhoto(albumId, upload);
+
+        // when
+        stale.setTitle("Renamed");
+
+        // then
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> albumService.update(stale));
+        assertEquals("Album", albumService.getById(albumId).getTitle());
+        assertEquals(1, albumService.getById(albumId).getPhotos().size());
+    }
+}
@@ -0,0 +1,56 @@
+package pl.gm.albums.album.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pl.gm.albums.AlbumsApplication;
+import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.repository.AlbumRepository;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:album-cache-test")
+public class AlbumServiceCacheTest {
+
+    @Autowired
+    private AlbumService albumService;
+
+    @Autowired
+    private AlbumRepository albumRepository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testGetByIdIsCachedUntilUpdate() {
+        // given
+        AlbumEntity album = albumRepository.save(new AlbumEntity(null, "Album 1", null, new ArrayList<>(), null));
+        Cache albums = cacheManager.getCache(AlbumsApplication.ALBUMS_CACHE);
+
+        // when
+        AlbumDto first = albumService.getById(album.getId());
+        jdbcTemplate.update("update album set title = ? where id = ?", "Changed behind the cache", album.getId());
+        AlbumDto second = albumService.getById(album.getId());
+
+        // then
+        assertNotNull(albums.get(album.getId()));
+        assertEquals("Album 1", second.getTitle());
+
+        // when
+        first.setTitle("Album 2");
+        albumService.update(first);
+
+        // then
+        assertNull(albums.get(album.getId()));
+        assertEquals("Album 2", albumService.getById(album.getId()).getTitle());
+    }
+}
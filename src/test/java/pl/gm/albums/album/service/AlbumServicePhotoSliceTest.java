@@ -0,0 +1,129 @@
+package pl.gm.albums.album.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import pl.gm.albums.album.mapper.AlbumMapper;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoSliceDto;
+import pl.gm.albums.photo.mapper.PhotoMapperImpl;
+import pl.gm.albums.photo.model.ImageMetadata;
+import pl.gm.albums.photo.model.PhotoEntity;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.PhotoService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Pages through the photos of an album against the database, so the keyset queries are checked together with
+ * the cursors the service builds from their results.
+ */
+@DataJpaTest(properties = "photos.storage.type=memory")
+@Import(AlbumServicePhotoSliceTest.Metrics.class)
+class AlbumServicePhotoSliceTest {
+
+    /**
+     * The application's own beans are loaded with the JPA slice, and some of them record metrics. Imported rather
+     * than annotated as a configuration, which the benchmarks would pick up when they start the application from
+     * the test classpath.
+     */
+    static class Metrics {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    private static final LocalDateTime NOON = LocalDateTime.of(2022, 6, 1, 12, 0);
+
+    @Autowired
+    private AlbumRepository albumRepository;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    private AlbumService albumService;
+
+    private AlbumEntity album;
+
+    private final List<PhotoEntity> photos = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        albumService = new AlbumService(albumRepository, photoRepository, mock(PhotoService.class),
+                mock(PhotoFileReaper.class), mock(AlbumSearchService.class), mock(AlbumMapper.class),
+                new PhotoMapperImpl(), mock(CacheManager.class));
+        album = albumRepository.save(new AlbumEntity(null, "Album", null, new ArrayList<>(), null));
+        // Runs of equal and missing capture dates, interleaved in ID order, around every slice boundary
+        LocalDateTime[] capturedAt = {NOON, null, NOON, NOON.minusDays(1), null, NOON, NOON, null, NOON.plusDays(1),
+                NOON, null, NOON.minusDays(1), null, NOON};
+        for (LocalDateTime date : capturedAt) {
+            photos.add(photoRepository.save(new PhotoEntity(null, null, "photo.jpg", "photo.jpg", null, null, false, album,
+                    new ImageMetadata(null, null, null, null, date))));
+        }
+        // A photo of another album in the middle of the ranges
+        AlbumEntity other = albumRepository.save(new AlbumEntity(null, "Other", null, new ArrayList<>(), null));
+        photoRepository.save(new PhotoEntity(null, null, "other.jpg", "other.jpg", null, null, false, other,
+                new ImageMetadata(null, null, null, null, NOON)));
+    }
+
+    private List<Long> pageThrough(String sort, int size) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            PhotoSliceDto slice = albumService.getPhotoSlice(album.getId(), cursor, size, sort);
+            assertTrue(slice.getPhotos().size() <= size);
+            slice.getPhotos().stream().map(PhotoDto::getId).forEach(ids::add);
+            cursor = slice.getNextCursor();
+        } while (cursor != null);
+        return ids;
+    }
+
+    @Test
+    void slicesByCaptureDateShouldReturnEveryPhotoOnceWithUndatedPhotosLast() {
+        // given
+        List<Long> expected = photos.stream()
+                .sorted(Comparator.comparing((PhotoEntity photo) -> photo.getMetadata().getCapturedAt(),
+                        Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(PhotoEntity::getId))
+                .map(PhotoEntity::getId)
+                .toList();
+
+        for (int size = 1; size <= photos.size() + 1; size++) {
+            // when
+            List<Long> ids = pageThrough("capturedAt", size);
+
+            // then
+            assertEquals(expected, ids, "slice size " + size);
+        }
+    }
+
+    @Test
+    void slicesByIdShouldReturnEveryPhotoOnceInIdOrder() {
+        // given
+        List<Long> expected = photos.stream().map(PhotoEntity::getId).sorted().toList();
+
+        for (int size = 1; size <= photos.size() + 1; size++) {
+            // when
+            List<Long> ids = pageThrough("id", size);
+
+            // then
+            assertEquals(expected, ids, "slice size " + size);
+        }
+    }
+}
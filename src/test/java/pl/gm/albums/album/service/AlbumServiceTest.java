@@ -3,17 +3,33 @@ package pl.gm.albums.album.service;
 import jakarta.persistence.EntityNotFoundException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.TypeToken;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import pl.gm.albums.album.dto.AlbumDto;
+import pl.gm.albums.album.dto.AlbumSummaryDto;
+import pl.gm.albums.album.mapper.AlbumMapper;
 import pl.gm.albums.album.model.AlbumEntity;
 import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.dto.PhotoSliceDto;
+import pl.gm.albums.photo.mapper.PhotoMapper;
+import pl.gm.albums.photo.model.ImageMetadata;
+import pl.gm.albums.photo.model.PhotoEntity;
 import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.service.PhotoFileReaper;
 import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -35,7 +51,19 @@ public class AlbumServiceTest {
     private PhotoService photoService;
 
     @Mock
-    private ModelMapper modelMapper;
+    private PhotoFileReaper photoFileReaper;
+
+    @Mock
+    private AlbumSearchService albumSearchService;
+
+    @Mock
+    private AlbumMapper albumMapper;
+
+    @Mock
+    private PhotoMapper photoMapper;
+
+    @Mock
+    private CacheManager cacheManager;
 
     @InjectMocks
     private AlbumService albumService;
@@ -44,15 +72,14 @@ public class AlbumServiceTest {
     void testListAll() {
         // given
         List<AlbumEntity> albumEntities = new ArrayList<>();
-        albumEntities.add(new AlbumEntity(1L, "Album 1", null, null));
-        albumEntities.add(new AlbumEntity(2L, "Album 2", null, null));
+        albumEntities.add(new AlbumEntity(1L, "Album 1", null, null, null));
+        albumEntities.add(new AlbumEntity(2L, "Album 2", null, null, null));
         when(albumRepository.findAll()).thenReturn(albumEntities);
 
         List<AlbumDto> expectedAlbumDtos = new ArrayList<>();
-        expectedAlbumDtos.add(new AlbumDto(1L, "Album 1", null, new ArrayList<>()));
-        expectedAlbumDtos.add(new AlbumDto(2L, "Album 2", null, new ArrayList<>()));
-        when(modelMapper.map(albumEntities, new TypeToken<List<AlbumDto>>() {
-        }.getType())).thenReturn(expectedAlbumDtos);
+        expectedAlbumDtos.add(new AlbumDto(1L, "Album 1", null, new ArrayList<>(), null));
+        expectedAlbumDtos.add(new AlbumDto(2L, "Album 2", null, new ArrayList<>(), null));
+        when(albumMapper.toDtos(albumEntities)).thenReturn(expectedAlbumDtos);
 
         // when
         List<AlbumDto> actualAlbumDtos = albumService.listAll();
@@ -60,16 +87,15 @@ public class AlbumServiceTest {
         // then
         assertEquals(expectedAlbumDtos, actualAlbumDtos);
         verify(albumRepository).findAll();
-        verify(modelMapper).map(albumEntities, new TypeToken<List<AlbumDto>>() {
-        }.getType());
+        verify(albumMapper).toDtos(albumEntities);
     }
 
     @Test
     void testSave() {
         // given
-        AlbumDto albumDto = new AlbumDto(null, "New Album", null, new ArrayList<>());
-        AlbumEntity expectedAlbumEntity = new AlbumEntity(null, "New Album", null, new ArrayList<>());
-        when(modelMapper.map(albumDto, AlbumEntity.class)).thenReturn(expectedAlbumEntity);
+        AlbumDto albumDto = new AlbumDto(null, "New Album", null, new ArrayList<>(), null);
+        AlbumEntity expectedAlbumEntity = new AlbumEntity(null, "New Album", null, new ArrayList<>(), null);
+        when(albumMapper.toEntity(albumDto)).thenReturn(expectedAlbumEntity);
 
         // when
         albumService.save(albumDto);
@@ -82,11 +108,11 @@ public class AlbumServiceTest {
     void testGetById() {
         // given
         Long albumId = 1L;
-        AlbumEntity expectedAlbumEntity = new AlbumEntity(albumId, "Album 1", null, null);
+        AlbumEntity expectedAlbumEntity = new AlbumEntity(albumId, "Album 1", null, null, null);
         when(albumRepository.findById(albumId)).thenReturn(Optional.of(expectedAlbumEntity));
 
-        AlbumDto expectedAlbumDto = new AlbumDto(albumId, "Album 1", null, new ArrayList<>());
-        when(modelMapper.map(expectedAlbumEntity, AlbumDto.class)).thenReturn(expectedAlbumDto);
+        AlbumDto expectedAlbumDto = new AlbumDto(albumId, "Album 1", null, new ArrayList<>(), null);
+        when(albumMapper.toDto(expectedAlbumEntity)).thenReturn(expectedAlbumDto);
 
         // when
         AlbumDto actualAlbumDto = albumService.getById(albumId);
@@ -94,7 +120,7 @@ public class AlbumServiceTest {
         // then
         assertEquals(expectedAlbumDto, actualAlbumDto);
         verify(albumRepository).findById(albumId);
-        verify(modelMapper).map(expectedAlbumEntity, AlbumDto.class);
+        verify(albumMapper).toDto(expectedAlbumEntity);
     }
 
     @Test
@@ -111,14 +137,186 @@ public class AlbumServiceTest {
     @Test
     void testUpdate() {
         // given
-        AlbumDto albumDto = new AlbumDto(1L, "Album 1 Updated", null, new ArrayList<>());
-        AlbumEntity expectedAlbumEntity = new AlbumEntity(1L, "Album 1 Updated", null, new ArrayList<>());
-        when(modelMapper.map(albumDto, AlbumEntity.class)).thenReturn(expectedAlbumEntity);
+        AlbumDto albumDto = new AlbumDto(1L, "Album 1 Updated", null, new ArrayList<>(), null);
+        AlbumEntity expectedAlbumEntity = new AlbumEntity(1L, "Album 1 Updated", null, new ArrayList<>(), null);
+        when(albumMapper.toEntity(albumDto)).thenReturn(expectedAlbumEntity);
 
         // when
         albumService.update(albumDto);
 
         // then
         verify(albumRepository).save(expectedAlbumEntity);
+        verify(albumSearchService).indexAlbum(1L, "Album 1 Updated");
+    }
+
+    @Test
+    void testListSummaries() {
+        // given
+        PageRequest pageRequest = PageRequest.of(1, 2, Sort.by("title"));
+        Page<AlbumSummaryDto> expectedPage = new PageImpl<>(
+                List.of(new AlbumSummaryDto(3L, "Album 3", "main.jpg", true, 5L)), pageRequest, 3);
+        when(albumRepository.findAllSummaries(pageRequest)).thenReturn(expectedPage);
+
+        // when
+        Page<AlbumSummaryDto> actualPage = albumService.listSummaries(pageRequest);
+
+        // then
+        assertEquals(expectedPage, actualPage);
+        verifyNoInteractions(albumMapper);
+    }
+
+    @Test
+    void testListSummariesIgnoresUnknownSortProperties() {
+        // given
+        PageRequest requested = PageRequest.of(0, 10, Sort.by("photos.fileName"));
+        PageRequest expected = PageRequest.of(0, 10, Sort.by("id"));
+        when(albumRepository.findAllSummaries(expected)).thenReturn(Page.empty(expected));
+
+        // when
+        albumService.listSummaries(requested);
+
+        // then
+        verify(albumRepository).findAllSummaries(expected);
+    }
+
+    @Test
+    void testAddPhotos() {
+        // given
+        PhotoDto first = new PhotoDto();
+        first.setId(10L);
+        PhotoDto second = new PhotoDto();
+        second.setId(11L);
+        when(albumRepository.incrementVersion(1L)).thenReturn(1);
+
+        // when
+        albumService.addPhotos(1L, List.of(first, second));
+
+        // then
+        verify(albumRepository).addPhotos(1L, List.of(10L, 11L));
+        verify(albumRepository, never()).findById(any());
+    }
+
+    @Test
+    void testAddPhotosAlbumNotFound() {
+        // given
+        when(albumRepository.incrementVersion(1L)).thenReturn(0);
+
+        // when / then
+        assertThrows(EntityNotFoundException.class, () -> albumService.addPhotos(1L, List.of()));
+    }
+
+    @Test
+    void testAddPhotoInsertsOneLinkedRowWithoutLoadingTheAlbum() {
+        // given
+        StoredUpload upload = new StoredUpload("a.jpg", new StoredFile("abc.jpg", "abc", 0, 3), new ImageMetadata());
+        AlbumEntity reference = new AlbumEntity();
+        PhotoDto photo = new PhotoDto();
+        when(albumRepository.incrementVersion(1L)).thenReturn(1);
+        when(albumRepository.getReferenceById(1L)).thenReturn(reference);
+        when(photoService.savePhotoEntities(List.of(upload), reference)).thenReturn(List.of(photo));
+
+        // when
+        PhotoDto added = albumService.addPhoto(1L, upload);
+
+        // then
+        assertSame(photo, added);
+        verify(albumRepository, never()).findById(any());
+        verify(albumRepository, never()).save(any());
+    }
+
+    @Test
+    void testAddPhotoAlbumNotFound() {
+        // given
+        StoredUpload upload = new StoredUpload("a.jpg", new StoredFile("abc.jpg", "abc", 0, 3), new ImageMetadata());
+        when(albumRepository.incrementVersion(1L)).thenReturn(0);
+
+        // when / then
+        assertThrows(EntityNotFoundException.class, () -> albumService.addPhoto(1L, upload));
+        verifyNoInteractions(photoService);
+    }
+
+    @Test
+    void testDeleteAlbum() {
+        // given
+        PhotoFileDto mainPhotoFile = new PhotoFileDto(1L, "abc.jpg", "abc");
+        PhotoFileDto photoFile = new PhotoFileDto(2L, "def.jpg", "def");
+        when(photoRepository.findFilesByAlbumId(1L)).thenReturn(List.of(photoFile));
+        when(photoRepository.findMainPhotoFileByAlbumId(1L)).thenReturn(Optional.of(mainPhotoFile));
+        when(albumRepository.deleteAlbumById(1L)).thenReturn(1);
+
+        // when
+        albumService.deleteAlbum(1L);
+
+        // then
+        InOrder inOrder = inOrder(photoFileReaper, photoRepository, albumRepository);
+        inOrder.verify(photoFileReaper).reapAlbum(1L, List.of(photoFile, mainPhotoFile));
+        inOrder.verify(photoRepository).deleteAllByAlbumId(1L);
+        inOrder.verify(albumRepository).deleteAlbumById(1L);
+        inOrder.verify(photoRepository).deleteAllByIdIn(List.of(1L));
+        verify(albumSearchService).removeAlbum(1L);
+        verify(photoRepository, never()).delete(any());
+    }
+
+    @Test
+    void testDeleteAlbumNotFound() {
+        // given
+        when(photoRepository.findFilesByAlbumId(1L)).thenReturn(List.of());
+        when(albumRepository.deleteAlbumById(1L)).thenReturn(0);
+
+        // when, then
+        // The pending deletions queued before are rolled back with the transaction
+        assertThrows(EntityNotFoundException.class, () -> albumService.deleteAlbum(1L));
+        verifyNoInteractions(albumSearchService);
+    }
+
+    @Test
+    void testGetPhotoSliceReturnsCursorOfLastPhoto() {
+        // given
+        List<PhotoEntity> photos = List.of(photo(11L, null), photo(12L, null), photo(13L, null));
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        when(photoRepository.findAlbumPhotosAfterId(1L, 10L, PageRequest.of(0, 3))).thenReturn(photos);
+        when(photoMapper.toDtos(photos.subList(0, 2))).thenReturn(List.of(new PhotoDto(), new PhotoDto()));
+
+        // when
+        PhotoSliceDto slice = albumService.getPhotoSlice(1L, "10", 2, "id");
+
+        // then
+        assertEquals(2, slice.getPhotos().size());
+        assertEquals("12", slice.getNextCursor());
+    }
+
+    @Test
+    void testGetPhotoSliceByCaptureDate() {
+        // given
+        LocalDateTime capturedAt = LocalDateTime.of(2021, 7, 14, 18, 30, 5);
+        List<PhotoEntity> photos = List.of(photo(5L, capturedAt), photo(3L, null));
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        when(photoRepository.findAlbumPhotosCapturedAfter(1L, capturedAt, 4L, PageRequest.of(0, 2))).thenReturn(photos);
+
+        // when
+        PhotoSliceDto slice = albumService.getPhotoSlice(1L, "2021-07-14T18:30:05_4", 1, "capturedAt");
+        PhotoSliceDto undated = albumService.getPhotoSlice(1L, "_3", 1, "capturedAt");
+
+        // then
+        assertEquals("2021-07-14T18:30:05_5", slice.getNextCursor());
+        assertNull(undated.getNextCursor());
+        verify(photoRepository).findUndatedAlbumPhotosAfterId(1L, 3L, PageRequest.of(0, 2));
+    }
+
+    @Test
+    void testGetPhotoSliceRejectsInvalidCursor() {
+        // given
+        when(albumRepository.existsById(1L)).thenReturn(true);
+
+        // when / then
+        assertThrows(IllegalArgumentException.class, () -> albumService.getPhotoSlice(1L, "abc", 10, "id"));
+        assertThrows(IllegalArgumentException.class, () -> albumService.getPhotoSlice(1L, "yesterday_3", 10, "capturedAt"));
+    }
+
+    private static PhotoEntity photo(long id, LocalDateTime capturedAt) {
+        PhotoEntity photo = new PhotoEntity();
+        photo.setId(id);
+        photo.setMetadata(new ImageMetadata(null, null, null, null, capturedAt));
+        return photo;
     }
-}
\ No newline at end of file
+}
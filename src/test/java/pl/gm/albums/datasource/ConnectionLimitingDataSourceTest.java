@@ -0,0 +1,99 @@
+package pl.gm.albums.datasource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConnectionLimitingDataSourceTest {
+
+    @Mock
+    private DataSource target;
+
+    private ConnectionLimitingDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(target.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        dataSource = new ConnectionLimitingDataSource(target, 2, 100);
+    }
+
+    @Test
+    void getConnectionShouldFailWhileAllConnectionsAreOpen() throws SQLException {
+        // given
+        dataSource.getConnection();
+        dataSource.getConnection();
+
+        // when
+        assertThrows(SQLTransientConnectionException.class, () -> dataSource.getConnection());
+
+        // then
+        verify(target, times(2)).getConnection();
+    }
+
+    @Test
+    void closingAConnectionShouldLetAWaitingThreadIn() throws Exception {
+        // given
+        dataSource = new ConnectionLimitingDataSource(target, 1, 10_000);
+        Connection first = dataSource.getConnection();
+        CompletableFuture<Connection> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return dataSource.getConnection();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (dataSource.getWaiting() == 0) {
+            Thread.sleep(1);
+        }
+
+        // when
+        first.close();
+
+        // then
+        assertNotNull(second.get(5, TimeUnit.SECONDS));
+        verify(((ConnectionProxy) first).getTargetConnection()).close();
+    }
+
+    @Test
+    void closingAConnectionTwiceShouldGiveBackOnePermit() throws SQLException {
+        // given
+        Connection connection = dataSource.getConnection();
+        dataSource.getConnection();
+
+        // when
+        connection.close();
+        connection.close();
+
+        // then
+        dataSource.getConnection();
+        assertThrows(SQLTransientConnectionException.class, () -> dataSource.getConnection());
+    }
+
+    @Test
+    void aFailedGetConnectionShouldGiveBackItsPermit() throws SQLException {
+        // given
+        when(target.getConnection()).thenThrow(new SQLException("down")).thenAnswer(invocation -> mock(Connection.class));
+
+        // when
+        assertThrows(SQLException.class, () -> dataSource.getConnection());
+
+        // then
+        dataSource.getConnection();
+        dataSource.getConnection();
+        assertEquals(0, dataSource.getWaiting());
+    }
+}
@@ -0,0 +1,179 @@
+package pl.gm.albums.datasource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.Cookie;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.album.service.AlbumService;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + DataSourceRoutingTest.PRIMARY_URL,
+        "photos.datasource.replica.jdbc-url=" + DataSourceRoutingTest.REPLICA_URL,
+        "photos.datasource.replica.username=sa",
+        "photos.storage.type=memory"})
+public class DataSourceRoutingTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private AlbumService albumService;
+
+    @Autowired
+    private AlbumRepository albumRepository;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replicaDataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Flyway migrates only the primary, the replica gets the same schema here before the application reads from it.
+     * Albums inserted into the replica alone show which database a read went to.
+     */
+    @BeforeAll
+    static void migrateReplica() {
+        Flyway.configure().dataSource(REPLICA_URL, "sa", "").locations("classpath:db/migration/h2").load().migrate();
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        replica.update("merge into album (id, title, version) key (id) " +
+                "select 9000 + x, 'On the replica', 0 from system_range(1, 10)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private static MockHttpServletResponse startRequest(Cookie... cookies) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (cookies.length > 0) {
+            request.setCookies(cookies);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        return response;
+    }
+
+    private long createAlbum() {
+        return albumRepository.save(new AlbumEntity(null, "Written", null, new ArrayList<>(), null)).getId();
+    }
+
+    @Test
+    void readOnlyServiceMethodsShouldReadFromTheReplica() {
+        // when
+        String title = albumService.getById(9001).getTitle();
+
+        // then
+        assertEquals("On the replica", title);
+    }
+
+    @Test
+    void writesShouldGoToThePrimary() {
+        // when
+        long albumId = createAlbum();
+
+        // then
+        assertEquals(1, new JdbcTemplate(primaryDataSource)
+                .queryForObject("select count(*) from album where id = ?", Integer.class, albumId));
+        assertEquals(0, new JdbcTemplate(replicaDataSource)
+                .queryForObject("select count(*) from album where id = ? and title = 'Written'", Integer.class, albumId));
+    }
+
+    @Test
+    void readsShouldStayOnThePrimaryAfterTheRequestWrote() {
+        // given
+        MockHttpServletResponse response = startRequest();
+
+        // when
+        createAlbum();
+
+        // then
+        assertThrows(EntityNotFoundException.class, () -> albumService.getById(9002));
+        Cookie cookie = response.getCookie(ReadYourWrites.COOKIE_NAME);
+        assertNotNull(cookie);
+        assertTrue(Long.parseLong(cookie.getValue()) > System.currentTimeMillis());
+    }
+
+    @Test
+    void readsOfAClientShouldStayOnThePrimaryWhileItsCookieIsValid() {
+        // given
+        Cookie valid = new Cookie(ReadYourWrites.COOKIE_NAME, String.valueOf(System.currentTimeMillis() + 60_000));
+        Cookie expired = new Cookie(ReadYourWrites.COOKIE_NAME, String.valueOf(System.currentTimeMillis() - 1));
+
+        // when
+        startRequest(valid);
+        // then
+        assertThrows(EntityNotFoundException.class, () -> albumService.getById(9003));
+
+        // when
+        MockHttpServletResponse response = startRequest(expired);
+        // then
+        assertEquals("On the replica", albumService.getById(9004).getTitle());
+        assertNull(response.getCookie(ReadYourWrites.COOKIE_NAME));
+    }
+
+    @Test
+    void aReplicaReadOfAnotherClientShouldNotHideTheWriteFromTheWriter() {
+        // given
+        long albumId = 9100;
+        new JdbcTemplate(primaryDataSource).update("insert into album (id, title, version) values (?, 'Deleted', 0)",
+                albumId);
+        new JdbcTemplate(replicaDataSource).update("insert into album (id, title, version) values (?, 'Deleted', 0)",
+                albumId);
+        MockHttpServletResponse writerResponse = startRequest();
+        albumService.deleteAlbum(albumId);
+        Cookie writerCookie = writerResponse.getCookie(ReadYourWrites.COOKIE_NAME);
+
+        // when
+        startRequest();
+        // then: the replica has not caught up with the deletion yet
+        assertEquals("Deleted", albumService.getById(albumId).getTitle());
+
+        // when
+        startRequest(writerCookie);
+        // then
+        assertThrows(EntityNotFoundException.class, () -> albumService.getById(albumId));
+    }
+
+    @Test
+    void eachPoolShouldPublishItsOwnMetrics() {
+        // given
+        albumService.getById(9005);
+        createAlbum();
+
+        // when
+        List<String> pools = meterRegistry.find("hikaricp.connections").gauges().stream()
+                .map(gauge -> gauge.getId().getTag("pool"))
+                .toList();
+
+        // then
+        assertTrue(pools.contains("primary"), pools.toString());
+        assertTrue(pools.contains("replica"), pools.toString());
+    }
+}
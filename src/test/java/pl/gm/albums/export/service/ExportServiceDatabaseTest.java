@@ -0,0 +1,156 @@
+package pl.gm.albums.export.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import pl.gm.albums.photo.repository.PhotoRepository;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exports photos from the database, so the streaming queries and the fetch size they hand to the JDBC driver are
+ * checked against real statements. Connector/J only honours that fetch size with useCursorFetch=true, which the
+ * MySQL URLs in application.properties set.
+ */
+@DataJpaTest(properties = "photos.storage.type=memory")
+@Import(ExportServiceDatabaseTest.RecordingDataSource.class)
+class ExportServiceDatabaseTest {
+
+    private static final int ALBUMS = 3;
+    private static final int PHOTOS_PER_ALBUM = 1000;
+
+    /** Fetch size last set on a prepared statement, per SQL string */
+    private static final Map<String, Integer> FETCH_SIZES = new ConcurrentHashMap<>();
+
+    static class RecordingDataSource {
+
+        /**
+         * The application's own beans are loaded with the JPA slice, and some of them record metrics.
+         */
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        static BeanPostProcessor fetchSizeRecorder() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource ? recordFetchSizes(dataSource) : bean;
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private ExportService exportService;
+
+    private static DataSource recordFetchSizes(DataSource dataSource) {
+        return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                        (proxy, method, args) -> {
+                            Object result = invoke(connection, method, args);
+                            if (method.getName().equals("prepareStatement") && result instanceof PreparedStatement statement) {
+                                return recordFetchSize(statement, (String) args[0]);
+                            }
+                            return result;
+                        });
+            }
+        };
+    }
+
+    private static PreparedStatement recordFetchSize(PreparedStatement statement, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(ExportServiceDatabaseTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("setFetchSize")) {
+                        FETCH_SIZES.put(sql, (Integer) args[0]);
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = JsonMapper.builder()
+                .findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        exportService = new ExportService(photoRepository, objectMapper);
+        for (int album = 1; album <= ALBUMS; album++) {
+            long mainPhotoId = album * 100_000L;
+            jdbcTemplate.update("insert into photo (id, file_name, original_file_name, thumbnails_ready) " +
+                    "values (?, 'main.jpg', 'MAIN.jpg', false)", mainPhotoId);
+            jdbcTemplate.update("insert into album (id, title, main_photo_id, version) values (?, ?, ?, 0)",
+                    album, "Album " + album, mainPhotoId);
+            jdbcTemplate.update("insert into photo (id, file_name, original_file_name, thumbnails_ready, album_id) " +
+                    "select ? + x, 'photo.jpg', 'IMG.jpg', false, ? from system_range(1, ?)",
+                    mainPhotoId, album, PHOTOS_PER_ALBUM);
+        }
+        FETCH_SIZES.clear();
+    }
+
+    @Test
+    void exportShouldStreamEveryPhotoWithTheExportFetchSize() throws IOException {
+        // given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        long rows = exportService.export(ExportService.Format.NDJSON, out);
+
+        // then
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(ALBUMS * (PHOTOS_PER_ALBUM + 1), rows);
+        assertEquals(rows, lines.length);
+        assertTrue(lines[0].startsWith("{\"albumId\":1,\"albumTitle\":\"Album 1\",\"mainPhoto\":true,\"photoId\":100000,"));
+        assertTrue(lines[ALBUMS].contains("\"mainPhoto\":false"));
+        assertEquals(rows, Arrays.stream(lines)
+                .map(line -> line.replaceAll(".*\"photoId\":(\\d+),.*", "$1"))
+                .distinct()
+                .count());
+        // One query for the main photos and one for the photos of the albums
+        int fetchSize = Integer.parseInt(PhotoRepository.EXPORT_FETCH_SIZE);
+        assertEquals(List.of(fetchSize, fetchSize), List.copyOf(FETCH_SIZES.values()), FETCH_SIZES::toString);
+    }
+}
@@ -0,0 +1,96 @@
+package pl.gm.albums.export.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.gm.albums.photo.dto.PhotoExportDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ExportServiceTest {
+
+    @Mock
+    private PhotoRepository photoRepository;
+
+    private ExportService exportService;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = JsonMapper.builder()
+                .findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        exportService = new ExportService(photoRepository, objectMapper);
+    }
+
+    @Test
+    void shouldWriteOneJsonObjectPerLine() throws IOException {
+        // given
+        when(photoRepository.streamMainPhotosForExport()).thenReturn(Stream.of(new PhotoExportDto(1L, "Tatry", true,
+                10L, "abc.jpg", "IMG_1.jpg", "abc", 640, 480, 1234L, "image/jpeg", LocalDateTime.of(2021, 7, 14, 18, 30))));
+        when(photoRepository.streamAlbumPhotosForExport()).thenReturn(Stream.of(new PhotoExportDto(1L, "Tatry", false,
+                11L, "def.png", "IMG_2.png", "def", null, null, 99L, "image/png", null)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        long rows = exportService.export(ExportService.Format.NDJSON, out);
+
+        // then
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, rows);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{\"albumId\":1,\"albumTitle\":\"Tatry\",\"mainPhoto\":true,\"photoId\":10,"));
+        assertTrue(lines[0].endsWith("\"capturedAt\":\"2021-07-14T18:30:00\"}"));
+        assertTrue(lines[1].contains("\"photoId\":11"));
+    }
+
+    @Test
+    void shouldWriteCsvWithHeaderAndQuotedFields() throws IOException {
+        // given
+        when(photoRepository.streamMainPhotosForExport()).thenReturn(Stream.of(new PhotoExportDto(2L, "Zima, \"2023\"",
+                true, null, null, null, null, null, null, null, null, null)));
+        when(photoRepository.streamAlbumPhotosForExport()).thenReturn(Stream.empty());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        exportService.export(ExportService.Format.CSV, out);
+
+        // then
+        assertEquals("albumId,albumTitle,mainPhoto,photoId,fileName,originalFileName,contentHash,width,height,"
+                + "byteSize,contentType,capturedAt\r\n"
+                + "2,\"Zima, \"\"2023\"\"\",true,,,,,,,,,\r\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shouldCloseFirstStreamBeforeOpeningSecond() throws IOException {
+        // given
+        AtomicBoolean mainClosed = new AtomicBoolean();
+        when(photoRepository.streamMainPhotosForExport()).thenReturn(Stream.<PhotoExportDto>empty()
+                .onClose(() -> mainClosed.set(true)));
+        when(photoRepository.streamAlbumPhotosForExport()).thenAnswer(invocation -> {
+            assertTrue(mainClosed.get());
+            return Stream.empty();
+        });
+
+        // when
+        long rows = exportService.export(ExportService.Format.NDJSON, new ByteArrayOutputStream());
+
+        // then
+        assertEquals(0, rows);
+    }
+}
@@ -0,0 +1,189 @@
+package pl.gm.albums.job.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.gm.albums.album.repository.AlbumRepository;
+import pl.gm.albums.album.service.AlbumService;
+import pl.gm.albums.job.model.PhotoJobEntity;
+import pl.gm.albums.job.model.PhotoJobEntity.State;
+import pl.gm.albums.job.repository.PhotoJobRepository;
+import pl.gm.albums.photo.model.ImageMetadata;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.PhotoService;
+import pl.gm.albums.photo.service.PhotoService.StoredUpload;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PhotoJobServiceTest {
+
+    @Mock
+    private PhotoJobRepository photoJobRepository;
+
+    @Mock
+    private AlbumRepository albumRepository;
+
+    @Mock
+    private AlbumService albumService;
+
+    @Mock
+    private PhotoService photoService;
+
+    @Mock
+    private PhotoFileReaper photoFileReaper;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path spoolDir;
+
+    private PhotoJobService photoJobService;
+
+    @BeforeEach
+    void setUp() {
+        // The dispatcher is never started during a test, jobs are processed by hand
+        photoJobService = new PhotoJobService(photoJobRepository, albumRepository, albumService, photoService,
+                photoFileReaper, transactionTemplate, new SimpleMeterRegistry(), spoolDir.toString(),
+                1, 2, 7, 3, 1000, 3_600_000);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        photoJobService.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubTransaction() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any(Consumer.class));
+    }
+
+    private PhotoJobEntity spooledJob(String content, int attempts) throws IOException {
+        Files.writeString(spoolDir.resolve("spooled"), content);
+        LocalDateTime createdAt = LocalDateTime.now().minusSeconds(5);
+        return new PhotoJobEntity(11L, 1L, "spooled", "a.jpg", content.length(), State.RUNNING, attempts,
+                createdAt, createdAt, null);
+    }
+
+    @Test
+    void enqueueShouldSpoolNonEmptyFilesAndSaveOneJobEach() throws IOException {
+        // given
+        when(photoJobRepository.countByState(State.QUEUED)).thenReturn(0L);
+        when(albumRepository.existsById(1L)).thenReturn(true);
+        MockMultipartFile first = new MockMultipartFile("imageFiles", "a.jpg", "image/jpeg", "aaa".getBytes());
+        MockMultipartFile empty = new MockMultipartFile("imageFiles", "b.jpg", "image/jpeg", new byte[0]);
+
+        // when
+        photoJobService.enqueue(1L, List.of(first, empty));
+
+        // then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<PhotoJobEntity>> jobs = ArgumentCaptor.forClass(List.class);
+        verify(photoJobRepository).saveAll(jobs.capture());
+        assertEquals(1, jobs.getValue().size());
+        PhotoJobEntity job = jobs.getValue().get(0);
+        assertEquals(State.QUEUED, job.getState());
+        assertEquals("a.jpg", job.getOriginalFileName());
+        assertEquals(3, job.getByteSize());
+        assertEquals("aaa", Files.readString(spoolDir.resolve(job.getSpoolFileName())));
+    }
+
+    @Test
+    void enqueueShouldRejectUploadsWhileTheQueueIsFull() {
+        // given
+        when(photoJobRepository.countByState(State.QUEUED)).thenReturn(2L);
+        MockMultipartFile file = new MockMultipartFile("imageFile", "a.jpg", "image/jpeg", "aaa".getBytes());
+
+        // when
+        PhotoJobQueueFullException e = assertThrows(PhotoJobQueueFullException.class,
+                () -> photoJobService.enqueue(1L, List.of(file)));
+
+        // then
+        assertEquals(7, e.getRetryAfterSeconds());
+        verify(photoJobRepository, never()).saveAll(any());
+        try (var files = Files.list(spoolDir)) {
+            assertEquals(0, files.count());
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    @Test
+    void processShouldAddThePhotoDeleteTheJobAndTheSpooledFile() throws IOException {
+        // given
+        stubTransaction();
+        PhotoJobEntity job = spooledJob("aaa", 0);
+        when(photoService.storeFile(any(), eq("a.jpg"), eq(3L))).thenAnswer(invocation -> {
+            byte[] content = invocation.<InputStreamSource>getArgument(0).getInputStream().readAllBytes();
+            return new StoredUpload("a.jpg", new StoredFile("h.jpg", "h", 0, content.length), new ImageMetadata());
+        });
+
+        // when
+        photoJobService.process(job);
+
+        // then
+        verify(albumService).addPhoto(eq(1L), argThat(upload -> upload.file().fileName().equals("h.jpg")));
+        verify(photoJobRepository).deleteJobById(11L);
+        assertFalse(Files.exists(spoolDir.resolve("spooled")));
+    }
+
+    @Test
+    void processShouldRetryAFailedAttemptLaterAndKeepTheSpooledFile() throws IOException {
+        // given
+        PhotoJobEntity job = spooledJob("aaa", 0);
+        when(photoService.storeFile(any(), anyString(), anyLong())).thenThrow(new RuntimeException("disk full"));
+
+        // when
+        photoJobService.process(job);
+
+        // then
+        ArgumentCaptor<LocalDateTime> retryAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(photoJobRepository).reschedule(eq(11L), eq(State.QUEUED), retryAt.capture(), eq("disk full"));
+        assertTrue(retryAt.getValue().isAfter(LocalDateTime.now()));
+        assertTrue(Files.exists(spoolDir.resolve("spooled")));
+    }
+
+    @Test
+    void processShouldFailTheJobAndReapTheStoredFileWhenTheAlbumIsGone() throws IOException {
+        // given
+        stubTransaction();
+        PhotoJobEntity job = spooledJob("aaa", 0);
+        when(photoService.storeFile(any(), anyString(), anyLong()))
+                .thenReturn(new StoredUpload("a.jpg", new StoredFile("h.jpg", "h", 0, 3), new ImageMetadata()));
+        doThrow(new EntityNotFoundException("Album with id 1 not found")).when(albumService).addPhoto(eq(1L), any());
+
+        // when
+        photoJobService.process(job);
+
+        // then
+        verify(photoJobRepository).reschedule(eq(11L), eq(State.FAILED), any(), eq("Album with id 1 not found"));
+        verify(photoFileReaper).reap(argThat(files -> files.size() == 1
+                && files.iterator().next().getFileName().equals("h.jpg")));
+        assertFalse(Files.exists(spoolDir.resolve("spooled")));
+    }
+}
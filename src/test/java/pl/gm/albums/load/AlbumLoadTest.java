@@ -0,0 +1,259 @@
+package pl.gm.albums.load;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.util.FileSystemUtils;
+import pl.gm.albums.load.LoadDriver.Samples;
+import pl.gm.albums.photo.model.PhotoEntity;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+import pl.gm.albums.photo.storage.ShardedFileSystemPhotoStorage;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives a mix of page views, photo file downloads, uploads and deletions from many concurrent clients against the
+ * application on a random port, backed by an H2 file database and photo files seeded before it starts, and reports the
+ * throughput and latency percentiles of every endpoint. Fails if an endpoint's p99 latency exceeds its budget or too many requests fail, so a release can be
+ * gated on it. Runs offline; tagged "load", so only the load profile runs it:
+ * <pre>
+ * ./mvnw -Pload test -Dload.clients=64 -Dload.seconds=60 -Dload.mix=list=30,album=25,photo=20,upload=20,delete=5 \
+ *     -Dload.budget-p99-ms=list=500,album=500,photo=200,upload=1000,delete=1000
+ * </pre>
+ * Settings, as system properties:
+ * <ul>
+ *     <li>load.clients: concurrent clients, each sending its next request once the previous one is answered (16)</li>
+ *     <li>load.seconds: measured duration, after load.warm-up-seconds (30, 10)</li>
+ *     <li>load.mix: relative weights of the endpoints (list=30,album=25,photo=20,upload=20,delete=5)</li>
+ *     <li>load.albums, load.photos-per-album: seeded albums that are viewed and uploaded to (100, 200)</li>
+ *     <li>load.photo-files, load.photo-file-bytes: stored files the seeded photos share, downloaded from /photos
+ *     (50, 102400)</li>
+ *     <li>load.deletable-albums: further seeded albums, each deleted at most once (2000)</li>
+ *     <li>load.budget-p99-ms: p99 latency budget of each endpoint (2000 for every endpoint)</li>
+ *     <li>load.max-error-rate: largest share of failed requests of each endpoint (0.01)</li>
+ * </ul>
+ * The report is printed and written to target/load-test/report.csv.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=" + AlbumLoadTest.DATABASE_URL,
+        "spring.datasource.username=sa",
+        "photos.storage.root=target/load-test/photos",
+        "photos.jobs.spool-dir=target/load-test/spool",
+        "management.server.port=-1",
+        "logging.level.root=WARN"})
+public class AlbumLoadTest {
+
+    static final String DATABASE_URL = "jdbc:h2:file:./target/load-test/albums;DB_CLOSE_ON_EXIT=FALSE";
+    private static final Path WORK_DIRECTORY = Paths.get("target/load-test");
+
+    private static final int CLIENTS = Integer.getInteger("load.clients", 16);
+    private static final int SECONDS = Integer.getInteger("load.seconds", 30);
+    private static final int WARM_UP_SECONDS = Integer.getInteger("load.warm-up-seconds", 10);
+    private static final int ALBUMS = Integer.getInteger("load.albums", 100);
+    private static final int PHOTOS_PER_ALBUM = Integer.getInteger("load.photos-per-album", 200);
+    private static final int DELETABLE_ALBUMS = Integer.getInteger("load.deletable-albums", 2000);
+    private static final int PHOTO_FILES = Integer.getInteger("load.photo-files", 50);
+    private static final int PHOTO_FILE_BYTES = Integer.getInteger("load.photo-file-bytes", 100 * 1024);
+    private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("load.max-error-rate", "0.01"));
+
+    /** Names of the seeded photo files */
+    private static List<String> fileNames;
+
+    @LocalServerPort
+    private int port;
+
+    enum Endpoint {
+        LIST, ALBUM, PHOTO, UPLOAD, DELETE
+    }
+
+    /**
+     * Stores the photo files and creates and fills the database before the application starts, so that startup work
+     * such as the search index sees the whole catalogue. The photos share the stored files, as uploads of the same
+     * content do. Deletable albums come after the viewed ones and have a few photos each.
+     */
+    @BeforeAll
+    static void seedDatabase() throws IOException {
+        FileSystemUtils.deleteRecursively(WORK_DIRECTORY);
+        Files.createDirectories(WORK_DIRECTORY);
+        List<StoredFile> files = LoadDriver.storePhotoFiles(
+                new ShardedFileSystemPhotoStorage(WORK_DIRECTORY.resolve("photos")), PHOTO_FILES, PHOTO_FILE_BYTES,
+                new Random(1));
+        fileNames = files.stream().map(StoredFile::fileName).toList();
+        Flyway.configure().dataSource(DATABASE_URL, "sa", "").locations("classpath:db/migration/h2").load().migrate();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(DATABASE_URL, "sa", ""));
+        long photoId = 1;
+        List<Object[]> photos = new ArrayList<>();
+        List<Object[]> albums = new ArrayList<>();
+        for (long albumId = 1; albumId <= ALBUMS + DELETABLE_ALBUMS; albumId++) {
+            int count = albumId <= ALBUMS ? PHOTOS_PER_ALBUM : 5;
+            // Like an album created in the application, the main photo is not one of the album's photos
+            albums.add(new Object[]{albumId, "Album " + albumId, photoId});
+            for (int i = 0; i <= count; i++, photoId++) {
+                StoredFile file = files.get((int) (photoId % files.size()));
+                photos.add(new Object[]{photoId, file.fileName(), "IMG_" + photoId + ".jpg", file.contentHash(),
+                        file.crc32(), i == 0 ? null : albumId});
+            }
+        }
+        // The photos reference their album and the album references its main photo
+        jdbcTemplate.batchUpdate("insert into album (id, title) values (?, ?)",
+                albums.stream().map(row -> Arrays.copyOf(row, 2)).toList());
+        jdbcTemplate.batchUpdate("insert into photo (id, file_name, original_file_name, content_hash, crc32, album_id, " +
+                "thumbnails_ready) values (?, ?, ?, ?, ?, ?, false)", photos);
+        jdbcTemplate.batchUpdate("update album set main_photo_id = ? where id = ?",
+                albums.stream().map(row -> new Object[]{row[2], row[0]}).toList());
+        // Keep the ids generated by the application clear of the seeded ones
+        jdbcTemplate.execute("alter table album alter column id restart with " + (ALBUMS + DELETABLE_ALBUMS + 1));
+        jdbcTemplate.execute("alter sequence photo_seq restart with " + (photoId + PhotoEntity.ID_ALLOCATION_SIZE));
+    }
+
+    @Test
+    void endpointsShouldStayWithinTheirLatencyBudgets() throws Exception {
+        // given
+        Map<Endpoint, Integer> mix = parse(System.getProperty("load.mix",
+                "list=30,album=25,photo=20,upload=20,delete=5"));
+        Map<Endpoint, Integer> budgets = parse(System.getProperty("load.budget-p99-ms",
+                "list=2000,album=2000,photo=2000,upload=2000,delete=2000"));
+        byte[] upload = uploadPhoto();
+        AtomicInteger nextDeletedAlbum = new AtomicInteger(ALBUMS + 1);
+
+        // when
+        Map<Endpoint, Samples> results = new EnumMap<>(Endpoint.class);
+        results.putAll(LoadDriver.run(CLIENTS, WARM_UP_SECONDS, SECONDS,
+                random -> request(pick(mix, random), random, upload, nextDeletedAlbum)));
+
+        // then
+        report(results);
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<Endpoint, Integer> weight : mix.entrySet()) {
+            Samples samples = results.get(weight.getKey());
+            if (weight.getValue() == 0) {
+                continue;
+            }
+            if (samples == null) {
+                violations.add(weight.getKey() + ": no request finished in the measured time");
+                continue;
+            }
+            Integer budget = budgets.get(weight.getKey());
+            if (budget != null && samples.percentile(99) > budget) {
+                violations.add(String.format("%s: p99 %.1f ms is over the budget of %d ms",
+                        weight.getKey(), samples.percentile(99), budget));
+            }
+            if (samples.getErrors() > MAX_ERROR_RATE * samples.getCount()) {
+                violations.add(String.format("%s: %d of %d requests failed", weight.getKey(), samples.getErrors(),
+                        samples.getCount()));
+            }
+        }
+        assertTrue(violations.isEmpty(), String.join("\n", violations));
+    }
+
+    private LoadDriver.Request<Endpoint> request(Endpoint endpoint, Random random, byte[] upload,
+                                                 AtomicInteger nextDeletedAlbum) {
+        String baseUrl = "http://localhost:" + port;
+        return switch (endpoint) {
+            case LIST -> new LoadDriver.Request<>(endpoint, HttpRequest.newBuilder(URI.create(baseUrl + "/album/list?page="
+                    + random.nextInt(Math.max(1, ALBUMS / 12)))).build(), 200);
+            case ALBUM -> new LoadDriver.Request<>(endpoint, HttpRequest.newBuilder(
+                    URI.create(baseUrl + "/album/photo-all/" + (1 + random.nextInt(ALBUMS)))).build(), 200);
+            case PHOTO -> new LoadDriver.Request<>(endpoint, HttpRequest.newBuilder(
+                    URI.create(baseUrl + "/photos/" + fileNames.get(random.nextInt(fileNames.size())))).build(), 200);
+            case UPLOAD -> new LoadDriver.Request<>(endpoint, HttpRequest.newBuilder(URI.create(baseUrl + "/album/photo-add"))
+                    .header("Content-Type", LoadDriver.MULTIPART_CONTENT_TYPE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(
+                            LoadDriver.uploadBody(1 + random.nextInt(ALBUMS), upload)))
+                    .build(), 302);
+            case DELETE -> {
+                int albumId = nextDeletedAlbum.getAndIncrement();
+                // Once every deletable album is gone, deletions are left out of the mix
+                yield albumId > ALBUMS + DELETABLE_ALBUMS ? null : new LoadDriver.Request<>(endpoint,
+                        HttpRequest.newBuilder(URI.create(baseUrl + "/album/delete/" + albumId)).build(), 302);
+            }
+        };
+    }
+
+    private static Endpoint pick(Map<Endpoint, Integer> mix, Random random) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        int pick = random.nextInt(total);
+        for (Map.Entry<Endpoint, Integer> weight : mix.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    /**
+     * Parses a setting such as "list=40,album=35", with endpoint names in any case.
+     */
+    private static Map<Endpoint, Integer> parse(String setting) {
+        Map<Endpoint, Integer> values = new EnumMap<>(Endpoint.class);
+        for (String entry : setting.split(",")) {
+            String[] parts = entry.trim().split("=");
+            values.put(Endpoint.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].trim()));
+        }
+        return values;
+    }
+
+    /**
+     * Prints the report and writes it to target/load-test/report.csv.
+     */
+    private static void report(Map<Endpoint, Samples> results) throws IOException {
+        Map<String, String> rows = new LinkedHashMap<>();
+        rows.put("endpoint", "requests,requests_per_second,p50_ms,p95_ms,p99_ms,max_ms,errors");
+        System.out.printf("%n%d clients, %d s%n%-8s %9s %9s %9s %9s %9s %9s %7s%n", CLIENTS, SECONDS,
+                "Endpoint", "Requests", "Req/s", "p50 ms", "p95 ms", "p99 ms", "Max ms", "Errors");
+        results.forEach((endpoint, samples) -> {
+            double perSecond = samples.getCount() / (double) SECONDS;
+            System.out.printf("%-8s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %7d%n", endpoint, samples.getCount(), perSecond,
+                    samples.percentile(50), samples.percentile(95), samples.percentile(99), samples.percentile(100),
+                    samples.getErrors());
+            rows.put(endpoint.name().toLowerCase(), String.format(Locale.ROOT, "%d,%.1f,%.1f,%.1f,%.1f,%.1f,%d",
+                    samples.getCount(), perSecond, samples.percentile(50), samples.percentile(95),
+                    samples.percentile(99), samples.percentile(100), samples.getErrors()));
+        });
+        List<String> lines = rows.entrySet().stream().map(row -> row.getKey() + "," + row.getValue()).toList();
+        Files.write(WORK_DIRECTORY.resolve("report.csv"), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A small JPEG to upload.
+     */
+    private static byte[] uploadPhoto() throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillOval(100, 100, 300, 200);
+        graphics.dispose();
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", jpeg);
+        return jpeg.toByteArray();
+    }
+}
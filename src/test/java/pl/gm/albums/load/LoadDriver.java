@@ -0,0 +1,213 @@
+package pl.gm.albums.load;
+
+import pl.gm.albums.photo.storage.PhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Drives an application over HTTP from many concurrent clients, each sending its next request once the previous one
+ * is answered, and records the latency and outcome of every request sent and answered within the measured time,
+ * after a warm-up. Used by AlbumLoadTest and by ExecutionModeComparison of the benchmark profile.
+ */
+public final class LoadDriver {
+
+    private static final String BOUNDARY = "albumsLoadBoundary";
+
+    /**
+     * Content type of the bodies built by {@link #uploadBody}.
+     */
+    public static final String MULTIPART_CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
+
+    private LoadDriver() {
+    }
+
+    /**
+     * A request to send.
+     *
+     * @param endpoint       Endpoint the latency is recorded under.
+     * @param request        The request.
+     * @param expectedStatus Status of a successful answer; any other status, or no answer, is an error.
+     */
+    public record Request<K>(K endpoint, HttpRequest request, int expectedStatus) {
+    }
+
+    /**
+     * Runs the clients for the warm-up and then for the measured time.
+     *
+     * @param clients       Number of concurrent clients.
+     * @param warmUpSeconds Time before the measurement starts.
+     * @param seconds       Measured time.
+     * @param next          Returns the next request of a client, given its own random source seeded with its number,
+     *                      or null to be asked again.
+     * @return Samples of every endpoint, in the order the endpoints were first measured.
+     */
+    public static <K> Map<K, Samples> run(int clients, int warmUpSeconds, int seconds,
+                                          Function<Random, Request<K>> next) throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmUpSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Map<K, Samples>>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                Random random = new Random(c);
+                futures.add(executor.submit(() -> {
+                    Map<K, Samples> samples = new HashMap<>();
+                    while (System.nanoTime() < end) {
+                        Request<K> request = next.apply(random);
+                        if (request == null) {
+                            continue;
+                        }
+                        long sent = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(request.request(), HttpResponse.BodyHandlers.discarding())
+                                    .statusCode();
+                        } catch (IOException e) {
+                            status = -1;
+                        }
+                        long received = System.nanoTime();
+                        if (sent >= measureFrom && received <= end) {
+                            samples.computeIfAbsent(request.endpoint(), endpoint -> new Samples())
+                                    .add(received - sent, status == request.expectedStatus());
+                        }
+                    }
+                    return samples;
+                }));
+            }
+            Map<K, Samples> results = new LinkedHashMap<>();
+            for (Future<Map<K, Samples>> future : futures) {
+                future.get().forEach((endpoint, samples) -> results.merge(endpoint, samples, Samples::merge));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds the form of an upload to /album/photo-add.
+     *
+     * @param albumId Album the photo is added to.
+     * @param photo   Content of the photo file.
+     */
+    public static byte[] uploadBody(long albumId, byte[] photo) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(photo.length + 512);
+        body.writeBytes(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"albumId\"\r\n\r\n" + albumId
+                + "\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"imageFile\"; filename=\"load.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(photo);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    /**
+     * Stores files of random content into the photo storage, for seeded photo rows to point at.
+     *
+     * @param count Number of files.
+     * @param bytes Size of every file.
+     */
+    public static List<StoredFile> storePhotoFiles(PhotoStorage storage, int count, int bytes, Random random)
+            throws IOException {
+        List<StoredFile> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] content = new byte[bytes];
+            random.nextBytes(content);
+            files.add(storage.store(new ByteArrayInputStream(content), ".jpg"));
+        }
+        return files;
+    }
+
+    /**
+     * Latencies and failures of the requests to one endpoint.
+     */
+    public static final class Samples {
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+        private boolean sorted;
+
+        /**
+         * Returns the samples of all the given endpoints together.
+         */
+        public static Samples total(Collection<Samples> samples) {
+            Samples total = new Samples();
+            samples.forEach(total::merge);
+            return total;
+        }
+
+        void add(long latencyNanos, boolean ok) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            if (!ok) {
+                errors++;
+            }
+            sorted = false;
+        }
+
+        Samples merge(Samples other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.latencies[i], true);
+            }
+            errors += other.errors;
+            return this;
+        }
+
+        /**
+         * Returns the number of requests measured.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of measured requests that failed.
+         */
+        public int getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the latency in milliseconds that the given percentage of the requests did not exceed, or 0 if no
+         * request was measured.
+         */
+        public double percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(latencies, 0, count);
+                sorted = true;
+            }
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return latencies[Math.max(0, Math.min(count - 1, index))] / 1e6;
+        }
+    }
+}
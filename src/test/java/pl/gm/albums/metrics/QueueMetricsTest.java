@@ -0,0 +1,64 @@
+package pl.gm.albums.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import pl.gm.albums.job.service.PhotoJobService;
+import pl.gm.albums.photo.service.PhotoFileReaper;
+import pl.gm.albums.photo.service.ThumbnailService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class QueueMetricsTest {
+
+    @Mock
+    private ThumbnailService thumbnailService;
+
+    @Mock
+    private PhotoFileReaper photoFileReaper;
+
+    @Mock
+    private PhotoJobService photoJobService;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        new QueueMetrics(thumbnailService, photoFileReaper, photoJobService).bindTo(meterRegistry);
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    @Test
+    void gaugesShouldReportTheQueueDepths() {
+        // given
+        when(thumbnailService.getQueueSize()).thenReturn(3);
+        when(photoFileReaper.getQueueSize()).thenReturn(7L);
+        when(photoJobService.getQueueDepth()).thenReturn(11L);
+        when(photoJobService.getLagSeconds()).thenReturn(42L);
+
+        // then
+        assertEquals(3, gauge("photos.thumbnails.queue"));
+        assertEquals(7, gauge("photos.reaper.queue"));
+        assertEquals(11, gauge("photos.jobs.queue"));
+        assertEquals(42, gauge("photos.jobs.lag"));
+    }
+
+    @Test
+    void gaugesShouldReadTheQueuesOnEveryScrape() {
+        // given
+        when(photoFileReaper.getQueueSize()).thenReturn(5L, 0L);
+
+        // then
+        assertEquals(5, gauge("photos.reaper.queue"));
+        assertEquals(0, gauge("photos.reaper.queue"));
+        verify(photoFileReaper, times(2)).getQueueSize();
+    }
+}
@@ -0,0 +1,59 @@
+package pl.gm.albums.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlStatementCounterTest {
+
+    private final SqlStatementCounter counter = new SqlStatementCounter();
+
+    @BeforeEach
+    void setUp() {
+        SqlStatementCounter.reset();
+    }
+
+    @Test
+    void inspectShouldCountStatementsAndLeaveThemUnchanged() {
+        // when
+        String sql = counter.inspect("select 1");
+        counter.inspect("select 2");
+
+        // then
+        assertEquals("select 1", sql);
+        assertEquals(2, SqlStatementCounter.getCount());
+    }
+
+    @Test
+    void resetShouldStartCountingFromZero() {
+        // given
+        counter.inspect("select 1");
+
+        // when
+        SqlStatementCounter.reset();
+        counter.inspect("select 2");
+
+        // then
+        assertEquals(1, SqlStatementCounter.getCount());
+    }
+
+    @Test
+    void shouldCountTheStatementsOfEveryThreadSeparately() {
+        // given
+        counter.inspect("select 1");
+
+        // when
+        long otherThread = CompletableFuture.supplyAsync(() -> {
+            counter.inspect("select 2");
+            counter.inspect("select 3");
+            return SqlStatementCounter.getCount();
+        }).join();
+
+        // then
+        assertEquals(2, otherThread);
+        assertEquals(1, SqlStatementCounter.getCount());
+    }
+}
@@ -0,0 +1,79 @@
+package pl.gm.albums.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlStatementMetricsInterceptorTest {
+
+    private final SqlStatementCounter counter = new SqlStatementCounter();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private SqlStatementMetricsInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        interceptor = new SqlStatementMetricsInterceptor(meterRegistry);
+    }
+
+    private void handle(String method, String pattern, int statements) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/");
+        if (pattern != null) {
+            request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, response, new Object()));
+        for (int i = 0; i < statements; i++) {
+            counter.inspect("select " + i);
+        }
+        interceptor.afterCompletion(request, response, new Object(), null);
+    }
+
+    private DistributionSummary summary(String method, String uri) {
+        return meterRegistry.get("http.server.requests.sql.statements").tag("method", method).tag("uri", uri).summary();
+    }
+
+    @Test
+    void shouldRecordTheStatementsOfEachRequestPerUriPattern() {
+        // when
+        handle("GET", "/album/{id}", 3);
+        handle("GET", "/album/{id}", 5);
+        handle("POST", "/album/create", 2);
+
+        // then
+        DistributionSummary album = summary("GET", "/album/{id}");
+        assertEquals(2, album.count());
+        assertEquals(8, album.totalAmount());
+        assertEquals(5, album.max());
+        assertEquals(2, summary("POST", "/album/create").totalAmount());
+    }
+
+    @Test
+    void preHandleShouldNotCountStatementsIssuedBeforeTheRequest() {
+        // given
+        counter.inspect("select left over by an earlier request");
+
+        // when
+        handle("GET", "/album/list", 1);
+
+        // then
+        assertEquals(1, summary("GET", "/album/list").totalAmount());
+    }
+
+    @Test
+    void shouldRecordRequestsWithoutAHandlerPatternAsUnknown() {
+        // when
+        handle("GET", null, 0);
+
+        // then
+        assertEquals(1, summary("GET", "UNKNOWN").count());
+    }
+}
@@ -0,0 +1,144 @@
+package pl.gm.albums.photo.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import pl.gm.albums.photo.storage.CachingPhotoStorage;
+import pl.gm.albums.photo.storage.ShardedFileSystemPhotoStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class PhotoFileControllerTest {
+
+    private static final String HASH = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+
+    @TempDir
+    Path photosDirectory;
+
+    @TempDir
+    Path cacheDirectory;
+
+    private ShardedFileSystemPhotoStorage photoStorage;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        photoStorage = new ShardedFileSystemPhotoStorage(photosDirectory);
+        photoStorage.put(HASH + ".jpg", new ByteArrayInputStream("test data".getBytes()));
+        photoStorage.put("legacy.jpg", new ByteArrayInputStream("legacy data".getBytes()));
+        mockMvc = MockMvcBuilders.standaloneSetup(new PhotoFileController(photoStorage)).build();
+    }
+
+    @Test
+    void shouldServeFilesOfACachedFileSystemStorageFromTheCache() throws Exception {
+        // given
+        AtomicInteger opens = new AtomicInteger();
+        ShardedFileSystemPhotoStorage slowStorage = new ShardedFileSystemPhotoStorage(photosDirectory) {
+            @Override
+            public InputStream open(String fileName) throws IOException {
+                opens.incrementAndGet();
+                return super.open(fileName);
+            }
+        };
+        // Files up to 4 bytes in memory, so "test data" is kept in the disk tier
+        CachingPhotoStorage cachingStorage = new CachingPhotoStorage(slowStorage, cacheDirectory, 64, 4, 1024,
+                new SimpleMeterRegistry());
+        MockMvc cachedMockMvc = MockMvcBuilders.standaloneSetup(new PhotoFileController(cachingStorage)).build();
+        cachedMockMvc.perform(get("/photos/" + HASH + ".jpg")).andExpect(content().string("test data"));
+
+        // when
+        Files.delete(slowStorage.localPath(HASH + ".jpg"));
+
+        // then
+        cachedMockMvc.perform(get("/photos/" + HASH + ".jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("test data"));
+        cachedMockMvc.perform(get("/photos/" + HASH + ".jpg").header("Range", "bytes=5-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("data"));
+        assertEquals(1, opens.get());
+    }
+
+    @Test
+    void shouldServeContentAddressedFileAsImmutable() throws Exception {
+        mockMvc.perform(get("/photos/" + HASH + ".jpg"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + HASH + "\""))
+                .andExpect(header().string("Cache-Control", "public, max-age=31536000, immutable"))
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(header().longValue("Content-Length", 9))
+                .andExpect(content().string("test data"));
+    }
+
+    @Test
+    void shouldRevalidateFilesWithoutContentHash() throws Exception {
+        mockMvc.perform(get("/photos/legacy.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "public, max-age=0, must-revalidate"))
+                .andExpect(content().string("legacy data"));
+    }
+
+    @Test
+    void shouldAnswerNotModifiedForMatchingETag() throws Exception {
+        mockMvc.perform(get("/photos/" + HASH + ".jpg").header("If-None-Match", "\"" + HASH + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void shouldAnswerNotModifiedForUnchangedFile() throws Exception {
+        long lastModified = photoStorage.stat("legacy.jpg").lastModified();
+        mockMvc.perform(get("/photos/legacy.jpg").header("If-Modified-Since", lastModified + 1000))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void shouldServeByteRange() throws Exception {
+        mockMvc.perform(get("/photos/" + HASH + ".jpg").header("Range", "bytes=5-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 5-8/9"))
+                .andExpect(content().string("data"));
+    }
+
+    @Test
+    void shouldServeSuffixByteRange() throws Exception {
+        mockMvc.perform(get("/photos/" + HASH + ".jpg").header("Range", "bytes=-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("data"));
+    }
+
+    @Test
+    void shouldRejectUnsatisfiableRange() throws Exception {
+        mockMvc.perform(get("/photos/" + HASH + ".jpg").header("Range", "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */9"));
+    }
+
+    @Test
+    void shouldIgnoreRangeForStaleIfRange() throws Exception {
+        mockMvc.perform(get("/photos/" + HASH + ".jpg").header("Range", "bytes=5-").header("If-Range", "\"other\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("test data"));
+    }
+
+    @Test
+    void shouldNotServeFilesOutsideThePhotosDirectory() throws Exception {
+        mockMvc.perform(get("/photos/..%2Fsecret.txt"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/photos/missing.jpg"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,121 @@
+package pl.gm.albums.photo.metadata;
+
+import org.junit.jupiter.api.Test;
+import pl.gm.albums.photo.model.ImageMetadata;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageHeaderParserTest {
+
+    @Test
+    void shouldReadJpegDimensions() throws IOException {
+        // given
+        byte[] jpeg = image(640, 480, "jpg");
+
+        // when
+        ImageMetadata metadata = ImageHeaderParser.parse(jpeg, jpeg.length, jpeg.length);
+
+        // then
+        assertEquals("image/jpeg", metadata.getContentType());
+        assertEquals(640, metadata.getWidth());
+        assertEquals(480, metadata.getHeight());
+        assertEquals(jpeg.length, metadata.getByteSize());
+        assertNull(metadata.getCapturedAt());
+    }
+
+    @Test
+    void shouldReadExifCaptureDateAndApplyOrientation() throws IOException {
+        // given
+        byte[] jpeg = withExif(image(640, 480, "jpg"), 6, "2021:07:14 18:30:05");
+
+        // when
+        ImageMetadata metadata = ImageHeaderParser.parse(jpeg, jpeg.length, jpeg.length);
+
+        // then
+        assertEquals(LocalDateTime.of(2021, 7, 14, 18, 30, 5), metadata.getCapturedAt());
+        assertEquals(480, metadata.getWidth());
+        assertEquals(640, metadata.getHeight());
+    }
+
+    @Test
+    void shouldReadPngAndGifDimensions() throws IOException {
+        byte[] png = image(300, 200, "png");
+        byte[] gif = image(30, 20, "gif");
+
+        ImageMetadata pngMetadata = ImageHeaderParser.parse(png, png.length, png.length);
+        ImageMetadata gifMetadata = ImageHeaderParser.parse(gif, gif.length, gif.length);
+
+        assertEquals("image/png", pngMetadata.getContentType());
+        assertEquals(300, pngMetadata.getWidth());
+        assertEquals(200, pngMetadata.getHeight());
+        assertEquals("image/gif", gifMetadata.getContentType());
+        assertEquals(30, gifMetadata.getWidth());
+        assertEquals(20, gifMetadata.getHeight());
+    }
+
+    @Test
+    void shouldKeepWhatWasReadFromTruncatedHeader() throws IOException {
+        byte[] jpeg = image(640, 480, "jpg");
+
+        ImageMetadata metadata = ImageHeaderParser.parse(Arrays.copyOf(jpeg, 20), 20, jpeg.length);
+
+        assertEquals("image/jpeg", metadata.getContentType());
+        assertNull(metadata.getWidth());
+    }
+
+    @Test
+    void shouldIgnoreUnknownFormats() {
+        byte[] text = "not an image".getBytes();
+
+        ImageMetadata metadata = ImageHeaderParser.parse(text, text.length, text.length);
+
+        assertNull(metadata.getContentType());
+        assertNull(metadata.getWidth());
+        assertEquals(text.length, metadata.getByteSize());
+    }
+
+    private static byte[] image(int width, int height, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Inserts a little-endian EXIF segment with an orientation and a DateTimeOriginal right after the JPEG SOI marker.
+     */
+    private static byte[] withExif(byte[] jpeg, int orientation, String dateTimeOriginal) {
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 2 * 12 + 4 + 2 + 12 + 4 + 20).order(ByteOrder.LITTLE_ENDIAN);
+        int exifIfd = 8 + 2 + 2 * 12 + 4;
+        int dateOffset = exifIfd + 2 + 12 + 4;
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(exifIfd);
+        tiff.putInt(0);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x9003).putShort((short) 2).putInt(20).putInt(dateOffset);
+        tiff.putInt(0);
+        tiff.put(dateTimeOriginal.getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+
+        byte[] payload = tiff.array();
+        ByteBuffer segment = ByteBuffer.allocate(4 + 6 + payload.length);
+        segment.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (2 + 6 + payload.length));
+        segment.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII)).put(payload);
+
+        byte[] result = new byte[jpeg.length + segment.capacity()];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(segment.array(), 0, result, 2, segment.capacity());
+        System.arraycopy(jpeg, 2, result, 2 + segment.capacity(), jpeg.length - 2);
+        return result;
+    }
+}
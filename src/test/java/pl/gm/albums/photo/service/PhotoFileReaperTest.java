@@ -0,0 +1,213 @@
+package pl.gm.albums.photo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.model.PhotoFileDeletionEntity;
+import pl.gm.albums.photo.repository.PhotoFileDeletionRepository;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.InMemoryPhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PhotoFileReaperTest {
+
+    @Mock
+    private PhotoRepository photoRepository;
+
+    @Mock
+    private PhotoFileDeletionRepository photoFileDeletionRepository;
+
+    @Mock
+    private ThumbnailService thumbnailService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private InMemoryPhotoStorage photoStorage;
+
+    private PhotoFileReaper photoFileReaper;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        // The scheduled worker never runs during a test, batches are reaped by hand
+        photoStorage = new InMemoryPhotoStorage();
+        photoFileReaper = newReaper(photoStorage);
+    }
+
+    @AfterEach
+    void tearDown() {
+        photoFileReaper.shutdown();
+    }
+
+    private PhotoFileReaper newReaper(PhotoStorage storage) {
+        return new PhotoFileReaper(photoRepository, photoFileDeletionRepository, thumbnailService, storage,
+                new TransactionTemplate(transactionManager), new SimpleMeterRegistry(),
+                2, 3_600_000, 60_000, 1_000, 2);
+    }
+
+    private PhotoFileDeletionEntity pending(long id, String fileName, int attempts) {
+        PhotoFileDeletionEntity deletion = new PhotoFileDeletionEntity(id, fileName, attempts,
+                LocalDateTime.now().minusMinutes(2), LocalDateTime.now().minusMinutes(1));
+        when(photoFileDeletionRepository.findAndLockById(id)).thenReturn(Optional.of(deletion));
+        return deletion;
+    }
+
+    @Test
+    void reapBatchShouldDeleteUnreferencedFilesOnly() throws IOException {
+        // given
+        photoStorage.put("abc.jpg", new ByteArrayInputStream("abc".getBytes()));
+        photoStorage.put("def.jpg", new ByteArrayInputStream("def".getBytes()));
+        PhotoFileDeletionEntity abc = pending(1L, "abc.jpg", 0);
+        PhotoFileDeletionEntity def = pending(2L, "def.jpg", 0);
+        when(photoFileDeletionRepository.findDue(any(), any())).thenReturn(List.of(abc, def));
+        when(photoRepository.existsByFileName("def.jpg")).thenReturn(true);
+
+        // when
+        photoFileReaper.reapBatch();
+
+        // then
+        assertNull(photoStorage.stat("abc.jpg"));
+        assertNotNull(photoStorage.stat("def.jpg"));
+        verify(thumbnailService).deleteThumbnails("abc.jpg");
+        verify(thumbnailService, never()).deleteThumbnails("def.jpg");
+        verify(photoFileDeletionRepository).delete(abc);
+        verify(photoFileDeletionRepository).delete(def);
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    void reapBatchShouldKeepFilesWhoseDeletionWasPostponedSinceTheBatchWasRead() throws IOException {
+        // given
+        photoStorage.put("abc.jpg", new ByteArrayInputStream("abc".getBytes()));
+        PhotoFileDeletionEntity abc = pending(1L, "abc.jpg", 0);
+        when(photoFileDeletionRepository.findDue(any(), any())).thenReturn(List.of(abc));
+        // An upload of the same content postponed the deletion before the reaper locked its row
+        when(photoFileDeletionRepository.findAndLockById(1L)).thenReturn(Optional.of(new PhotoFileDeletionEntity(
+                1L, "abc.jpg", 0, abc.getCreatedAt(), LocalDateTime.now().plusMinutes(10))));
+
+        // when
+        photoFileReaper.reapBatch();
+
+        // then
+        assertNotNull(photoStorage.stat("abc.jpg"));
+        verifyNoInteractions(photoRepository);
+        verify(photoFileDeletionRepository, never()).delete(any());
+    }
+
+    @Test
+    void reapBatchShouldRetryFailedDeletesUntilAttemptsRunOut() {
+        // given
+        doThrow(new RuntimeException("Error deleting file ")).when(thumbnailService).deleteThumbnails(any());
+        PhotoFileDeletionEntity first = pending(1L, "abc.jpg", 0);
+        when(photoFileDeletionRepository.findDue(any(), any())).thenReturn(List.of(first));
+
+        // when
+        photoFileReaper.reapBatch();
+
+        // then
+        verify(photoFileDeletionRepository).reschedule(eq(1L), any());
+        verify(transactionManager).rollback(any());
+
+        // given
+        PhotoFileDeletionEntity second = pending(1L, "abc.jpg", 1);
+        when(photoFileDeletionRepository.findDue(any(), any())).thenReturn(List.of(second));
+
+        // when
+        photoFileReaper.reapBatch();
+
+        // then
+        verify(photoFileDeletionRepository).deleteById(1L);
+        verify(photoFileDeletionRepository, times(1)).reschedule(any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void reapShouldStoreOneDeletionPerFileDueAfterTheGracePeriod() {
+        // given
+        ArgumentCaptor<List<PhotoFileDeletionEntity>> saved = ArgumentCaptor.forClass(List.class);
+        LocalDateTime before = LocalDateTime.now();
+
+        // when
+        photoFileReaper.reap(List.of(
+                new PhotoFileDto(1L, "abc.jpg", "abc"),
+                new PhotoFileDto(2L, "abc.jpg", "abc"),
+                new PhotoFileDto(3L, "def.jpg", "def")));
+
+        // then
+        verify(photoFileDeletionRepository).saveAll(saved.capture());
+        List<PhotoFileDeletionEntity> deletions = new ArrayList<>(saved.getValue());
+        assertEquals(List.of("abc.jpg", "def.jpg"), deletions.stream().map(PhotoFileDeletionEntity::getFileName).toList());
+        assertFalse(deletions.get(0).getDueAt().isBefore(before.plusMinutes(1)));
+        assertEquals(0, deletions.get(0).getAttempts());
+    }
+
+    @Test
+    void reapAlbumShouldQueueTheFilesOfTheAlbumWithOneStatement() {
+        // given
+        LocalDateTime before = LocalDateTime.now();
+
+        // when
+        photoFileReaper.reapAlbum(7L, List.of(
+                new PhotoFileDto(1L, "abc.jpg", "abc"),
+                new PhotoFileDto(2L, "def.jpg", "def")));
+
+        // then
+        ArgumentCaptor<LocalDateTime> dueAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(photoFileDeletionRepository).queueAlbumFiles(eq(7L), any(), dueAt.capture());
+        verify(photoFileDeletionRepository, never()).saveAll(any());
+        assertFalse(dueAt.getValue().isBefore(before.plusMinutes(1)));
+    }
+
+    @Test
+    void reapShouldDropCachedCopiesOfTheFilesAndTheirThumbnailsAtOnce() throws IOException {
+        // given
+        PhotoStorage cachingStorage = mock(PhotoStorage.class);
+        PhotoFileReaper reaper = newReaper(cachingStorage);
+        when(thumbnailService.thumbnailFileNames("abc.jpg")).thenReturn(List.of("abc_128.jpg"));
+
+        // when
+        try {
+            reaper.reap(List.of(new PhotoFileDto(1L, "abc.jpg", "abc")));
+        } finally {
+            reaper.shutdown();
+        }
+
+        // then
+        verify(cachingStorage).evictCached("abc.jpg");
+        verify(cachingStorage).evictCached("abc_128.jpg");
+        verify(cachingStorage, never()).delete(any());
+    }
+
+    @Test
+    void postponeShouldPushPendingDeletionsBackByTheGracePeriod() {
+        // given
+        LocalDateTime before = LocalDateTime.now();
+        ArgumentCaptor<LocalDateTime> dueAt = ArgumentCaptor.forClass(LocalDateTime.class);
+
+        // when
+        photoFileReaper.postpone("abc.jpg");
+
+        // then
+        verify(photoFileDeletionRepository).postpone(eq("abc.jpg"), dueAt.capture());
+        assertFalse(dueAt.getValue().isBefore(before.plusMinutes(1)));
+    }
+}
@@ -0,0 +1,96 @@
+package pl.gm.albums.photo.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.mock.web.MockMultipartFile;
+import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.repository.PhotoFileDeletionRepository;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.PhotoStorage;
+import pl.gm.albums.photo.storage.PhotoStorage.StoredFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs an upload of the same content as a deleted photo while the reaper is deleting its file.
+ * The storage skips writing content it already holds, so without the lock of the pending deletion the upload would
+ * reference a file the reaper deletes right after.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:photo-file-reaper-upload-test",
+        "photos.storage.type=memory",
+        "photos.reaper.interval-ms=3600000",
+        "photos.reaper.grace-ms=0",
+        "photos.import.root=target/reaper-upload-test/import",
+        "photos.jobs.spool-dir=target/reaper-upload-test/spool"})
+class PhotoFileReaperUploadTest {
+
+    private static final byte[] PHOTO = "deleted and uploaded again".getBytes();
+
+    @SpyBean
+    private PhotoStorage photoStorage;
+
+    @Autowired
+    private PhotoFileReaper photoFileReaper;
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private PhotoFileDeletionRepository photoFileDeletionRepository;
+
+    @Test
+    void uploadShouldKeepTheFileTheReaperIsDeleting() throws Exception {
+        // given
+        StoredFile file = photoStorage.store(new ByteArrayInputStream(PHOTO), ".jpg");
+        photoFileReaper.reap(List.of(new PhotoFileDto(1L, file.fileName(), file.contentHash())));
+        CountDownLatch deleting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            deleting.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return invocation.callRealMethod();
+        }).when(photoStorage).delete(file.fileName());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // when
+            Future<?> reaper = executor.submit(photoFileReaper::reapBatch);
+            assertTrue(deleting.await(10, TimeUnit.SECONDS));
+            // The reaper holds the lock of the pending deletion and has checked that no photo references the file
+            Future<PhotoDto> upload = executor.submit(() -> photoService.createPhotoEntity(
+                    new MockMultipartFile("imageFile", "again.jpg", "image/jpeg", PHOTO)));
+            verify(photoStorage, timeout(10_000).times(2)).store(any(InputStream.class), anyString());
+            release.countDown();
+            reaper.get(10, TimeUnit.SECONDS);
+            PhotoDto photo = upload.get(10, TimeUnit.SECONDS);
+
+            // then
+            assertEquals(file.fileName(), photo.getFileName());
+            assertTrue(photoRepository.existsByFileName(file.fileName()));
+            assertNotNull(photoStorage.stat(file.fileName()));
+            assertEquals(0, photoFileDeletionRepository.countPending());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,24 +1,33 @@
 package pl.gm.albums.photo.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
-import org.modelmapper.ModelMapper;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+import pl.gm.albums.album.model.AlbumEntity;
+import pl.gm.albums.album.repository.AlbumRepository;
 import pl.gm.albums.photo.dto.PhotoDto;
+import pl.gm.albums.photo.mapper.PhotoMapper;
+import pl.gm.albums.photo.mapper.PhotoMapperImpl;
 import pl.gm.albums.photo.model.PhotoEntity;
 import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.InMemoryPhotoStorage;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -28,22 +37,35 @@ class PhotoServiceTest {
     @Mock
     private PhotoRepository photoRepository;
 
+    @Mock
+    private AlbumRepository albumRepository;
+
+    @Mock
+    private ThumbnailService thumbnailService;
+
+    @Mock
+    private PhotoFileReaper photoFileReaper;
+
     private PhotoService photoService;
 
-    private ModelMapper modelMapper = new ModelMapper();
+    private InMemoryPhotoStorage photoStorage;
+
+    private PhotoMapper photoMapper = new PhotoMapperImpl();
 
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        photoService = new PhotoService(photoRepository, modelMapper);
+        photoStorage = new InMemoryPhotoStorage();
+        photoService = new PhotoService(photoRepository, albumRepository, thumbnailService, photoMapper, Runnable::run, photoStorage,
+                photoFileReaper, new SimpleMeterRegistry());
     }
 
     @Test
     void testListAll() {
         List<PhotoEntity> photoEntities = new ArrayList<>();
-        PhotoEntity photo1 = new PhotoEntity(1L, "/path/to/photo1", "photo1.jpg", null);
-        PhotoEntity photo2 = new PhotoEntity(2L, "/path/to/photo2", "photo2.jpg", null);
+        PhotoEntity photo1 = new PhotoEntity(1L, "/path/to/photo1", "photo1.jpg", "photo1.jpg", null, null, false, null, null);
+        PhotoEntity photo2 = new PhotoEntity(2L, "/path/to/photo2", "photo2.jpg", "photo2.jpg", null, null, false, null, null);
         photoEntities.add(photo1);
         photoEntities.add(photo2);
 
@@ -61,8 +83,9 @@ class PhotoServiceTest {
 
     @Test
     void testSave() {
-        PhotoDto photoDto = new PhotoDto(null, "/path/to/photo1", "photo1.jpg", null);
-        PhotoEntity photoEntity = new PhotoEntity(null, "/path/to/photo1", "photo1.jpg", null);
+        PhotoDto photoDto = new PhotoDto(null, "/path/to/photo1", "photo1.jpg", "photo1.jpg", null, null, false, null,
+                null, null, null, null, null);
+        PhotoEntity photoEntity = new PhotoEntity(null, "/path/to/photo1", "photo1.jpg", "photo1.jpg", null, null, false, null, null);
 
         when(photoRepository.save(any(PhotoEntity.class))).thenReturn(photoEntity);
 
@@ -74,8 +97,9 @@ class PhotoServiceTest {
 
     @Test
     void testGetById() {
-        PhotoEntity photoEntity = new PhotoEntity(1L, "/path/to/photo1", "photo1.jpg", null);
-        PhotoDto expected = new PhotoDto(1L, "/path/to/photo1", "photo1.jpg", null);
+        PhotoEntity photoEntity = new PhotoEntity(1L, "/path/to/photo1", "photo1.jpg", "photo1.jpg", null, null, false, null, null);
+        PhotoDto expected = new PhotoDto(1L, "/path/to/photo1", "photo1.jpg", "photo1.jpg", null, null, false, null,
+                null, null, null, null, null);
 
         when(photoRepository.findById(photoEntity.getId())).thenReturn(Optional.of(photoEntity));
 
@@ -116,6 +140,29 @@ class PhotoServiceTest {
         verify(photoRepository).save(any(PhotoEntity.class));
     }
 
+    @Test
+    void updateShouldKeepThePhotoInItsAlbum() {
+        // given
+        AlbumEntity album = new AlbumEntity();
+        album.setId(7L);
+        when(albumRepository.getReferenceById(7L)).thenReturn(album);
+        PhotoDto photoDto = new PhotoDto();
+        photoDto.setId(1L);
+        photoDto.setFileName("photo1.jpg");
+        photoDto.setOriginalFileName("renamed.jpg");
+        photoDto.setAlbumId(7L);
+
+        // when
+        photoService.update(photoDto);
+
+        // then
+        ArgumentCaptor<PhotoEntity> saved = ArgumentCaptor.forClass(PhotoEntity.class);
+        verify(photoRepository).save(saved.capture());
+        assertSame(album, saved.getValue().getAlbum());
+        assertEquals("renamed.jpg", saved.getValue().getOriginalFileName());
+        assertEquals(7L, photoMapper.toDto(saved.getValue()).getAlbumId());
+    }
+
     @Test
     void deleteTest() {
         photoService.delete(1L);
@@ -127,31 +174,107 @@ class PhotoServiceTest {
         // given
         MockMultipartFile imageFile = new MockMultipartFile("test-image.jpg", "test-image.jpg", "image/jpeg", "test data".getBytes());
 
-        String mockFileName = imageFile.getOriginalFilename();
-        String path = "./src/main/resources/static/photos/";
+        String expectedFileName = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9.jpg";
         PhotoEntity photoEntity = new PhotoEntity();
         photoEntity.setId(1L);
         when(photoRepository.save(any(PhotoEntity.class))).thenReturn(photoEntity);
 
 // when
-        PhotoDto result = photoService.createPhotoEntity(imageFile, path);
+        PhotoDto result = photoService.createPhotoEntity(imageFile);
 
 // then
-        assertEquals("test-image.jpg", result.getFileName());
-        assertEquals(path + "test-image.jpg", result.getPath() + result.getFileName());
+        assertEquals(expectedFileName, result.getFileName());
+        assertEquals("test-image.jpg", result.getOriginalFileName());
+        assertEquals(9, photoStorage.stat(expectedFileName).size());
         verify(photoRepository, times(1)).save(any(PhotoEntity.class));
+        verify(thumbnailService).generateThumbnails(any(), eq(expectedFileName));
+    }
+
+    @Test
+    void createPhotoEntityShouldStoreImageMetadata() throws IOException {
+        // given
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png", png);
+        MockMultipartFile imageFile = new MockMultipartFile("imageFile", "photo.png", "image/png", png.toByteArray());
+
+        // when
+        PhotoDto result = photoService.createPhotoEntity(imageFile);
+
+        // then
+        assertEquals(300, result.getWidth());
+        assertEquals(200, result.getHeight());
+        assertEquals(png.size(), result.getByteSize());
+        assertEquals("image/png", result.getContentType());
+        assertNull(result.getCapturedAt());
+    }
+
+    @Test
+    void createPhotoEntityShouldReuseExistingThumbnails() {
+        // given
+        MockMultipartFile imageFile = new MockMultipartFile("test-image.jpg", "test-image.jpg", "image/jpeg", "test data".getBytes());
+        when(photoRepository.existsByFileNameAndThumbnailsReadyTrue(anyString())).thenReturn(true);
+
+        // when
+        PhotoDto result = photoService.createPhotoEntity(imageFile);
+
+        // then
+        assertTrue(result.isThumbnailsReady());
+        verifyNoInteractions(thumbnailService);
+    }
+
+    @Test
+    void createPhotoEntitiesShouldSaveAllPhotosInOneCall() {
+        // given
+        List<MultipartFile> imageFiles = List.of(
+                new MockMultipartFile("imageFiles", "one.jpg", "image/jpeg", "one".getBytes()),
+                new MockMultipartFile("imageFiles", "empty.jpg", "image/jpeg", new byte[0]),
+                new MockMultipartFile("imageFiles", "two.jpg", "image/jpeg", "two".getBytes()),
+                new MockMultipartFile("imageFiles", "copy-of-two.jpg", "image/jpeg", "two".getBytes()));
+        when(photoRepository.findFileNamesWithThumbnails(anyCollection())).thenReturn(Set.of());
+
+        // when
+        List<PhotoDto> result = photoService.createPhotoEntities(imageFiles);
+
+        // then
+        assertEquals(List.of("one.jpg", "two.jpg", "copy-of-two.jpg"),
+                result.stream().map(PhotoDto::getOriginalFileName).toList());
+        assertEquals(result.get(1).getFileName(), result.get(2).getFileName());
+        verify(photoRepository).saveAll(anyList());
+        verify(thumbnailService, times(2)).generateThumbnails(any(), anyString());
+    }
+
+    @Test
+    void createPhotoEntitiesShouldGenerateThumbnailsForEveryStoredFile() {
+        // given
+        List<MultipartFile> imageFiles = List.of(
+                new MockMultipartFile("imageFiles", "one.jpg", "image/jpeg", "same".getBytes()),
+                new MockMultipartFile("imageFiles", "one.jpeg", "image/jpeg", "same".getBytes()));
+        when(photoRepository.findFileNamesWithThumbnails(anyCollection())).thenReturn(Set.of());
+
+        // when
+        List<PhotoDto> result = photoService.createPhotoEntities(imageFiles);
+
+        // then
+        assertEquals(result.get(0).getContentHash(), result.get(1).getContentHash());
+        assertNotEquals(result.get(0).getFileName(), result.get(1).getFileName());
+        verify(thumbnailService).generateThumbnails(any(), eq(result.get(0).getFileName()));
+        verify(thumbnailService).generateThumbnails(any(), eq(result.get(1).getFileName()));
     }
 
     @Test
-    void shouldSaveFileSuccessfully() throws Exception {
+    void storeFileShouldStoreTheContentAgainWhenTheReaperDeletedIt() throws IOException {
         // given
-        Path path = Paths.get("./src/main/resources/static/photos/");
-        MockMultipartFile file = new MockMultipartFile("testfile.jpg", "testfile.jpg", "image/jpeg", "test data".getBytes());
+        String fileName = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9.jpg";
+        photoStorage.put(fileName, new ByteArrayInputStream("test data".getBytes()));
+        // The reaper deletes the file of a deleted photo with the same content while the upload waits for its lock
+        doAnswer(invocation -> photoStorage.delete(fileName)).when(photoFileReaper).postpone(fileName);
+        MockMultipartFile imageFile = new MockMultipartFile("imageFile", "test-image.jpg", "image/jpeg", "test data".getBytes());
 
         // when
-        PhotoService.savePhotoFile(file, path.toString());
+        PhotoService.StoredUpload upload = photoService.storeFile(imageFile, "test-image.jpg", imageFile.getSize());
 
         // then
-        assertTrue(Files.exists(path.resolve(file.getOriginalFilename())));
+        assertEquals(fileName, upload.file().fileName());
+        assertEquals(9, photoStorage.stat(fileName).size());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,210 @@
+package pl.gm.albums.photo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import pl.gm.albums.AlbumsApplication;
+import pl.gm.albums.photo.dto.PhotoFileDto;
+import pl.gm.albums.photo.repository.PhotoRepository;
+import pl.gm.albums.photo.storage.InMemoryPhotoStorage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ThumbnailServiceTest {
+
+    /** Sweeps only when a test calls it */
+    private static final long SWEEP_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Mock
+    private PhotoRepository photoRepository;
+
+    private InMemoryPhotoStorage photoStorage;
+
+    private ConcurrentMapCacheManager cacheManager;
+
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        photoStorage = new InMemoryPhotoStorage();
+        cacheManager = new ConcurrentMapCacheManager(AlbumsApplication.PHOTOS_CACHE, AlbumsApplication.ALBUMS_CACHE,
+                AlbumsApplication.ALBUM_SUMMARIES_CACHE);
+        thumbnailService = new ThumbnailService(photoRepository, photoStorage, cacheManager, new int[]{128, 512}, 10,
+                SWEEP_MS, SWEEP_MS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        thumbnailService.shutdown();
+    }
+
+    @Test
+    void shouldWriteAllVariantsAndMarkPhoto() throws IOException {
+        // given
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_ARGB), "png", original);
+        photoStorage.put("landscape.png", new ByteArrayInputStream(original.toByteArray()));
+
+        // when
+        thumbnailService.createThumbnails(7L, "landscape.png");
+
+        // then
+        BufferedImage large = readImage("landscape_512.png");
+        BufferedImage small = readImage("landscape_128.png");
+        assertEquals(512, large.getWidth());
+        assertEquals(256, large.getHeight());
+        assertEquals(128, small.getWidth());
+        assertEquals(64, small.getHeight());
+        verify(photoRepository).markThumbnailsReady(7L, "landscape.png");
+    }
+
+    @Test
+    void shouldEvictOnlyTheFlaggedPhotosAndTheirAlbums() throws IOException {
+        // given
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "png", original);
+        photoStorage.put("shared.png", new ByteArrayInputStream(original.toByteArray()));
+        when(photoRepository.findIdsSharingFile(7L, "shared.png")).thenReturn(List.of(7L, 8L));
+        when(photoRepository.findAlbumIdsByPhotoIds(List.of(7L, 8L))).thenReturn(Set.of(1L));
+        Cache photos = cacheManager.getCache(AlbumsApplication.PHOTOS_CACHE);
+        Cache albums = cacheManager.getCache(AlbumsApplication.ALBUMS_CACHE);
+        Cache albumSummaries = cacheManager.getCache(AlbumsApplication.ALBUM_SUMMARIES_CACHE);
+        List.of(7L, 8L, 9L).forEach(id -> photos.put(id, "photo"));
+        List.of(1L, 2L).forEach(id -> albums.put(id, "album"));
+        albumSummaries.put("page", "summaries");
+
+        // when
+        thumbnailService.createThumbnails(7L, "shared.png");
+
+        // then
+        assertNull(photos.get(7L));
+        assertNull(photos.get(8L));
+        assertNotNull(photos.get(9L));
+        assertNull(albums.get(1L));
+        assertNotNull(albums.get(2L));
+        assertNotNull(albumSummaries.get("page"));
+    }
+
+    @Test
+    void shouldDropAlbumSummariesWhenAMainPhotoIsFlagged() throws IOException {
+        // given
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "png", original);
+        photoStorage.put("main.png", new ByteArrayInputStream(original.toByteArray()));
+        when(photoRepository.findIdsSharingFile(7L, "main.png")).thenReturn(List.of(7L));
+        when(photoRepository.findAlbumIdsByMainPhotoIds(List.of(7L))).thenReturn(Set.of(3L));
+        Cache albums = cacheManager.getCache(AlbumsApplication.ALBUMS_CACHE);
+        Cache albumSummaries = cacheManager.getCache(AlbumsApplication.ALBUM_SUMMARIES_CACHE);
+        albums.put(3L, "album");
+        albumSummaries.put("page", "summaries");
+
+        // when
+        thumbnailService.createThumbnails(7L, "main.png");
+
+        // then
+        assertNull(albums.get(3L));
+        assertNull(albumSummaries.get("page"));
+    }
+
+    @Test
+    void shouldNotUpscaleSmallPhotos() {
+        BufferedImage scaled = ThumbnailService.scale(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB), 512, "jpg");
+
+        assertEquals(100, scaled.getWidth());
+        assertEquals(80, scaled.getHeight());
+    }
+
+    @Test
+    void shouldSkipFilesThatAreNotImages() throws IOException {
+        // given
+        photoStorage.put("notes.jpg", new ByteArrayInputStream("not an image".getBytes()));
+
+        // when
+        thumbnailService.createThumbnails(7L, "notes.jpg");
+
+        // then
+        assertNull(photoStorage.stat("notes_128.jpg"));
+        verifyNoInteractions(photoRepository);
+    }
+
+    @Test
+    void shouldDropJobsWhenTheQueueIsFull() throws Exception {
+        // given
+        CountDownLatch storageAvailable = new CountDownLatch(1);
+        InMemoryPhotoStorage slowStorage = new InMemoryPhotoStorage() {
+            @Override
+            public InputStream open(String fileName) throws IOException {
+                try {
+                    storageAvailable.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.open(fileName);
+            }
+        };
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "png", original);
+        slowStorage.put("photo.png", new ByteArrayInputStream(original.toByteArray()));
+        thumbnailService.shutdown();
+        thumbnailService = new ThumbnailService(photoRepository, slowStorage, cacheManager, new int[]{8}, 1,
+                SWEEP_MS, SWEEP_MS);
+        int jobs = thumbnailService.getRemainingCapacity();
+        for (long id = 0; id < jobs; id++) {
+            thumbnailService.generateThumbnails(id, "photo.png");
+        }
+
+        // when
+        CompletableFuture<Void> dropped = CompletableFuture.runAsync(
+                () -> thumbnailService.generateThumbnails(100L, "photo.png"));
+
+        // then
+        dropped.get(5, TimeUnit.SECONDS);
+        storageAvailable.countDown();
+        verify(photoRepository, timeout(5000).times(jobs)).markThumbnailsReady(anyLong(), eq("photo.png"));
+        verify(photoRepository, never()).markThumbnailsReady(100L, "photo.png");
+    }
+
+    @Test
+    void sweepShouldQueueThePhotosWithoutThumbnailsOnce() throws IOException {
+        // given
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "png", original);
+        photoStorage.put("left.png", new ByteArrayInputStream(original.toByteArray()));
+        when(photoRepository.findFilesWithoutThumbnails(eq(0L), any())).thenReturn(List.of(
+                new PhotoFileDto(7L, "left.png", "abc"),
+                new PhotoFileDto(8L, "left.png", "abc")));
+
+        // when
+        thumbnailService.sweep();
+
+        // then
+        verify(photoRepository, timeout(5000)).markThumbnailsReady(7L, "left.png");
+        assertNotNull(photoStorage.stat("left_128.png"));
+        verify(photoRepository, never()).markThumbnailsReady(8L, "left.png");
+    }
+
+    private BufferedImage readImage(String fileName) throws IOException {
+        try (InputStream in = photoStorage.open(fileName)) {
+            return ImageIO.read(in);
+        }
+    }
+}
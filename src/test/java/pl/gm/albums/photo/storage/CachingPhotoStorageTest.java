@@ -0,0 +1,211 @@
+package pl.gm.albums.photo.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingPhotoStorageTest {
+
+    private static final long LATENCY_MS = 100;
+
+    @TempDir
+    Path cacheRoot;
+
+    private SlowPhotoStorage slowStorage;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private CachingPhotoStorage photoStorage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        slowStorage = new SlowPhotoStorage();
+        slowStorage.put("thumb_128.jpg", stream(10));
+        slowStorage.put("original.jpg", stream(100));
+        meterRegistry = new SimpleMeterRegistry();
+        // Files up to 16 bytes in memory, 40 of them in total; 250 bytes on the disk
+        photoStorage = new CachingPhotoStorage(slowStorage, cacheRoot, 40, 16, 250, meterRegistry);
+    }
+
+    private static InputStream stream(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private byte[] read(String fileName) throws IOException {
+        try (InputStream in = photoStorage.open(fileName)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private long cachedFiles() throws IOException {
+        try (var files = Files.list(cacheRoot)) {
+            return files.count();
+        }
+    }
+
+    private double reads(String result) {
+        return meterRegistry.get("photos.storage.cache.reads").tag("result", result).counter().count();
+    }
+
+    @Test
+    void smallFilesShouldBeServedFromMemoryAfterTheFirstRead() throws IOException {
+        // when
+        byte[] first = read("thumb_128.jpg");
+        long start = System.nanoTime();
+        byte[] second = read("thumb_128.jpg");
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // then
+        assertArrayEquals(first, second);
+        assertEquals(10, second.length);
+        assertEquals(1, slowStorage.opens.get());
+        assertTrue(elapsedMs < LATENCY_MS, "cached read took " + elapsedMs + " ms");
+        assertEquals(0, cachedFiles());
+        assertEquals(1, reads("memory"));
+        assertEquals(10, photoStorage.stat("thumb_128.jpg").size());
+    }
+
+    @Test
+    void largeFilesShouldBeServedFromTheLocalDiskAfterTheFirstRead() throws IOException {
+        // when
+        read("original.jpg");
+        byte[] second = read("original.jpg");
+
+        // then
+        assertEquals(100, second.length);
+        assertEquals(99, second[99]);
+        assertEquals(1, slowStorage.opens.get());
+        assertEquals(1, cachedFiles());
+        assertEquals(1, reads("disk"));
+    }
+
+    @Test
+    void concurrentMissesShouldReadTheStorageOnce() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                reads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return read("original.jpg");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new)).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        // then
+        assertEquals(1, slowStorage.opens.get());
+        for (CompletableFuture<byte[]> read : reads) {
+            assertEquals(100, read.get().length);
+        }
+        assertEquals(1, cachedFiles());
+    }
+
+    @Test
+    void tiersShouldStayWithinTheirByteBudgets() throws IOException {
+        // given
+        for (int i = 0; i < 6; i++) {
+            slowStorage.put("thumb_" + i + ".jpg", stream(10));
+            slowStorage.put("original_" + i + ".jpg", stream(100));
+        }
+
+        // when
+        for (int i = 0; i < 6; i++) {
+            read("thumb_" + i + ".jpg");
+            read("original_" + i + ".jpg");
+        }
+
+        // then
+        assertTrue(meterRegistry.get("photos.storage.cache.size").tag("tier", "memory").gauge().value() <= 40);
+        assertTrue(meterRegistry.get("photos.storage.cache.size").tag("tier", "disk").gauge().value() <= 250);
+        assertTrue(cachedFiles() <= 2);
+    }
+
+    @Test
+    void deletedAndEvictedFilesShouldBeReadFromTheStorageAgain() throws IOException {
+        // given
+        read("original.jpg");
+        read("thumb_128.jpg");
+
+        // when
+        photoStorage.evictCached("original.jpg");
+        photoStorage.delete("thumb_128.jpg");
+
+        // then
+        assertEquals(0, cachedFiles());
+        assertEquals(100, read("original.jpg").length);
+        assertEquals(3, slowStorage.opens.get());
+        assertThrows(NoSuchFileException.class, () -> read("thumb_128.jpg"));
+        assertNull(photoStorage.stat("thumb_128.jpg"));
+    }
+
+    @Test
+    void replacedFilesShouldNotBeServedFromTheCache() throws IOException {
+        // given
+        read("thumb_128.jpg");
+
+        // when
+        photoStorage.put("thumb_128.jpg", stream(12));
+
+        // then
+        assertEquals(12, read("thumb_128.jpg").length);
+        assertEquals(12, photoStorage.stat("thumb_128.jpg").size());
+    }
+
+    /**
+     * Stand-in for a network or object storage: every stat and open waits before it answers.
+     */
+    private static class SlowPhotoStorage extends InMemoryPhotoStorage {
+
+        private final AtomicInteger opens = new AtomicInteger();
+
+        @Override
+        public InputStream open(String fileName) throws IOException {
+            opens.incrementAndGet();
+            sleep();
+            return super.open(fileName);
+        }
+
+        @Override
+        public FileInfo stat(String fileName) {
+            sleep();
+            return super.stat(fileName);
+        }
+
+        private static void sleep() {
+            try {
+                Thread.sleep(LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
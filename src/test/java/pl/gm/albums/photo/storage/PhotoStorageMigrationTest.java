@@ -0,0 +1,63 @@
+package pl.gm.albums.photo.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationContext;
+import pl.gm.albums.photo.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PhotoStorageMigrationTest {
+
+    @Mock
+    private PhotoRepository photoRepository;
+
+    @Mock
+    private ApplicationContext context;
+
+    @TempDir
+    Path legacyDirectory;
+
+    private InMemoryPhotoStorage photoStorage;
+
+    private PhotoStorageMigration migration;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        photoStorage = new InMemoryPhotoStorage();
+        migration = new PhotoStorageMigration(photoRepository, photoStorage, context, new int[]{128, 512});
+    }
+
+    @Test
+    void shouldMoveFilesAndThumbnailsIntoStorage() throws IOException {
+        // given
+        Files.writeString(legacyDirectory.resolve("abc.jpg"), "original");
+        Files.writeString(legacyDirectory.resolve("abc_512.jpg"), "thumbnail");
+        Files.writeString(legacyDirectory.resolve("unrelated.jpg"), "unrelated");
+        String path = legacyDirectory + "/";
+        when(photoRepository.findLegacyPaths()).thenReturn(List.of(path));
+        when(photoRepository.findFileNamesByPath(path)).thenReturn(List.of("abc.jpg", "missing.jpg"));
+
+        // when
+        int moved = migration.migrate();
+
+        // then
+        assertEquals(2, moved);
+        assertEquals(8, photoStorage.stat("abc.jpg").size());
+        assertEquals(9, photoStorage.stat("abc_512.jpg").size());
+        assertNull(photoStorage.stat("unrelated.jpg"));
+        assertFalse(Files.exists(legacyDirectory.resolve("abc.jpg")));
+        assertTrue(Files.exists(legacyDirectory.resolve("unrelated.jpg")));
+        verify(photoRepository).clearPath(path);
+    }
+}
@@ -0,0 +1,90 @@
+package pl.gm.albums.photo.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedFileSystemPhotoStorageTest {
+
+    private static final String HASH = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+
+    @TempDir
+    Path root;
+
+    private ShardedFileSystemPhotoStorage photoStorage;
+
+    @BeforeEach
+    void setUp() {
+        photoStorage = new ShardedFileSystemPhotoStorage(root);
+    }
+
+    @Test
+    void shouldStoreFileUnderContentHashInShardDirectory() throws IOException {
+        // when
+        PhotoStorage.StoredFile storedFile = photoStorage.store(stream("test data"), ".jpg");
+
+        // then
+        assertEquals(HASH, storedFile.contentHash());
+        assertEquals(3540561586L, storedFile.crc32());
+        assertEquals(HASH + ".jpg", storedFile.fileName());
+        assertEquals(9, storedFile.size());
+        assertEquals("test data", Files.readString(root.resolve("91/6f/" + HASH + ".jpg")));
+    }
+
+    @Test
+    void shouldStoreSameContentOnce() throws IOException {
+        // when
+        PhotoStorage.StoredFile first = photoStorage.store(stream("same data"), ".jpg");
+        PhotoStorage.StoredFile second = photoStorage.store(stream("same data"), ".jpg");
+
+        // then
+        assertEquals(first, second);
+        try (var files = Files.walk(root)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void shouldPutThumbnailNextToOriginal() throws IOException {
+        // when
+        photoStorage.put(HASH + "_512.jpg", stream("thumbnail"));
+
+        // then
+        assertEquals(photoStorage.localPath(HASH + ".jpg").getParent(), photoStorage.localPath(HASH + "_512.jpg").getParent());
+        try (InputStream in = photoStorage.open(HASH + "_512.jpg")) {
+            assertEquals("thumbnail", new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    void shouldDeleteFileAndReportMissingOnes() throws IOException {
+        // given
+        photoStorage.put("legacy.jpg", stream("legacy data"));
+
+        // when, then
+        assertEquals(11, photoStorage.stat("legacy.jpg").size());
+        assertTrue(photoStorage.delete("legacy.jpg"));
+        assertFalse(photoStorage.delete("legacy.jpg"));
+        assertNull(photoStorage.stat("legacy.jpg"));
+        assertThrows(NoSuchFileException.class, () -> photoStorage.open("legacy.jpg"));
+    }
+
+    @Test
+    void shouldRejectNamesOutsideStorage() {
+        assertThrows(IllegalArgumentException.class, () -> photoStorage.localPath("../albums.mv.db"));
+        assertThrows(IllegalArgumentException.class, () -> photoStorage.localPath(".tmp"));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}
@@ -0,0 +1,33 @@
+package pl.gm.albums.threads;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.NestedExceptionUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadGuardTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(VirtualThreadGuard.class);
+
+    @Test
+    void startupShouldFailWhenVirtualThreadsAreEnabledOnABuildWithoutThem() {
+        // when
+        contextRunner.withPropertyValues("photos.threads.virtual=true").run(context -> {
+            // then
+            Throwable cause = NestedExceptionUtils.getMostSpecificCause(context.getStartupFailure());
+            assertInstanceOf(IllegalStateException.class, cause);
+            assertTrue(cause.getMessage().contains("jdk21"));
+        });
+    }
+
+    @Test
+    void startupShouldSucceedOnPlatformThreads() {
+        // when
+        contextRunner.run(context -> {
+            // then
+            assertNull(context.getStartupFailure());
+        });
+    }
+}